@@ -0,0 +1,155 @@
+package com.jameskelso.android.widget.benchmark;
+
+import com.jameskelso.android.widget.core.AspectRatioMeasurer;
+import com.jameskelso.android.widget.core.AspectRatios;
+import com.jameskelso.android.widget.core.Dimensions;
+import com.jameskelso.android.widget.core.MeasureSpecs;
+import com.jameskelso.android.widget.core.PrecomputedMeasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the aspect ratio math and the measure decisions made by
+ * {@link com.jameskelso.android.widget.AspectRatioImageView#onMeasure(int, int)}, run across every
+ * combination of measure spec modes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AspectRatioMeasurerBenchmark {
+    private static final int PARENT_WIDTH = 1080;
+    private static final int PARENT_HEIGHT = 1920;
+
+    @Param({"EXACTLY", "AT_MOST", "UNSPECIFIED"})
+    public String widthMode;
+
+    @Param({"EXACTLY", "AT_MOST", "UNSPECIFIED"})
+    public String heightMode;
+
+    private int mRatioWidth;
+    private int mRatioHeight;
+    private int mOriginalWidth;
+    private int mOriginalHeight;
+    private int mWidthMeasureSpec;
+    private int mHeightMeasureSpec;
+    private int[] mWidthMeasureSpecs;
+    private int mSpecIndex;
+    private long mRestoredSize;
+    private PrecomputedMeasure mPrecomputedMeasure;
+    private AspectRatioMeasurer mMeasurer;
+
+    @Setup
+    public void setUp() {
+        mOriginalWidth = 3415;
+        mOriginalHeight = 2268;
+        long aspectRatio = AspectRatios.calculateAspectRatio(mOriginalWidth, mOriginalHeight);
+        mRatioWidth = Dimensions.width(aspectRatio);
+        mRatioHeight = Dimensions.height(aspectRatio);
+        mWidthMeasureSpec = MeasureSpecs.makeMeasureSpec(PARENT_WIDTH, parseMode(widthMode));
+        mHeightMeasureSpec = MeasureSpecs.makeMeasureSpec(PARENT_HEIGHT, parseMode(heightMode));
+
+        // A spread of widths that defeats the measure cache, as seen when rows are rebound into
+        // columns of different sizes
+        mWidthMeasureSpecs = new int[64];
+        for (int i = 0; i < mWidthMeasureSpecs.length; i++) {
+            mWidthMeasureSpecs[i] = MeasureSpecs.makeMeasureSpec(PARENT_WIDTH - i,
+                    parseMode(widthMode));
+        }
+
+        // Only exact widths can be precomputed. Other modes measure a precomputed measure that
+        // doesn't match, which is the cost of checking it on every pass.
+        mPrecomputedMeasure = PrecomputedMeasure.create(aspectRatio,
+                MeasureSpecs.makeMeasureSpec(PARENT_WIDTH, MeasureSpecs.EXACTLY),
+                mHeightMeasureSpec);
+
+        // A restored size is whatever the view resolved before its state was saved
+        mMeasurer = new AspectRatioMeasurer();
+        mRestoredSize = measure(mWidthMeasureSpec, mHeightMeasureSpec, Dimensions.NONE, null);
+        mMeasurer = new AspectRatioMeasurer();
+    }
+
+    @Benchmark
+    public long calculateAspectRatio() {
+        return AspectRatios.calculateAspectRatio(mOriginalWidth, mOriginalHeight);
+    }
+
+    @Benchmark
+    public int calculateDesiredWidthForHeight() {
+        return AspectRatioMeasurer.calculateDesiredWidthForHeight(PARENT_HEIGHT, mWidthMeasureSpec,
+                mRatioWidth, mRatioHeight);
+    }
+
+    @Benchmark
+    public int calculateDesiredHeightForWidth() {
+        return AspectRatioMeasurer.calculateDesiredHeightForWidth(PARENT_WIDTH, mHeightMeasureSpec,
+                mRatioWidth, mRatioHeight);
+    }
+
+    @Benchmark
+    public long measureRepeatedSpecs() {
+        return measure(mWidthMeasureSpec, mHeightMeasureSpec, Dimensions.NONE, null);
+    }
+
+    @Benchmark
+    public long measureChangingSpecs() {
+        int widthMeasureSpec = mWidthMeasureSpecs[mSpecIndex];
+        mSpecIndex = (mSpecIndex + 1) & (mWidthMeasureSpecs.length - 1);
+        return measure(widthMeasureSpec, mHeightMeasureSpec, Dimensions.NONE, null);
+    }
+
+    @Benchmark
+    public long measurePrecomputed() {
+        return measure(mWidthMeasureSpec, mHeightMeasureSpec, Dimensions.NONE,
+                mPrecomputedMeasure);
+    }
+
+    @Benchmark
+    public long measureRestored() {
+        return measure(mWidthMeasureSpec, mHeightMeasureSpec, mRestoredSize, null);
+    }
+
+    /**
+     * A measure pass of {@link com.jameskelso.android.widget.AspectRatioImageView}, which
+     * delegates its decision to {@link AspectRatioMeasurer#measure}. ImageView's own measurement
+     * of an empty view is simulated by measuring 0 for every dimension that isn't exact.
+     */
+    private long measure(int widthMeasureSpec, int heightMeasureSpec, long restoredSize,
+                         PrecomputedMeasure precomputed) {
+        long size = mMeasurer.measure(widthMeasureSpec, heightMeasureSpec, mRatioWidth,
+                mRatioHeight, restoredSize, precomputed);
+        if (size != Dimensions.NONE) {
+            return size;
+        }
+
+        int measuredWidth = MeasureSpecs.resolveSize(0, widthMeasureSpec);
+        int measuredHeight = MeasureSpecs.resolveSize(0, heightMeasureSpec);
+        return mMeasurer.measureFromSuper(widthMeasureSpec, heightMeasureSpec, measuredWidth,
+                measuredHeight, mRatioWidth, mRatioHeight);
+    }
+
+    private static int parseMode(String mode) {
+        switch (mode) {
+            case "EXACTLY":
+                return MeasureSpecs.EXACTLY;
+            case "AT_MOST":
+                return MeasureSpecs.AT_MOST;
+            default:
+                return MeasureSpecs.UNSPECIFIED;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.jameskelso.android.widget.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Enforces that the core code behind AspectRatioImageView's onMeasure, onDraw and aspect ratio
+ * setters never allocates. Each operation runs thousands of times after a warm up, and a single
+ * allocated byte fails the test. The tests are skipped on JVMs that can't count allocations. The
+ * view itself is covered by AspectRatioImageViewAllocationTest in the tests module.
+ */
+public class AllocationTest {
+    private static final int WARM_UP_CALLS = 20000;
+    private static final int CALLS = 10000;
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int[] WIDTH_SPECS = {
+            MeasureSpecs.makeMeasureSpec(WIDTH, MeasureSpecs.EXACTLY),
+            MeasureSpecs.makeMeasureSpec(WIDTH / 2, MeasureSpecs.EXACTLY),
+            MeasureSpecs.makeMeasureSpec(WIDTH, MeasureSpecs.AT_MOST)
+    };
+    private static final int[] HEIGHT_SPECS = {
+            MeasureSpecs.makeMeasureSpec(0, MeasureSpecs.UNSPECIFIED),
+            MeasureSpecs.makeMeasureSpec(HEIGHT, MeasureSpecs.AT_MOST)
+    };
+    private static final float[] RATIOS = {16f / 9f, 4f / 3f, 1f, 3415f / 2268f};
+
+    private interface Operation {
+        long run(int call);
+    }
+
+    // Written by every operation so the work can't be optimized away
+    private long mSink;
+
+    private com.sun.management.ThreadMXBean mAllocations;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (allocations.isThreadAllocatedMemorySupported()
+                    && allocations.isThreadAllocatedMemoryEnabled()) {
+                mAllocations = allocations;
+            }
+        }
+    }
+
+    @Test
+    public void testMeasureFromSpecs() {
+        final AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+        assertNoAllocations("measureFromSpecs", new Operation() {
+            @Override
+            public long run(int call) {
+                return measurer.measureFromSpecs(widthSpec(call), heightSpec(call), 16, 9);
+            }
+        });
+    }
+
+    @Test
+    public void testMeasureFromSuper() {
+        final AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+        assertNoAllocations("measureFromSuper", new Operation() {
+            @Override
+            public long run(int call) {
+                return measurer.measureFromSuper(widthSpec(call), heightSpec(call),
+                        MeasureSpecs.getSize(widthSpec(call)), 0, 16, 9);
+            }
+        });
+    }
+
+    @Test
+    public void testAspectRatioChange() {
+        final AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+        measurer.measureFromSpecs(WIDTH_SPECS[0], HEIGHT_SPECS[0], 16, 9);
+        assertNoAllocations("onAspectRatioChanged", new Operation() {
+            @Override
+            public long run(int call) {
+                long oldRatio = AspectRatios.approximateAspectRatio(ratio(call));
+                long newRatio = AspectRatios.approximateAspectRatio(ratio(call + 1));
+                return measurer.onAspectRatioChanged(oldRatio, newRatio);
+            }
+        });
+    }
+
+    @Test
+    public void testCalculateAspectRatio() {
+        assertNoAllocations("calculateAspectRatio", new Operation() {
+            @Override
+            public long run(int call) {
+                long aspectRatio = AspectRatios.calculateAspectRatio(3415 + call % 7, 2268);
+                return AspectRatios.calculateHeightForWidth(WIDTH, Dimensions.width(aspectRatio),
+                        Dimensions.height(aspectRatio));
+            }
+        });
+    }
+
+    @Test
+    public void testMeasure() {
+        final AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+        final PrecomputedMeasure measure = PrecomputedMeasure.create(
+                AspectRatios.calculateAspectRatio(16, 9), WIDTH_SPECS[0], HEIGHT_SPECS[0]);
+        final long restoredSize = Dimensions.pack(WIDTH, HEIGHT);
+        assertNoAllocations("measure", new Operation() {
+            @Override
+            public long run(int call) {
+                return measurer.measure(widthSpec(call), heightSpec(call), 16, 9,
+                        call % 3 == 0 ? restoredSize : Dimensions.NONE, measure);
+            }
+        });
+    }
+
+    @Test
+    public void testDrawableChange() {
+        final AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+        measurer.measureFromSpecs(WIDTH_SPECS[0], HEIGHT_SPECS[0], 16, 9);
+        assertNoAllocations("onDrawableChanged", new Operation() {
+            @Override
+            public long run(int call) {
+                return measurer.isSizeLocked(false, 16, 9)
+                        && measurer.onDrawableChanged(WIDTH, HEIGHT - call % 2, 16, 9) ? 1 : 0;
+            }
+        });
+    }
+
+    @Test
+    public void testPrecomputedMeasureMatches() {
+        final PrecomputedMeasure measure = PrecomputedMeasure.create(
+                AspectRatios.calculateAspectRatio(16, 9), WIDTH_SPECS[0], HEIGHT_SPECS[0]);
+        assertNoAllocations("PrecomputedMeasure.matches", new Operation() {
+            @Override
+            public long run(int call) {
+                return measure.matches(widthSpec(call), heightSpec(call), 16, 9)
+                        ? measure.getSize() : 0;
+            }
+        });
+    }
+
+    @Test
+    public void testProgressiveJpegScan() {
+        final ProgressiveJpegScanner scanner = new ProgressiveJpegScanner();
+        final byte[] jpeg = {
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xC2, 0x00, 0x03, 0x08,
+                (byte) 0xFF, (byte) 0xDA, 0x00, 0x02, 0x12, (byte) 0xFF, 0x00, 0x34,
+                (byte) 0xFF, (byte) 0xDA, 0x00, 0x02, 0x56,
+                (byte) 0xFF, (byte) 0xD9
+        };
+        assertNoAllocations("ProgressiveJpegScanner.scan", new Operation() {
+            @Override
+            public long run(int call) {
+                scanner.reset();
+                scanner.scan(jpeg, jpeg.length);
+                return scanner.getCompleteScansEnd();
+            }
+        });
+    }
+
+    private void assertNoAllocations(String name, Operation operation) {
+        assumeTrue("Counting allocated bytes is not supported", mAllocations != null);
+
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            mSink += operation.run(i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = mAllocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < CALLS; i++) {
+            mSink += operation.run(i);
+        }
+        long bytes = mAllocations.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        assertEquals(name + " allocated " + bytes + " bytes in " + CALLS + " calls", 0, bytes);
+    }
+
+    private static int widthSpec(int call) {
+        return WIDTH_SPECS[call % WIDTH_SPECS.length];
+    }
+
+    private static int heightSpec(int call) {
+        return HEIGHT_SPECS[call % HEIGHT_SPECS.length];
+    }
+
+    private static float ratio(int call) {
+        return RATIOS[call % RATIOS.length];
+    }
+}
@@ -0,0 +1,434 @@
+package com.jameskelso.android.widget.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Simulates flinging a ListView of 10,000 rows of AspectRatioImageViews, like the sample app, on
+ * a plain JVM. Rows are bound, measured, loaded and recycled the way ListView and ImageView do it,
+ * with every sizing decision made by the {@link AspectRatioViewDelegate} the widget uses. The
+ * budgets catch changes that bring back the relayouts the view exists to remove.
+ */
+public class ListScrollRegressionTest {
+    private static final int ROW_COUNT = 10000;
+    private static final int LIST_WIDTH = 1080;
+    private static final int LIST_HEIGHT = 1920;
+
+    // Pixels scrolled per frame, and frames between binding a row and its image arriving
+    private static final int FLING_STEP = 137;
+    private static final int LOAD_DELAY_FRAMES = 3;
+
+    private static final int MAX_ACTIVE_ROWS = 256;
+
+    // Size of the placeholder drawable shown until an image arrives when the ratio isn't known
+    private static final int PLACEHOLDER_SIZE = 100;
+
+    // Rows are measured like ListView measures them: exact width, unspecified height
+    private static final int ROW_WIDTH_SPEC = MeasureSpecs.makeMeasureSpec(LIST_WIDTH,
+            MeasureSpecs.EXACTLY);
+    private static final int ROW_HEIGHT_SPEC = MeasureSpecs.makeMeasureSpec(0,
+            MeasureSpecs.UNSPECIFIED);
+
+    // Budgets per bound row
+    private static final double MAX_MEASURE_PASSES_PER_ROW = 2;
+    private static final double MAX_RATIO_LAYOUT_REQUESTS_PER_ROW = 1;
+    private static final double MAX_DRAWABLE_LAYOUT_REQUESTS_PER_ROW = 0;
+    private static final double MAX_ALLOCATED_BYTES_PER_ROW = 8;
+
+    private int[] mImageWidths;
+    private int[] mImageHeights;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        mImageWidths = new int[ROW_COUNT];
+        mImageHeights = new int[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            mImageWidths[i] = 200 + random.nextInt(3800);
+            mImageHeights[i] = 200 + random.nextInt(3800);
+        }
+    }
+
+    @Test
+    public void testKnownRatiosScrollWithoutRelayouts() {
+        SimulatedList list = new SimulatedList(true);
+        list.flingThroughAdapter();
+        list.flingThroughAdapter();
+
+        Counters counters = list.mCounters;
+        assertEquals(2 * ROW_COUNT, counters.binds);
+        assertEquals("Rows fell back to ImageView.onMeasure", 0, counters.superMeasures);
+        assertEquals("Rows changed size after they were laid out", 0,
+                counters.sizeChangesAfterBind);
+        assertBudget("measure passes", counters.measurePasses, counters.binds,
+                MAX_MEASURE_PASSES_PER_ROW);
+        assertBudget("ratio layout requests", counters.ratioLayoutRequests, counters.binds,
+                MAX_RATIO_LAYOUT_REQUESTS_PER_ROW);
+        assertBudget("drawable layout requests", counters.drawableLayoutRequests, counters.binds,
+                MAX_DRAWABLE_LAYOUT_REQUESTS_PER_ROW);
+    }
+
+    @Test
+    public void testRebindingTheSameRatioRequestsNoLayout() {
+        SimulatedList list = new SimulatedList(true);
+        list.flingThroughAdapter();
+
+        // Every image arrives with the ratio it was bound with, so setting it again is free
+        assertEquals(0, list.mCounters.ratioLayoutRequestsOnLoad);
+    }
+
+    @Test
+    public void testAllocationsPerBoundRow() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue("Counting allocated bytes is not supported",
+                threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue("Counting allocated bytes is not supported",
+                allocations.isThreadAllocatedMemorySupported()
+                        && allocations.isThreadAllocatedMemoryEnabled());
+
+        // Warm up so that rows are already in the recycler and the JIT has settled
+        SimulatedList list = new SimulatedList(true);
+        list.flingThroughAdapter();
+        list.flingThroughAdapter();
+
+        long threadId = Thread.currentThread().getId();
+        int bindsBefore = list.mCounters.binds;
+        long bytesBefore = allocations.getThreadAllocatedBytes(threadId);
+        list.flingThroughAdapter();
+        long bytes = allocations.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        assertBudget("allocated bytes", bytes, list.mCounters.binds - bindsBefore,
+                MAX_ALLOCATED_BYTES_PER_ROW);
+    }
+
+    @Test
+    public void testUnknownRatiosAreCaught() {
+        // Without a ratio at bind time rows jump when their images arrive, which the suite must
+        // be able to see
+        SimulatedList list = new SimulatedList(false);
+        list.flingThroughAdapter();
+
+        assertTrue(list.mCounters.superMeasures > 0);
+        assertTrue(list.mCounters.sizeChangesAfterBind > 0);
+        assertTrue(list.mCounters.drawableLayoutRequests > 0);
+    }
+
+    private static void assertBudget(String name, long count, int rows, double budgetPerRow) {
+        double perRow = (double) count / rows;
+        assertTrue(name + " per row " + perRow + " exceeds budget " + budgetPerRow,
+                perRow <= budgetPerRow);
+    }
+
+    private static final class Counters {
+        int binds;
+        long measurePasses;
+        long superMeasures;
+        long ratioLayoutRequests;
+        long ratioLayoutRequestsOnLoad;
+        long drawableLayoutRequests;
+        long sizeChangesAfterBind;
+    }
+
+    /**
+     * A row holding an AspectRatioImageView. Every decision the widget makes is made by the same
+     * {@link AspectRatioViewDelegate} the widget forwards to, so only View and ImageView are
+     * simulated here: the layout requested flag, View.measure skipping clean passes, ImageView
+     * measuring its drawable and requesting a layout when the drawable changes size.
+     */
+    private static final class SimulatedRow implements AspectRatioViewDelegate.Host {
+        private final AspectRatioViewDelegate mDelegate = new AspectRatioViewDelegate(this);
+        private final Counters mCounters;
+
+        int position;
+        int loadFrame;
+        int top;
+
+        private int mRatioWidth;
+        private int mRatioHeight;
+        private int mDrawableWidth;
+        private int mDrawableHeight;
+
+        private boolean mLayoutRequested = true;
+        private boolean mSwappingDrawable;
+        private boolean mLaidOut;
+        private int mLastWidthSpec;
+        private int mLastHeightSpec;
+        private int mMeasuredWidth;
+        private int mMeasuredHeight;
+
+        SimulatedRow(Counters counters) {
+            mCounters = counters;
+        }
+
+        /**
+         * AspectRatioImageView.setOriginalImageWidthAndHeight in a ListView, which measures its
+         * rows without looking at their aspect ratios
+         */
+        void setOriginalImageWidthAndHeight(int width, int height) {
+            long oldRatio = Dimensions.pack(mRatioWidth, mRatioHeight);
+            long ratio = AspectRatios.calculateAspectRatio(width, height);
+            mRatioWidth = Dimensions.width(ratio);
+            mRatioHeight = Dimensions.height(ratio);
+            mDelegate.onAspectRatioChanged(oldRatio, ratio);
+        }
+
+        /**
+         * AspectRatioImageView.setImageDrawable around ImageView.setImageDrawable, which requests
+         * a layout whenever the size of its drawable changes. A size of 0 stands for no drawable.
+         */
+        void setImageDrawable(int width, int height) {
+            mSwappingDrawable = true;
+            boolean deferred = mDelegate.beginDrawableSwap(mRatioWidth, mRatioHeight);
+            try {
+                boolean sizeChanged = width != mDrawableWidth || height != mDrawableHeight;
+                mDrawableWidth = width;
+                mDrawableHeight = height;
+                if (sizeChanged) {
+                    requestLayout();
+                }
+            } finally {
+                mDelegate.endDrawableSwap(deferred, mRatioWidth, mRatioHeight);
+                mSwappingDrawable = false;
+            }
+        }
+
+        /**
+         * View.measure, which skips the pass when nothing changed since the last one, calling
+         * AspectRatioImageView.onMeasure
+         */
+        void measure(int widthSpec, int heightSpec) {
+            if (!mLayoutRequested && widthSpec == mLastWidthSpec && heightSpec == mLastHeightSpec) {
+                return;
+            }
+            mCounters.measurePasses++;
+
+            int previousHeight = mMeasuredHeight;
+            mDelegate.measure(widthSpec, heightSpec, mRatioWidth, mRatioHeight, Dimensions.NONE,
+                    null);
+            if (mDelegate.isLastMeasureFromDrawable()) {
+                mCounters.superMeasures++;
+            }
+            if (mLaidOut && mMeasuredHeight != previousHeight) {
+                mCounters.sizeChangesAfterBind++;
+            }
+
+            mLastWidthSpec = widthSpec;
+            mLastHeightSpec = heightSpec;
+            mLayoutRequested = false;
+            mLaidOut = true;
+        }
+
+        int getMeasuredHeight() {
+            return mMeasuredHeight;
+        }
+
+        void onMovedToScrapHeap() {
+            mLaidOut = false;
+        }
+
+        @Override
+        public boolean isLayoutRequested() {
+            return mLayoutRequested;
+        }
+
+        /**
+         * AspectRatioImageView.requestLayout. Only drawable swaps and aspect ratio changes request
+         * layouts here, so every other request comes from a ratio setter.
+         */
+        @Override
+        public void requestLayout() {
+            if (!mDelegate.onRequestLayout()) {
+                return;
+            }
+            if (!mSwappingDrawable) {
+                mCounters.ratioLayoutRequests++;
+            } else if (!mLayoutRequested) {
+                mCounters.drawableLayoutRequests++;
+            }
+            mLayoutRequested = true;
+        }
+
+        @Override
+        public void invalidate() {
+        }
+
+        /**
+         * ImageView without adjustViewBounds measures to its drawable
+         */
+        @Override
+        public long measureDrawable(int widthMeasureSpec, int heightMeasureSpec) {
+            setMeasuredSize(MeasureSpecs.resolveSize(mDrawableWidth, widthMeasureSpec),
+                    MeasureSpecs.resolveSize(mDrawableHeight, heightMeasureSpec));
+            return Dimensions.pack(mMeasuredWidth, mMeasuredHeight);
+        }
+
+        @Override
+        public void setMeasuredSize(int width, int height) {
+            mMeasuredWidth = width;
+            mMeasuredHeight = height;
+        }
+
+        @Override
+        public int getDrawableWidth() {
+            return mDrawableWidth > 0 ? mDrawableWidth : -1;
+        }
+
+        @Override
+        public int getDrawableHeight() {
+            return mDrawableHeight > 0 ? mDrawableHeight : -1;
+        }
+    }
+
+    /**
+     * A ListView with a recycler, scrolled by a fixed amount every frame
+     */
+    private final class SimulatedList {
+        final Counters mCounters = new Counters();
+        private final boolean mRatiosKnownAtBind;
+
+        // Visible rows from top to bottom, in a ring buffer
+        private final SimulatedRow[] mActive = new SimulatedRow[MAX_ACTIVE_ROWS];
+        private int mFirstActive;
+        private int mActiveCount;
+
+        private final SimulatedRow[] mScrap = new SimulatedRow[MAX_ACTIVE_ROWS];
+        private int mScrapCount;
+
+        private int mFrame;
+
+        SimulatedList(boolean ratiosKnownAtBind) {
+            mRatiosKnownAtBind = ratiosKnownAtBind;
+        }
+
+        /**
+         * Start at the top of the adapter and fling until the last row has scrolled into view
+         */
+        void flingThroughAdapter() {
+            recycleAll();
+            fill(0, 0);
+
+            while (activeRow(mActiveCount - 1).position < ROW_COUNT - 1) {
+                mFrame++;
+                scrollBy(FLING_STEP);
+                loadImages();
+                layoutRequestedRows();
+            }
+        }
+
+        private void scrollBy(int dy) {
+            for (int i = 0; i < mActiveCount; i++) {
+                activeRow(i).top -= dy;
+            }
+
+            // Recycle rows that left the top, then bind rows that entered at the bottom
+            while (mActiveCount > 1) {
+                SimulatedRow first = activeRow(0);
+                if (first.top + first.getMeasuredHeight() > 0) {
+                    break;
+                }
+                mFirstActive = (mFirstActive + 1) % MAX_ACTIVE_ROWS;
+                mActiveCount--;
+                recycle(first);
+            }
+
+            SimulatedRow last = activeRow(mActiveCount - 1);
+            fill(last.position + 1, last.top + last.getMeasuredHeight());
+        }
+
+        private void fill(int position, int top) {
+            while (position < ROW_COUNT && top < LIST_HEIGHT) {
+                assertTrue("Too many visible rows", mActiveCount < MAX_ACTIVE_ROWS);
+                SimulatedRow row = obtainRow();
+                bind(row, position);
+                row.top = top;
+                row.measure(ROW_WIDTH_SPEC, ROW_HEIGHT_SPEC);
+
+                mActive[(mFirstActive + mActiveCount) % MAX_ACTIVE_ROWS] = row;
+                mActiveCount++;
+                top += row.getMeasuredHeight();
+                position++;
+            }
+        }
+
+        /**
+         * The adapter's getView: rebind a recycled row to a new position
+         */
+        private void bind(SimulatedRow row, int position) {
+            mCounters.binds++;
+            row.position = position;
+            row.loadFrame = mFrame + LOAD_DELAY_FRAMES;
+            if (mRatiosKnownAtBind) {
+                // The image loader clears the old image, and the widget draws its own placeholder
+                row.setImageDrawable(0, 0);
+                row.setOriginalImageWidthAndHeight(mImageWidths[position],
+                        mImageHeights[position]);
+            } else {
+                row.setImageDrawable(PLACEHOLDER_SIZE, PLACEHOLDER_SIZE);
+                row.setOriginalImageWidthAndHeight(0, 0);
+            }
+        }
+
+        private void loadImages() {
+            for (int i = 0; i < mActiveCount; i++) {
+                SimulatedRow row = activeRow(i);
+                if (row.loadFrame == mFrame) {
+                    // The image loader reports the real size of the image it decoded
+                    long before = mCounters.ratioLayoutRequests;
+                    int width = mImageWidths[row.position];
+                    int height = mImageHeights[row.position];
+                    row.setOriginalImageWidthAndHeight(width, height);
+                    row.setImageDrawable(width, height);
+                    if (mRatiosKnownAtBind) {
+                        mCounters.ratioLayoutRequestsOnLoad += mCounters.ratioLayoutRequests
+                                - before;
+                    }
+                }
+            }
+        }
+
+        private void layoutRequestedRows() {
+            int top = activeRow(0).top;
+            for (int i = 0; i < mActiveCount; i++) {
+                SimulatedRow row = activeRow(i);
+                if (row.isLayoutRequested()) {
+                    row.measure(ROW_WIDTH_SPEC, ROW_HEIGHT_SPEC);
+                }
+                row.top = top;
+                top += row.getMeasuredHeight();
+            }
+        }
+
+        private SimulatedRow obtainRow() {
+            if (mScrapCount > 0) {
+                return mScrap[--mScrapCount];
+            }
+            return new SimulatedRow(mCounters);
+        }
+
+        private void recycle(SimulatedRow row) {
+            row.onMovedToScrapHeap();
+            mScrap[mScrapCount++] = row;
+        }
+
+        private void recycleAll() {
+            for (int i = 0; i < mActiveCount; i++) {
+                recycle(activeRow(i));
+            }
+            mFirstActive = 0;
+            mActiveCount = 0;
+        }
+
+        private SimulatedRow activeRow(int index) {
+            return mActive[(mFirstActive + index) % MAX_ACTIVE_ROWS];
+        }
+    }
+}
@@ -0,0 +1,525 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.widget.ImageView;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images straight to the size of an {@link AspectRatioImageView}. Because the view knows
+ * its size before the image arrives, there is never a reason to hold the full resolution image in
+ * memory.
+ *
+ * Each decode first reads only the bounds of the image. It then picks the largest power of two
+ * sample size that keeps the image at least as large as the target, and lets the decoder scale
+ * the sampled image down to the exact target size. The decoded image covers the target size, so
+ * an image with the same aspect ratio as the view comes out at exactly the size of the view.
+ *
+ * When an {@link AspectRatioBitmapPool} is given, the image is decoded into a pooled bitmap with
+ * {@link BitmapFactory.Options#inBitmap} on {@link Build.VERSION_CODES#KITKAT} and above.
+ *
+ * Images shown with {@link ImageView.ScaleType#CENTER_CROP} can be decoded with the region
+ * methods instead, which use {@link BitmapRegionDecoder} to decode only the part of the image that
+ * is visible in the view. Panoramas and very tall images then take a fraction of the decode time
+ * and memory.
+ */
+public final class AspectRatioBitmapDecoder {
+    // How much of a stream may be read while decoding the bounds, or before decoding into a pooled
+    // bitmap fails, before it is rewound
+    static final int MARK_LIMIT = 1024 * 1024;
+
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+
+    private AspectRatioBitmapDecoder() {
+    }
+
+    /**
+     * Decode a file to the measured size of a view, reusing a bitmap from the view's
+     * {@link AspectRatioBitmapPool} if it has one.
+     *
+     * @param  pathName the path of the file to decode
+     * @param  view the view the image will be displayed in. It must already have been measured;
+     *              use {@link AspectRatioImageView.OnSizeResolvedListener} to decode as soon as
+     *              it has been.
+     * @return the decoded bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeFile(String pathName, AspectRatioImageView view) {
+        checkMeasured(view);
+        return decodeFile(pathName, view.getMeasuredWidth(), view.getMeasuredHeight(),
+                view.getBitmapPool());
+    }
+
+    /**
+     * Decode a file so that it covers a target size.
+     *
+     * @param  pathName the path of the file to decode
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @return the decoded bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeFile(String pathName, int targetWidth, int targetHeight) {
+        return decodeFile(pathName, targetWidth, targetHeight, null);
+    }
+
+    /**
+     * Decode a file so that it covers a target size, reusing a pooled bitmap if possible.
+     *
+     * @param  pathName the path of the file to decode
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @param  pool the pool to take a bitmap to decode into from, or null to allocate a new one
+     * @return the decoded bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeFile(String pathName, int targetWidth, int targetHeight,
+                                    AspectRatioBitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(pathName, options);
+
+        if (!prepareOptions(options, targetWidth, targetHeight)) {
+            return null;
+        }
+
+        if (setInBitmap(options, pool)) {
+            try {
+                return BitmapFactory.decodeFile(pathName, options);
+            } catch (IllegalArgumentException e) {
+                // The image can't be decoded into the pooled bitmap, so fall back to a new one
+                clearInBitmap(options, pool);
+            }
+        }
+
+        return BitmapFactory.decodeFile(pathName, options);
+    }
+
+    /**
+     * Decode a resource to the measured size of a view, reusing a bitmap from the view's
+     * {@link AspectRatioBitmapPool} if it has one.
+     *
+     * @param  res the resources containing the image
+     * @param  id the resource id of the image
+     * @param  view the view the image will be displayed in. It must already have been measured.
+     * @return the decoded bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeResource(Resources res, int id, AspectRatioImageView view) {
+        checkMeasured(view);
+        return decodeResource(res, id, view.getMeasuredWidth(), view.getMeasuredHeight(),
+                view.getBitmapPool());
+    }
+
+    /**
+     * Decode a resource so that it covers a target size.
+     *
+     * @param  res the resources containing the image
+     * @param  id the resource id of the image
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @return the decoded bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeResource(Resources res, int id, int targetWidth,
+                                        int targetHeight) {
+        return decodeResource(res, id, targetWidth, targetHeight, null);
+    }
+
+    /**
+     * Decode a resource so that it covers a target size, reusing a pooled bitmap if possible.
+     *
+     * @param  res the resources containing the image
+     * @param  id the resource id of the image
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @param  pool the pool to take a bitmap to decode into from, or null to allocate a new one
+     * @return the decoded bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeResource(Resources res, int id, int targetWidth, int targetHeight,
+                                        AspectRatioBitmapPool pool) {
+        // Read the bounds without density scaling so that they are the size of the stored image
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(res, id, options);
+
+        if (!prepareOptions(options, targetWidth, targetHeight)) {
+            return null;
+        }
+
+        if (setInBitmap(options, pool)) {
+            try {
+                return BitmapFactory.decodeResource(res, id, options);
+            } catch (IllegalArgumentException e) {
+                // The image can't be decoded into the pooled bitmap, so fall back to a new one
+                clearInBitmap(options, pool);
+            }
+        }
+
+        return BitmapFactory.decodeResource(res, id, options);
+    }
+
+    /**
+     * Decode a stream to the measured size of a view, reusing a bitmap from the view's
+     * {@link AspectRatioBitmapPool} if it has one.
+     *
+     * @param  is the stream to decode. It is read more than once, so it is buffered if it does
+     *            not support {@link InputStream#mark(int)}. The caller remains responsible for
+     *            closing it.
+     * @param  view the view the image will be displayed in. It must already have been measured.
+     * @return the decoded bitmap, or null if the image could not be decoded
+     * @throws IOException if the stream could not be rewound after reading the bounds
+     */
+    public static Bitmap decodeStream(InputStream is, AspectRatioImageView view)
+            throws IOException {
+        checkMeasured(view);
+        return decodeStream(is, view.getMeasuredWidth(), view.getMeasuredHeight(),
+                view.getBitmapPool());
+    }
+
+    /**
+     * Decode a stream so that it covers a target size.
+     *
+     * @param  is the stream to decode. It is read more than once, so it is buffered if it does
+     *            not support {@link InputStream#mark(int)}. The caller remains responsible for
+     *            closing it.
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @return the decoded bitmap, or null if the image could not be decoded
+     * @throws IOException if the stream could not be rewound after reading the bounds
+     */
+    public static Bitmap decodeStream(InputStream is, int targetWidth, int targetHeight)
+            throws IOException {
+        return decodeStream(is, targetWidth, targetHeight, null);
+    }
+
+    /**
+     * Decode a stream so that it covers a target size, reusing a pooled bitmap if possible.
+     *
+     * @param  is the stream to decode. It is read more than once, so it is buffered if it does
+     *            not support {@link InputStream#mark(int)}. The caller remains responsible for
+     *            closing it.
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @param  pool the pool to take a bitmap to decode into from, or null to allocate a new one
+     * @return the decoded bitmap, or null if the image could not be decoded
+     * @throws IOException if the stream could not be rewound after reading the bounds, or after
+     *         the image could not be decoded into the pooled bitmap
+     */
+    public static Bitmap decodeStream(InputStream is, int targetWidth, int targetHeight,
+                                      AspectRatioBitmapPool pool) throws IOException {
+        InputStream in = is.markSupported() ? is : new BufferedInputStream(is);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        in.mark(MARK_LIMIT);
+        BitmapFactory.decodeStream(in, null, options);
+        in.reset();
+
+        if (!prepareOptions(options, targetWidth, targetHeight)) {
+            return null;
+        }
+
+        if (setInBitmap(options, pool)) {
+            // A pooled bitmap is rejected once the header is decoded, before the pixels are read,
+            // so only the header needs to be kept for the retry. Marking the whole image would
+            // make a buffered stream hold all of it in memory.
+            in.mark(MARK_LIMIT);
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } catch (IllegalArgumentException e) {
+                // The image can't be decoded into the pooled bitmap, so fall back to a new one
+                clearInBitmap(options, pool);
+                in.reset();
+            }
+        }
+
+        return BitmapFactory.decodeStream(in, null, options);
+    }
+
+    /**
+     * Decode only the part of a file that is visible in a view. When the view uses
+     * {@link ImageView.ScaleType#CENTER_CROP}, the region that survives the crop is decoded with
+     * a sample size that keeps it at least as large as the view. Otherwise, or if the format is
+     * not supported by {@link BitmapRegionDecoder}, the whole file is decoded as
+     * {@link #decodeFile(String, AspectRatioImageView)} does.
+     *
+     * @param  pathName the path of the file to decode
+     * @param  view the view the image will be displayed in. It must already have been measured.
+     * @return the decoded bitmap, or null if the image could not be decoded
+     */
+    public static Bitmap decodeFileRegion(String pathName, AspectRatioImageView view) {
+        checkMeasured(view);
+        if (view.getScaleType() == ImageView.ScaleType.CENTER_CROP) {
+            Bitmap bitmap = decodeFileRegion(pathName, view.getMeasuredWidth(),
+                    view.getMeasuredHeight());
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        return decodeFile(pathName, view);
+    }
+
+    /**
+     * Decode only the part of a file that is visible when it is center cropped to a target size,
+     * sampled so that it stays at least as large as the target. The region decoder can not scale,
+     * so unlike the other methods the result can be up to twice the target size in each
+     * dimension.
+     *
+     * @param  pathName the path of the file to decode
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @return the decoded bitmap, or null if the image could not be decoded or its format is not
+     *         supported by {@link BitmapRegionDecoder}
+     */
+    public static Bitmap decodeFileRegion(String pathName, int targetWidth, int targetHeight) {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(pathName, false);
+        } catch (IOException e) {
+            return null;
+        }
+        return decodeRegion(decoder, targetWidth, targetHeight);
+    }
+
+    /**
+     * Decode only the part of a stream that is visible when it is center cropped to a target
+     * size, sampled so that it stays at least as large as the target.
+     *
+     * @param  is the stream to decode. The caller remains responsible for closing it.
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @return the decoded bitmap, or null if the image could not be decoded
+     * @throws IOException if the stream could not be read or, on some versions, if its format is
+     *                     not supported by {@link BitmapRegionDecoder}
+     * @see    #decodeFileRegion(String, int, int)
+     */
+    public static Bitmap decodeStreamRegion(InputStream is, int targetWidth, int targetHeight)
+            throws IOException {
+        return decodeRegion(BitmapRegionDecoder.newInstance(is, false), targetWidth,
+                targetHeight);
+    }
+
+    private static Bitmap decodeRegion(BitmapRegionDecoder decoder, int targetWidth,
+                                       int targetHeight) {
+        // The region decoder is null when the image could not be decoded
+        if (decoder == null) {
+            return null;
+        }
+
+        try {
+            int sourceWidth = decoder.getWidth();
+            int sourceHeight = decoder.getHeight();
+            if (sourceWidth <= 0 || sourceHeight <= 0 || targetWidth <= 0 || targetHeight <= 0) {
+                return null;
+            }
+
+            Rect region = calculateCenterCropRegion(sourceWidth, sourceHeight, targetWidth,
+                    targetHeight);
+
+            // A pooled bitmap is not used here because the region decoder does not resize a
+            // larger inBitmap to the region
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = calculateInSampleSize(region.width(), region.height(),
+                    targetWidth, targetHeight);
+            return decoder.decodeRegion(region, options);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Calculate the part of an image that is visible when it is scaled with
+     * {@link ImageView.ScaleType#CENTER_CROP} to a target size. The image is scaled so that it
+     * covers the target and centered, so the region is the full width or height of the image
+     * with the other dimension trimmed equally on both sides.
+     *
+     * @param  sourceWidth the width of the image
+     * @param  sourceHeight the height of the image
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @return the visible region in the coordinates of the image
+     */
+    public static Rect calculateCenterCropRegion(int sourceWidth, int sourceHeight,
+                                                 int targetWidth, int targetHeight) {
+        int visibleWidth = sourceWidth;
+        int visibleHeight = sourceHeight;
+
+        if ((long) targetWidth * sourceHeight > (long) targetHeight * sourceWidth) {
+            // The target is wider than the image, so the top and bottom are cropped
+            visibleHeight = (int) Math.max(1,
+                    ((long) sourceWidth * targetHeight + targetWidth / 2) / targetWidth);
+        } else {
+            // The target is taller than the image, so the sides are cropped
+            visibleWidth = (int) Math.max(1,
+                    ((long) sourceHeight * targetWidth + targetHeight / 2) / targetHeight);
+        }
+
+        int left = (sourceWidth - visibleWidth) / 2;
+        int top = (sourceHeight - visibleHeight) / 2;
+        return new Rect(left, top, left + visibleWidth, top + visibleHeight);
+    }
+
+    /**
+     * Calculate the largest power of two sample size that keeps an image at least as large as a
+     * target size in both dimensions.
+     *
+     * @param  sourceWidth the width of the image
+     * @param  sourceHeight the height of the image
+     * @param  targetWidth the width the image will be displayed at
+     * @param  targetHeight the height the image will be displayed at
+     * @return the sample size to decode the image with
+     */
+    public static int calculateInSampleSize(int sourceWidth, int sourceHeight, int targetWidth,
+                                            int targetHeight) {
+        int inSampleSize = 1;
+        while (sourceWidth / (inSampleSize * 2) >= targetWidth
+                && sourceHeight / (inSampleSize * 2) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Turn options that hold the bounds of an image into options that decode it to cover a target
+     * size. The sample size does most of the reduction while decoding, and the density fields
+     * scale the sampled image the rest of the way to the target size.
+     *
+     * @return false if the bounds could not be read or the target size is empty
+     */
+    static boolean prepareOptions(BitmapFactory.Options options, int targetWidth,
+                                  int targetHeight) {
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+
+        options.inJustDecodeBounds = false;
+        if (sourceWidth <= 0 || sourceHeight <= 0 || targetWidth <= 0 || targetHeight <= 0) {
+            return false;
+        }
+
+        options.inSampleSize = calculateInSampleSize(sourceWidth, sourceHeight, targetWidth,
+                targetHeight);
+
+        int sampledWidth = sourceWidth / options.inSampleSize;
+        int sampledHeight = sourceHeight / options.inSampleSize;
+
+        // Scale by whichever dimension needs the larger scale so that the image covers the target
+        if ((long) targetWidth * sampledHeight >= (long) targetHeight * sampledWidth) {
+            setScale(options, sampledWidth, targetWidth);
+        } else {
+            setScale(options, sampledHeight, targetHeight);
+        }
+
+        return true;
+    }
+
+    private static void setScale(BitmapFactory.Options options, int sampledSize, int targetSize) {
+        if (sampledSize > targetSize) {
+            options.inScaled = true;
+            options.inDensity = sampledSize;
+            options.inTargetDensity = targetSize;
+        } else {
+            options.inScaled = false;
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+    }
+
+    /**
+     * Take a bitmap from the pool that is large enough for the image described by prepared
+     * options, and set it as the bitmap to decode into. With a pool the decoded bitmap is always
+     * mutable, so that it can be pooled too.
+     *
+     * @return true if a pooled bitmap will be decoded into
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static boolean setInBitmap(BitmapFactory.Options options, AspectRatioBitmapPool pool) {
+        // Before KitKat a bitmap can only be reused for an image of exactly the same size decoded
+        // without sampling, which is never the case here
+        if (pool == null || !AspectRatioBitmapPool.canReuseDifferentSizes()) {
+            return false;
+        }
+
+        // Ask for the size the decoder will actually produce, which is the size the bitmaps it
+        // produced before were pooled with
+        int decodedWidth = calculateDecodedSize(options.outWidth, options);
+        int decodedHeight = calculateDecodedSize(options.outHeight, options);
+
+        Bitmap.Config config = options.inPreferredConfig != null
+                ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+
+        // Decode a mutable bitmap even when the pool has none to reuse, so that the result can be
+        // put in the pool once it is no longer shown
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+
+        Bitmap inBitmap = pool.get(decodedWidth, decodedHeight, config);
+        if (inBitmap == null) {
+            return false;
+        }
+
+        options.inBitmap = inBitmap;
+        return true;
+    }
+
+    /**
+     * Calculate the size of one dimension of the bitmap decoded with prepared options. The JPEG
+     * decoder rounds sampled sizes up while the other decoders round them down, and the density
+     * scale is rounded to the nearest pixel.
+     */
+    static int calculateDecodedSize(int sourceSize, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int decodedSize = JPEG_MIME_TYPE.equals(options.outMimeType)
+                ? (sourceSize + sampleSize - 1) / sampleSize
+                : sourceSize / sampleSize;
+        if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+            float scale = options.inTargetDensity / (float) options.inDensity;
+            decodedSize = (int) (decodedSize * scale + 0.5f);
+        }
+        return decodedSize;
+    }
+
+    /**
+     * Return the bitmap that could not be decoded into to the pool and stop decoding into it
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static void clearInBitmap(BitmapFactory.Options options, AspectRatioBitmapPool pool) {
+        pool.put(options.inBitmap);
+        options.inBitmap = null;
+    }
+
+    static void checkMeasured(AspectRatioImageView view) {
+        if (view.getMeasuredWidth() <= 0 || view.getMeasuredHeight() <= 0) {
+            throw new IllegalStateException("The view has not been measured yet. Use an "
+                    + "OnSizeResolvedListener to decode as soon as its size is known.");
+        }
+    }
+}
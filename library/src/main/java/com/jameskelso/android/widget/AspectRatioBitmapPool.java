@@ -0,0 +1,405 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * A pool of mutable bitmaps that can be decoded into with
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}. Recycled rows of
+ * {@link AspectRatioImageView}s need bitmaps of the same few sizes over and over, so reusing them
+ * avoids the garbage collection pauses caused by allocating a new bitmap for every bind.
+ *
+ * Bitmaps are grouped in buckets keyed by width, height and config. The buckets are kept in an
+ * open addressing table keyed by a primitive long, like {@link AspectRatioRegistry}, so looking
+ * up a bucket allocates nothing. Sizes can optionally be rounded up to a bucket size so that
+ * views of slightly different sizes share bitmaps. The pool holds at most a fixed number of bytes
+ * and evicts the least recently pooled bitmap first.
+ *
+ * Decoding into a bitmap of a different size requires {@link Build.VERSION_CODES#KITKAT}. On
+ * older releases bitmaps are only reused for exactly the same size and rounding is ignored.
+ */
+public class AspectRatioBitmapPool {
+    private static final int MIN_BUCKET_CAPACITY = 16;
+
+    private final int mMaxBytes;
+    private final int mBucketSize;
+
+    // Pooled bitmaps grouped by bucket in a table whose length is a power of two, with null for
+    // an empty slot, and the same bitmaps ordered from least to most recently pooled
+    private Bucket[] mBuckets = new Bucket[MIN_BUCKET_CAPACITY];
+    private int mBucketCount;
+    private final LinkedHashSet<Bitmap> mLruBitmaps = new LinkedHashSet<Bitmap>();
+
+    private int mCurrentBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * Create a pool that only reuses bitmaps of exactly the requested size
+     *
+     * @param maxBytes the maximum number of bytes of bitmaps held by the pool
+     */
+    public AspectRatioBitmapPool(int maxBytes) {
+        this(maxBytes, 1);
+    }
+
+    /**
+     * Create a pool that rounds sizes up to a multiple of a bucket size
+     *
+     * @param maxBytes the maximum number of bytes of bitmaps held by the pool
+     * @param bucketSize the number of pixels widths and heights are rounded up to a multiple of.
+     *                   Larger buckets raise the hit rate at the cost of some unused memory in
+     *                   each bitmap.
+     */
+    public AspectRatioBitmapPool(int maxBytes, int bucketSize) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("bucketSize must be at least 1");
+        }
+
+        mMaxBytes = maxBytes;
+        mBucketSize = bucketSize;
+    }
+
+    /**
+     * Get a pooled bitmap with the given size and config. On {@link Build.VERSION_CODES#KITKAT}
+     * and above the bitmap has already been reconfigured to the requested size. Its contents are
+     * undefined.
+     *
+     * @return a pooled bitmap, or null if there is no bitmap in the pool that fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int slot = findBucket(bucketKey(width, height, config));
+        if (slot >= 0) {
+            ArrayDeque<Bitmap> bitmaps = mBuckets[slot].mBitmaps;
+            long requiredBytes = (long) width * height * bytesPerPixel(config);
+
+            // Rotate through the bucket instead of iterating so that a lookup never allocates
+            for (int i = bitmaps.size(); i > 0; i--) {
+                Bitmap bitmap = bitmaps.pollFirst();
+                if (getAllocationByteCount(bitmap) < requiredBytes) {
+                    bitmaps.addLast(bitmap);
+                } else {
+                    if (bitmaps.isEmpty()) {
+                        removeBucket(slot);
+                    }
+                    mLruBitmaps.remove(bitmap);
+                    mCurrentBytes -= getAllocationByteCount(bitmap);
+                    mHitCount++;
+
+                    reconfigure(bitmap, width, height, config);
+                    return bitmap;
+                }
+            }
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Get a pooled bitmap with the given size and config, or create one if the pool has none that
+     * fits. New bitmaps are allocated at the rounded bucket size so that they can be reused for
+     * any size in the same bucket.
+     *
+     * @return a mutable bitmap with the requested size and config. Its contents are undefined.
+     */
+    public Bitmap getOrCreate(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        if (canRoundSizes()) {
+            bitmap = Bitmap.createBitmap(roundUp(width), roundUp(height), config);
+            reconfigure(bitmap, width, height, config);
+        } else {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Return a bitmap to the pool so that it can be reused. The caller must not use the bitmap
+     * afterwards. Bitmaps that can't be reused are ignored, and bitmaps larger than the whole pool
+     * are recycled.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || mLruBitmaps.contains(bitmap)) {
+            return;
+        }
+
+        int size = getAllocationByteCount(bitmap);
+        if (size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        long key = bucketKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        int slot = findBucket(key);
+        if (slot < 0) {
+            slot = addBucket(key);
+        }
+        mBuckets[slot].mBitmaps.addLast(bitmap);
+        mLruBitmaps.add(bitmap);
+        mCurrentBytes += size;
+
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Evict the least recently pooled bitmaps until the pool holds at most the given number of
+     * bytes
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        Iterator<Bitmap> iterator = mLruBitmaps.iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+
+            int slot = findBucket(bucketKey(bitmap.getWidth(), bitmap.getHeight(),
+                    bitmap.getConfig()));
+            ArrayDeque<Bitmap> bitmaps = mBuckets[slot].mBitmaps;
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty()) {
+                removeBucket(slot);
+            }
+
+            mCurrentBytes -= getAllocationByteCount(bitmap);
+            mEvictionCount++;
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Evict every bitmap from the pool
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Get the number of bytes of bitmaps currently held by the pool
+     */
+    public synchronized int getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * Get the maximum number of bytes of bitmaps held by the pool
+     */
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Get the number of calls to {@link #get(int, int, Bitmap.Config)} that returned a bitmap
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Get the number of calls to {@link #get(int, int, Bitmap.Config)} that returned null
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Get the number of bitmaps evicted from the pool
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Check whether bitmaps can be decoded into when their size differs from the decoded image
+     */
+    static boolean canReuseDifferentSizes() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    private boolean canRoundSizes() {
+        return mBucketSize > 1 && canReuseDifferentSizes();
+    }
+
+    private int roundUp(int size) {
+        return ((size + mBucketSize - 1) / mBucketSize) * mBucketSize;
+    }
+
+    private long bucketKey(int width, int height, Bitmap.Config config) {
+        if (canRoundSizes()) {
+            width = roundUp(width);
+            height = roundUp(height);
+        }
+        int configKey = config == null ? 0 : config.ordinal() + 1;
+        return ((long) width << 40) | ((long) height << 16) | configKey;
+    }
+
+    /**
+     * Find the slot of the bucket with the given key
+     *
+     * @return the slot, or -1 if there is no such bucket
+     */
+    private int findBucket(long key) {
+        int mask = mBuckets.length - 1;
+        int slot = slot(key, mask);
+        while (mBuckets[slot] != null) {
+            if (mBuckets[slot].mKey == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Add an empty bucket for a key that has none
+     *
+     * @return the slot of the new bucket
+     */
+    private int addBucket(long key) {
+        // Keep the load factor at or below 3/4
+        if ((mBucketCount + 1) * 4L > mBuckets.length * 3L) {
+            rehashBuckets(mBuckets.length * 2);
+        }
+
+        int mask = mBuckets.length - 1;
+        int slot = slot(key, mask);
+        while (mBuckets[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        mBuckets[slot] = new Bucket(key);
+        mBucketCount++;
+        return slot;
+    }
+
+    private void removeBucket(int slot) {
+        // Shift later buckets of the same probe sequence back so that no lookup stops early at
+        // the hole left behind
+        int mask = mBuckets.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (mBuckets[next] != null) {
+            int home = slot(mBuckets[next].mKey, mask);
+            boolean canMove = hole <= next
+                    ? home <= hole || home > next
+                    : home <= hole && home > next;
+            if (canMove) {
+                mBuckets[hole] = mBuckets[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        mBuckets[hole] = null;
+        mBucketCount--;
+    }
+
+    private void rehashBuckets(int capacity) {
+        Bucket[] buckets = mBuckets;
+        mBuckets = new Bucket[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != null) {
+                int slot = slot(buckets[i].mKey, mask);
+                while (mBuckets[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                mBuckets[slot] = buckets[i];
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        // Spread the bits of the key, since sizes differ in only a few bits
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if (canReuseDifferentSizes()
+                && (bitmap.getWidth() != width || bitmap.getHeight() != height
+                || bitmap.getConfig() != config)) {
+            bitmap.reconfigure(width, height, config);
+        }
+    }
+
+    /**
+     * Get the number of bytes used to store the pixels of a bitmap
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getAllocationByteCount(Bitmap bitmap) {
+        if (canReuseDifferentSizes()) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Get the number of bytes used to store a single pixel with the given config
+     */
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == null) {
+            return 4;
+        }
+
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * The pooled bitmaps of a single width, height and config
+     */
+    private static final class Bucket {
+        final long mKey;
+        final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<Bitmap>();
+
+        Bucket(long key) {
+            mKey = key;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.jameskelso.android.widget.core.Dimensions;
+
+/**
+ * A {@link ViewGroup} that lays its children out in justified rows, like an image gallery. Each
+ * row is filled with children at a target row height until it is at least as wide as the layout,
+ * then scaled so that it exactly fills the width. The last row keeps the target height.
+ *
+ * The size of every child comes from its aspect ratio alone. {@link AspectRatioImageView}
+ * children use their own aspect ratio and any other child is treated as square. Children are
+ * always measured with exact measure specs, so an {@link AspectRatioImageView} never falls back
+ * to {@link android.widget.ImageView#onMeasure(int, int)}, and the whole layout is resolved in a
+ * single pass over the children.
+ *
+ * The layout remembers the aspect ratio of each child from the last measure pass. Rows before the
+ * first child whose aspect ratio or visibility changed are kept as they are, so appending
+ * children only lays out the last row again.
+ */
+public class AspectRatioFlowLayout extends ViewGroup {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Marks a child that takes no space in the snapshot of aspect ratios
+    private static final long RATIO_GONE = Dimensions.NONE;
+
+    private static final long SQUARE = Dimensions.pack(1, 1);
+
+    private int mTargetRowHeight;
+    private int mSpacing;
+
+    // The content width and settings the rows were calculated for
+    private int mLayoutWidth = -1;
+    private int mLayoutTargetRowHeight;
+    private int mLayoutSpacing;
+
+    // Snapshot of the aspect ratio of each child, or RATIO_GONE
+    private long[] mChildRatios = new long[INITIAL_CAPACITY];
+    private int mChildCount;
+
+    // Position of each child relative to the top left corner of its row and the content area
+    private int[] mChildRows = new int[INITIAL_CAPACITY];
+    private int[] mChildLefts = new int[INITIAL_CAPACITY];
+    private int[] mChildWidths = new int[INITIAL_CAPACITY];
+
+    // Index of the first child, top and height of each row
+    private int[] mRowStarts = new int[INITIAL_CAPACITY];
+    private int[] mRowTops = new int[INITIAL_CAPACITY];
+    private int[] mRowHeights = new int[INITIAL_CAPACITY];
+    private int mRowCount;
+
+    // Number of rows laid out again by the last measure pass
+    private int mLastRowsLaidOut;
+
+    public AspectRatioFlowLayout(Context context) {
+        super(context);
+    }
+
+    public AspectRatioFlowLayout(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        resolveAttrs(attrs, 0, 0);
+    }
+
+    public AspectRatioFlowLayout(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        resolveAttrs(attrs, defStyleAttr, 0);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public AspectRatioFlowLayout(Context context, AttributeSet attrs, int defStyleAttr,
+                                 int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        resolveAttrs(attrs, defStyleAttr, defStyleRes);
+    }
+
+    private void resolveAttrs(AttributeSet attrs, int defStyle, int defStyleRes) {
+        TypedArray a = getContext().obtainStyledAttributes(attrs,
+                R.styleable.com_jameskelso_android_widget_AspectRatioFlowLayout,
+                defStyle, defStyleRes);
+
+        mTargetRowHeight = a.getDimensionPixelSize(
+                R.styleable.com_jameskelso_android_widget_AspectRatioFlowLayout_targetRowHeight,
+                0);
+        mSpacing = a.getDimensionPixelSize(
+                R.styleable.com_jameskelso_android_widget_AspectRatioFlowLayout_spacing, 0);
+
+        a.recycle();
+    }
+
+    /**
+     * Set the height rows are filled to before they are scaled to fit the width of the layout
+     *
+     * @param targetRowHeight the target row height in pixels
+     */
+    public void setTargetRowHeight(int targetRowHeight) {
+        if (mTargetRowHeight != targetRowHeight) {
+            mTargetRowHeight = targetRowHeight;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Get the height rows are filled to before they are scaled to fit the width of the layout
+     */
+    public int getTargetRowHeight() {
+        return mTargetRowHeight;
+    }
+
+    /**
+     * Set the space between children in a row and between rows
+     *
+     * @param spacing the spacing in pixels
+     */
+    public void setSpacing(int spacing) {
+        if (mSpacing != spacing) {
+            mSpacing = spacing;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Get the space between children in a row and between rows
+     */
+    public int getSpacing() {
+        return mSpacing;
+    }
+
+    /**
+     * Get the number of rows the children were laid out in by the last measure pass
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Get the number of rows that the last measure pass had to lay out again. Rows before the
+     * first changed child are kept from the previous pass.
+     */
+    public int getLastRowsLaidOut() {
+        return mLastRowsLaidOut;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        int paddingHorizontal = getPaddingLeft() + getPaddingRight();
+        int paddingVertical = getPaddingTop() + getPaddingBottom();
+
+        // Without a width to fill, rows are never full and every child stays at the target height
+        int contentWidth = widthMode == MeasureSpec.UNSPECIFIED
+                ? Integer.MAX_VALUE
+                : Math.max(0, MeasureSpec.getSize(widthMeasureSpec) - paddingHorizontal);
+
+        int firstRow = findFirstChangedRow(contentWidth);
+        mLastRowsLaidOut = 0;
+        if (firstRow >= 0) {
+            layoutRows(firstRow, contentWidth);
+            mLastRowsLaidOut = mRowCount - firstRow;
+        }
+
+        int childCount = mChildCount;
+        int maxRight = 0;
+        for (int i = 0; i < childCount; i++) {
+            if (mChildRatios[i] == RATIO_GONE) {
+                continue;
+            }
+
+            int row = mChildRows[i];
+            getChildAt(i).measure(
+                    MeasureSpec.makeMeasureSpec(mChildWidths[i], MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(mRowHeights[row], MeasureSpec.EXACTLY));
+            maxRight = Math.max(maxRight, mChildLefts[i] + mChildWidths[i]);
+        }
+
+        int contentHeight = 0;
+        if (mRowCount > 0) {
+            contentHeight = mRowTops[mRowCount - 1] + mRowHeights[mRowCount - 1];
+        }
+
+        int width = widthMode == MeasureSpec.EXACTLY
+                ? MeasureSpec.getSize(widthMeasureSpec)
+                : resolveSize(maxRight + paddingHorizontal, widthMeasureSpec);
+        int height = resolveSize(contentHeight + paddingVertical, heightMeasureSpec);
+        setMeasuredDimension(Math.max(width, getSuggestedMinimumWidth()),
+                Math.max(height, getSuggestedMinimumHeight()));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+
+        for (int i = 0; i < mChildCount; i++) {
+            if (mChildRatios[i] == RATIO_GONE) {
+                continue;
+            }
+
+            int row = mChildRows[i];
+            int childLeft = left + mChildLefts[i];
+            int childTop = top + mRowTops[row];
+            getChildAt(i).layout(childLeft, childTop, childLeft + mChildWidths[i],
+                    childTop + mRowHeights[row]);
+        }
+    }
+
+    /**
+     * Update the snapshot of child aspect ratios and find the first row that has to be laid out
+     * again
+     *
+     * @return the index of the first changed row, or -1 if every row is unchanged
+     */
+    private int findFirstChangedRow(int contentWidth) {
+        int childCount = getChildCount();
+        ensureChildCapacity(childCount);
+
+        boolean settingsChanged = contentWidth != mLayoutWidth
+                || mTargetRowHeight != mLayoutTargetRowHeight
+                || mSpacing != mLayoutSpacing;
+        mLayoutWidth = contentWidth;
+        mLayoutTargetRowHeight = mTargetRowHeight;
+        mLayoutSpacing = mSpacing;
+
+        int firstChanged = Math.min(childCount, mChildCount);
+        for (int i = 0; i < childCount; i++) {
+            long ratio = getChildRatio(getChildAt(i));
+            if (i < firstChanged && ratio != mChildRatios[i]) {
+                firstChanged = i;
+            }
+            mChildRatios[i] = ratio;
+        }
+        boolean countChanged = childCount != mChildCount;
+        mChildCount = childCount;
+
+        if (settingsChanged || mRowCount == 0) {
+            return 0;
+        } else if (firstChanged == childCount && !countChanged) {
+            return -1;
+        }
+
+        // Rows cover every child from their start up to the start of the next row, so the changed
+        // child belongs to the last row that starts at or before it
+        int low = 0;
+        int high = mRowCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mRowStarts[mid] <= firstChanged) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static long getChildRatio(View child) {
+        if (child.getVisibility() == View.GONE) {
+            return RATIO_GONE;
+        }
+
+        if (child instanceof AspectRatioImageView) {
+            AspectRatioImageView view = (AspectRatioImageView) child;
+            if (view.getAspectRatioWidth() > 0 && view.getAspectRatioHeight() > 0) {
+                return Dimensions.pack(view.getAspectRatioWidth(), view.getAspectRatioHeight());
+            }
+        }
+        return SQUARE;
+    }
+
+    /**
+     * Fill rows from the first child of a row to the last child
+     */
+    private void layoutRows(int firstRow, int contentWidth) {
+        int start = firstRow < mRowCount ? mRowStarts[firstRow] : 0;
+        int top = firstRow > 0 ? mRowTops[firstRow - 1] + mRowHeights[firstRow - 1] + mSpacing : 0;
+        int targetHeight = Math.max(1, mTargetRowHeight);
+
+        mRowCount = firstRow;
+        int rowStart = start;
+        int rowChildren = 0;
+        double rowRatio = 0;
+
+        for (int i = start; i < mChildCount; i++) {
+            long ratio = mChildRatios[i];
+            if (ratio == RATIO_GONE) {
+                continue;
+            }
+
+            rowChildren++;
+            rowRatio += ratioOf(ratio);
+
+            int gaps = mSpacing * (rowChildren - 1);
+            if (rowRatio * targetHeight + gaps >= contentWidth) {
+                // The row is full, so scale it to fill the width exactly
+                int available = Math.max(0, contentWidth - gaps);
+                int height = Math.max(1, (int) Math.round(available / rowRatio));
+                closeRow(rowStart, i + 1, top, height, rowRatio, available);
+                top += height + mSpacing;
+                rowStart = i + 1;
+                rowChildren = 0;
+                rowRatio = 0;
+            }
+        }
+
+        if (rowChildren > 0) {
+            // The last row is not full and keeps the target height
+            int available = (int) Math.round(rowRatio * targetHeight);
+            closeRow(rowStart, mChildCount, top, targetHeight, rowRatio, available);
+        }
+    }
+
+    /**
+     * Record a row and split its available width between its children by aspect ratio. Widths
+     * are rounded so that they always add up to the available width.
+     */
+    private void closeRow(int start, int end, int top, int height, double rowRatio,
+                          int available) {
+        int row = mRowCount++;
+        ensureRowCapacity(mRowCount);
+        mRowStarts[row] = start;
+        mRowTops[row] = top;
+        mRowHeights[row] = height;
+
+        double ratioSoFar = 0;
+        int right = 0;
+        int gaps = 0;
+        for (int i = start; i < end; i++) {
+            long ratio = mChildRatios[i];
+            if (ratio == RATIO_GONE) {
+                continue;
+            }
+
+            ratioSoFar += ratioOf(ratio);
+            int nextRight = (int) Math.round(ratioSoFar / rowRatio * available);
+            mChildRows[i] = row;
+            mChildLefts[i] = right + gaps;
+            mChildWidths[i] = nextRight - right;
+            right = nextRight;
+            gaps += mSpacing;
+        }
+    }
+
+    private static double ratioOf(long ratio) {
+        return (double) Dimensions.width(ratio) / Dimensions.height(ratio);
+    }
+
+    private void ensureChildCapacity(int count) {
+        if (count > mChildRatios.length) {
+            int capacity = Math.max(count, mChildRatios.length * 2);
+            mChildRatios = grow(mChildRatios, capacity);
+            mChildRows = grow(mChildRows, capacity);
+            mChildLefts = grow(mChildLefts, capacity);
+            mChildWidths = grow(mChildWidths, capacity);
+        }
+    }
+
+    private void ensureRowCapacity(int count) {
+        if (count > mRowStarts.length) {
+            int capacity = Math.max(count, mRowStarts.length * 2);
+            mRowStarts = grow(mRowStarts, capacity);
+            mRowTops = grow(mRowTops, capacity);
+            mRowHeights = grow(mRowHeights, capacity);
+        }
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static long[] grow(long[] array, int capacity) {
+        long[] grown = new long[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
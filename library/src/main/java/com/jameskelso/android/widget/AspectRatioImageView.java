@@ -26,15 +26,34 @@
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.preference.Preference;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
 import android.widget.ImageView;
 
+import com.jameskelso.android.widget.core.AspectRatioMeasurer;
+import com.jameskelso.android.widget.core.AspectRatioMetadataCache;
+import com.jameskelso.android.widget.core.AspectRatioViewDelegate;
+import com.jameskelso.android.widget.core.AspectRatios;
+import com.jameskelso.android.widget.core.Dimensions;
+import com.jameskelso.android.widget.core.PrecomputedMeasure;
+
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * An {@link android.widget.ImageView} with a height or width dimension set to
  * WRAP_CONTENT will experience jank when loading an image from the network or after a long-running
@@ -56,11 +75,84 @@ import android.widget.ImageView;
  * or the height and width of the original image to be set before measurement occurs. It will
  * calculate an aspect ratio and update the measured dimension of the view to match what it will be
  * when the image load is complete.
+ *
+ * {@link #onMeasure(int, int)}, {@link #onDraw(Canvas)} and the aspect ratio setters never
+ * allocate, so binding and scrolling rows causes no garbage collection. Allocation tests in the
+ * tests and benchmark modules fail if a change breaks this.
  */
 
 public class AspectRatioImageView extends ImageView {
-    // Aspect ratio is width / height
-    protected float mAspectRatio;
+    // Aspect ratio is mAspectRatioWidth : mAspectRatioHeight reduced to lowest terms. Both are 0
+    // when no aspect ratio is set.
+    protected int mAspectRatioWidth;
+    protected int mAspectRatioHeight;
+
+    // Decides how much work measure passes, ratio changes and drawable swaps need, remembering
+    // the last measure pass so they do as little work as possible
+    private final AspectRatioViewDelegate mDelegate = new AspectRatioViewDelegate(new ViewHost());
+
+    // An aspect ratio published from another thread that is waiting to be applied on the main
+    // thread, or Dimensions.NONE if there is none
+    private final AtomicLong mPendingAspectRatio = new AtomicLong(Dimensions.NONE);
+
+    // A size calculated ahead of time, used when it matches the measure pass
+    private PrecomputedMeasure mPrecomputedMeasure;
+
+    // Notified once, as soon as a measure pass resolves the size of this view
+    private OnSizeResolvedListener mOnSizeResolvedListener;
+
+    // The pool that the bitmap shown by this view is returned to when it is no longer needed
+    private AspectRatioBitmapPool mBitmapPool;
+    private Bitmap mPooledBitmap;
+
+    // Drawn in place of the image until a drawable is set. The paint and bounds are reused so
+    // drawing the placeholder never allocates.
+    private boolean mHasPlaceholder;
+    private Bitmap mPlaceholderBitmap;
+    private final Paint mPlaceholderPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mPlaceholderBounds = new Rect();
+    private final Rect mPlaceholderSource = new Rect();
+    private boolean mCropPlaceholder;
+
+    // The load whose thumbnail, previews and full image this view shows
+    private AspectRatioTwoStageLoad mTwoStageLoad;
+
+    // The last size resolved in each orientation, with the measure specs and aspect ratio it was
+    // resolved from. It is saved with the instance state so that the first measure pass after a
+    // restore can reuse it instead of measuring again.
+    private final int[] mResolvedWidthSpecs = new int[ORIENTATION_COUNT];
+    private final int[] mResolvedHeightSpecs = new int[ORIENTATION_COUNT];
+    private final long[] mResolvedAspectRatios = new long[ORIENTATION_COUNT];
+    private final long[] mResolvedSizes = {Dimensions.NONE, Dimensions.NONE};
+    private boolean mRestoredSizePending;
+
+    // Indexes of the resolved sizes by orientation
+    private static final int ORIENTATION_PORTRAIT = 0;
+    private static final int ORIENTATION_LANDSCAPE = 1;
+    private static final int ORIENTATION_COUNT = 2;
+
+    // Releases this view's bitmap when it is off screen and memory runs low
+    private AspectRatioTrimManager mTrimManager;
+    private AspectRatioTrimManager.Entry mTrimEntry;
+    private boolean mReleasingForTrim;
+
+    /**
+     * Interface definition for a callback to be invoked when the size of an
+     * {@link AspectRatioImageView} has been resolved.
+     */
+    public interface OnSizeResolvedListener {
+        /**
+         * Called from the measure pass as soon as the width and height of the view are known.
+         * Image requests can be started from here at the exact size of the view instead of
+         * waiting for the next layout. This runs inside {@link #onMeasure(int, int)}, so it must
+         * not change the view. Post anything that does, such as setting a drawable.
+         *
+         * @param view the view whose size has been resolved
+         * @param width the resolved width of the view
+         * @param height the resolved height of the view
+         */
+        void onSizeResolved(AspectRatioImageView view, int width, int height);
+    }
 
     public AspectRatioImageView(Context context) {
         super(context);
@@ -83,6 +175,15 @@ public class AspectRatioImageView extends ImageView {
         resolveAttrs(attrs, defStyleAttr, defStyleRes);
     }
 
+    /**
+     * Constructor used by {@link AspectRatioViewPool} with an aspect ratio that was already
+     * resolved from the same attributes by an earlier inflation of the layout
+     */
+    AspectRatioImageView(Context context, AttributeSet attrs, long aspectRatio) {
+        super(context, attrs);
+        applyAspectRatio(aspectRatio);
+    }
+
     private void resolveAttrs(AttributeSet attrs, int defStyle, int defStyleRes) {
         //Retrieve styles attributes
         TypedArray a = getContext().obtainStyledAttributes(attrs,
@@ -97,14 +198,25 @@ public class AspectRatioImageView extends ImageView {
                 0);
 
         if (originalWidth > 0 && originalHeight > 0) {
-            calculateAspectRatio(originalWidth, originalHeight);
+            applyAspectRatio(AspectRatios.calculateAspectRatio(originalWidth, originalHeight));
         }
 
-        float aspectRatio = a.getFloat(
-                R.styleable.com_jameskelso_android_widget_AspectRatioImageView_aspectRatio,
-                0);
-        if (aspectRatio > 0) {
-            this.mAspectRatio = aspectRatio;
+        // The aspect ratio can be either a float (width / height) or a string such as "16:9"
+        TypedValue aspectRatioValue = a.peekValue(
+                R.styleable.com_jameskelso_android_widget_AspectRatioImageView_aspectRatio);
+        if (aspectRatioValue != null) {
+            long aspectRatio;
+            if (aspectRatioValue.type == TypedValue.TYPE_STRING) {
+                aspectRatio = AspectRatios.parseAspectRatio(aspectRatioValue.string.toString());
+            } else {
+                aspectRatio = AspectRatios.approximateAspectRatio(a.getFloat(
+                        R.styleable.com_jameskelso_android_widget_AspectRatioImageView_aspectRatio,
+                        0));
+            }
+
+            if (aspectRatio != AspectRatios.NONE) {
+                applyAspectRatio(aspectRatio);
+            }
         }
 
         a.recycle();
@@ -112,80 +224,110 @@ public class AspectRatioImageView extends ImageView {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        if (AspectRatioInstrumentation.ENABLED) {
+            AspectRatioInstrumentation.beginMeasure();
+        }
 
-        int measuredWidth = getMeasuredWidth();
-        int measuredHeight = getMeasuredHeight();
+        int orientation = getOrientation();
+        long aspectRatio = Dimensions.pack(mAspectRatioWidth, mAspectRatioHeight);
 
-        // We don't want to override default functionality if the width and height are already set
-        // or if both the width and height are unknown
-        if (measuredWidth != 0 && measuredHeight != 0
-                || (measuredWidth == 0 && measuredHeight == 0)) {
-            return;
+        // The first pass after a restore reuses the size this view had before, as long as
+        // nothing it was resolved from has changed
+        long restoredSize = Dimensions.NONE;
+        if (mRestoredSizePending) {
+            mRestoredSizePending = false;
+            if (mResolvedWidthSpecs[orientation] == widthMeasureSpec
+                    && mResolvedHeightSpecs[orientation] == heightMeasureSpec
+                    && mResolvedAspectRatios[orientation] == aspectRatio) {
+                restoredSize = mResolvedSizes[orientation];
+            }
         }
 
-        int desiredWidth;
-        int desiredHeight;
+        // When a restored size, a precomputed measure or the measure specs and aspect ratio
+        // decide the size on their own, there is no need to let ImageView measure the drawable
+        // first.
+        long size = mDelegate.measure(widthMeasureSpec, heightMeasureSpec, mAspectRatioWidth,
+                mAspectRatioHeight, restoredSize, mPrecomputedMeasure);
 
-        // If the width is the unknown dimension
-        if (measuredWidth == 0) {
-            desiredWidth = calculateDesiredWidthForHeight(measuredHeight, widthMeasureSpec);
-            desiredHeight = measuredHeight;
-        }
-        // Otherwise the height is the unknown dimension
-        else {
-            desiredWidth = measuredWidth;
-            desiredHeight = calculateDesiredHeightForWidth(measuredWidth, heightMeasureSpec);
+        if (AspectRatioInstrumentation.ENABLED) {
+            AspectRatioInstrumentation.endMeasure(!mDelegate.isLastMeasureFromDrawable(),
+                    mResolvedSizes[orientation], mResolvedAspectRatios[orientation], size,
+                    aspectRatio);
         }
 
-        // If we were able to resolve a size for the missing dimension, let's update the measured
-        // dimension.
-        if (desiredWidth != 0 && desiredHeight != 0) {
-            int desiredWidthMeasureSpec =
-                    MeasureSpec.makeMeasureSpec(desiredWidth, MeasureSpec.EXACTLY);
+        mResolvedWidthSpecs[orientation] = widthMeasureSpec;
+        mResolvedHeightSpecs[orientation] = heightMeasureSpec;
+        mResolvedAspectRatios[orientation] = aspectRatio;
+        mResolvedSizes[orientation] = size;
 
-            int desiredHeightMeasureSpec =
-                    MeasureSpec.makeMeasureSpec(desiredHeight, MeasureSpec.EXACTLY);
+        dispatchSizeResolved(Dimensions.width(size), Dimensions.height(size));
+    }
 
-            setMeasuredDimension(desiredWidthMeasureSpec, desiredHeightMeasureSpec);
+    /**
+     * Notify the {@link OnSizeResolvedListener} if the size of this view is known. The listener is
+     * removed before it is called so that it is only notified once.
+     */
+    private void dispatchSizeResolved(int width, int height) {
+        if (mOnSizeResolvedListener != null && width > 0 && height > 0) {
+            OnSizeResolvedListener listener = mOnSizeResolvedListener;
+            mOnSizeResolvedListener = null;
+            listener.onSizeResolved(this, width, height);
         }
     }
 
     /**
-     * Calculate how wide this view wants to be based on the measured height and aspect ratio. This
-     * method will respect the {@link android.view.View.MeasureSpec} passed in by the parent if
-     * necessary.
+     * Register a one-shot callback to be invoked as soon as the size of this view is resolved by a
+     * measure pass. If this view has already been measured and no new layout is pending, the
+     * callback is invoked immediately with the current size. The same happens right after the
+     * state of this view is restored, with the size it had in the current orientation. Setting a
+     * new listener replaces any listener that has not been notified yet.
      *
-     * @param  measuredHeight the height of this view as measured by the parent class
-     * @param  widthMeasureSpec the {@link android.view.View.MeasureSpec} passed in by the parent
-     *                          {@link android.view.ViewGroup} as part of the layout cycle.
-     * @return      the desired width of this view with respect to its parent
+     * @param listener the callback to invoke, or null to remove a pending callback
      */
-    private int calculateDesiredWidthForHeight(int measuredHeight, int widthMeasureSpec) {
-        // Desired width = height * aspect ratio
-        // For example,  9 * (16 / 9) = 16
-        int desiredWidth = Math.round(measuredHeight * mAspectRatio);
-        return resolveSize(desiredWidth, widthMeasureSpec);
+    public void setOnSizeResolvedListener(OnSizeResolvedListener listener) {
+        mOnSizeResolvedListener = listener;
+
+        if (listener != null && !isLayoutRequested()) {
+            dispatchSizeResolved(getMeasuredWidth(), getMeasuredHeight());
+        }
+        if (mOnSizeResolvedListener != null && mRestoredSizePending) {
+            // The size this view had in the current orientation before its state was restored.
+            // The first measure pass will reuse it, so the image can be requested right away.
+            int orientation = getOrientation();
+            long size = mResolvedSizes[orientation];
+            if (size != Dimensions.NONE && mResolvedAspectRatios[orientation]
+                    == Dimensions.pack(mAspectRatioWidth, mAspectRatioHeight)) {
+                dispatchSizeResolved(Dimensions.width(size), Dimensions.height(size));
+            }
+        }
+    }
+
+    private int getOrientation() {
+        return getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE
+                ? ORIENTATION_LANDSCAPE : ORIENTATION_PORTRAIT;
     }
 
     /**
-     * Calculate how tall this view wants to be based on the measured width and aspect ratio. This
-     * method will respect the {@link android.view.View.MeasureSpec} passed in by the parent if
-     * necessary.
+     * Calculate the height this view will have when it is measured with a given width. This can be
+     * used to work out the size to decode an image at before the view has been laid out. For a
+     * view with a width of MATCH_PARENT, pass the width available inside its parent.
      *
-     * @param  measuredWidth the width of this view as measured by the parent class
-     * @param  heightMeasureSpec the {@link android.view.View.MeasureSpec} passed in by the parent
-     *                          {@link android.view.ViewGroup} as part of the layout cycle.
-     * @return      the desired height of this view with respect to its parent
+     * @param  width the width of this view
+     * @return the height of this view at that width, or 0 if no aspect ratio is set
      */
-    private int calculateDesiredHeightForWidth(int measuredWidth, int heightMeasureSpec) {
-        int desiredHeight = 0;
-        if (mAspectRatio != 0) {
-            // Desired height = width * aspect ratio
-            // For example,  16 / (16 / 9) = 9
-            desiredHeight = Math.round(measuredWidth / mAspectRatio);
-        }
-        return resolveSize(desiredHeight, heightMeasureSpec);
+    public int calculateHeightForWidth(int width) {
+        return AspectRatios.calculateHeightForWidth(width, mAspectRatioWidth, mAspectRatioHeight);
+    }
+
+    /**
+     * Calculate the width this view will have when it is measured with a given height. This can be
+     * used to work out the size to decode an image at before the view has been laid out.
+     *
+     * @param  height the height of this view
+     * @return the width of this view at that height, or 0 if no aspect ratio is set
+     */
+    public int calculateWidthForHeight(int height) {
+        return AspectRatios.calculateWidthForHeight(height, mAspectRatioWidth, mAspectRatioHeight);
     }
 
     /**
@@ -197,30 +339,601 @@ public class AspectRatioImageView extends ImageView {
      *                       before resizing
      */
     public void setOriginalImageWidthAndHeight(int originalWidth, int originalHeight) {
-        calculateAspectRatio(originalWidth, originalHeight);
-        requestLayout();
+        mPendingAspectRatio.set(Dimensions.NONE);
+        updateAspectRatio(AspectRatios.calculateAspectRatio(originalWidth, originalHeight));
+    }
+
+    /**
+     * Set the target width and height of the image that will be loaded into this view from any
+     * thread. The aspect ratio is applied on the main thread just before the next frame, together
+     * with every other {@link AspectRatioImageView} updated from another thread since the last
+     * frame, so that they all share one layout. If several updates are posted before the next
+     * frame only the last one is applied.
+     *
+     * @param  originalWidth the original width of the image that will be loaded into this view
+     *                       before resizing
+     * @param  originalHeight the original height of the image that will be loaded into this view
+     *                        before resizing
+     */
+    public void postOriginalImageWidthAndHeight(int originalWidth, int originalHeight) {
+        postAspectRatioUpdate(AspectRatios.calculateAspectRatio(originalWidth, originalHeight));
     }
 
-    private void calculateAspectRatio(int originalWidth, int originalHeight) {
-        this.mAspectRatio = ((float) originalWidth / (float) originalHeight);
+    /**
+     * Set the target width and height of the image that will be loaded into this view from the
+     * dimensions stored in a metadata cache. Call this before the view is first measured so that
+     * it has the correct size in its first frame.
+     *
+     * @param  cache the cache to look the image up in
+     * @param  key the URL or other unique key of the image
+     * @return true if the image was in the cache and its dimensions were applied
+     */
+    public boolean setOriginalImageWidthAndHeight(@NonNull AspectRatioMetadataCache cache,
+                                                  @NonNull String key) {
+        long dimensions = cache.get(key);
+        if (dimensions == Dimensions.NONE) {
+            return false;
+        }
+
+        setOriginalImageWidthAndHeight(Dimensions.width(dimensions), Dimensions.height(dimensions));
+        return true;
+    }
+
+    /**
+     * Set the target width and height of the image that will be loaded into this view from the
+     * dimensions stored in a registry for the item this view is bound to
+     *
+     * @param  registry the registry to look the item up in
+     * @param  id the id of the item
+     * @return true if the item was in the registry and its dimensions were applied
+     */
+    public boolean setOriginalImageWidthAndHeight(@NonNull AspectRatioRegistry registry, long id) {
+        long dimensions = registry.get(id);
+        if (dimensions == Dimensions.NONE) {
+            return false;
+        }
+
+        setOriginalImageWidthAndHeight(Dimensions.width(dimensions), Dimensions.height(dimensions));
+        return true;
     }
 
     /**
-     * Set the aspect ratio (width / height) of the image that will be loaded into this view
+     * Bind a measure that was calculated ahead of time, for example on a background thread by an
+     * {@link AspectRatioMeasurePrefetcher}. The aspect ratio of the measure becomes the aspect
+     * ratio of this view, and any measure pass with the same measure specs uses the stored size
+     * without doing any work. A measure pass with other specs is measured as usual.
+     *
+     * @param measure the precomputed measure, or null to remove it
+     * @throws IllegalArgumentException if the measure has no aspect ratio
+     */
+    public void setPrecomputedMeasure(PrecomputedMeasure measure) {
+        long aspectRatio = AspectRatios.NONE;
+        if (measure != null) {
+            // Reduce the ratio the same way every other setter does so the measure matches it
+            long measureAspectRatio = measure.getAspectRatio();
+            aspectRatio = AspectRatios.calculateAspectRatio(Dimensions.width(measureAspectRatio),
+                    Dimensions.height(measureAspectRatio));
+            if (aspectRatio == AspectRatios.NONE) {
+                throw new IllegalArgumentException("The precomputed measure has no aspect ratio");
+            }
+        }
+
+        mPrecomputedMeasure = measure;
+        if (measure != null) {
+            mPendingAspectRatio.set(Dimensions.NONE);
+            updateAspectRatio(aspectRatio);
+        }
+    }
+
+    /**
+     * Get the measure set with {@link #setPrecomputedMeasure(PrecomputedMeasure)}
+     */
+    public PrecomputedMeasure getPrecomputedMeasure() {
+        return mPrecomputedMeasure;
+    }
+
+    /**
+     * Set the aspect ratio (width / height) of the image that will be loaded into this view. The
+     * float is converted to the simplest integer ratio it represents, for example 16:9. Prefer
+     * {@link #setOriginalImageWidthAndHeight(int, int)} when the dimensions of the image are known
+     * so that the ratio is exact.
      *
      * @param  aspectRatio the aspect ratio (width / height) of the image that will be loaded into
      *                     this view
      */
     public void setAspectRatio(float aspectRatio) {
-        this.mAspectRatio = aspectRatio;
-        requestLayout();
+        mPendingAspectRatio.set(Dimensions.NONE);
+        updateAspectRatio(AspectRatios.approximateAspectRatio(aspectRatio));
+    }
+
+    /**
+     * Set the aspect ratio (width / height) of the image that will be loaded into this view from
+     * any thread. It is applied in the same way as
+     * {@link #postOriginalImageWidthAndHeight(int, int)}.
+     *
+     * @param  aspectRatio the aspect ratio (width / height) of the image that will be loaded into
+     *                     this view
+     */
+    public void postAspectRatio(float aspectRatio) {
+        postAspectRatioUpdate(AspectRatios.approximateAspectRatio(aspectRatio));
+    }
+
+    private void postAspectRatioUpdate(long aspectRatio) {
+        // Only the first update since the last apply queues this view. Later ones just replace
+        // the pending value.
+        if (mPendingAspectRatio.getAndSet(aspectRatio) == Dimensions.NONE) {
+            AspectRatioUpdateDispatcher.getInstance().enqueue(this);
+        }
+    }
+
+    /**
+     * Apply the aspect ratio published with {@link #postAspectRatio(float)} or
+     * {@link #postOriginalImageWidthAndHeight(int, int)}, if there is one. Called on the main
+     * thread by {@link AspectRatioUpdateDispatcher}.
+     */
+    void applyPendingAspectRatio() {
+        long aspectRatio = mPendingAspectRatio.getAndSet(Dimensions.NONE);
+        if (aspectRatio != Dimensions.NONE) {
+            updateAspectRatio(aspectRatio);
+        }
+    }
+
+    /**
+     * Apply a new aspect ratio, requesting a layout only when it is needed. An unchanged ratio is
+     * ignored. A ratio that provably resolves to the same size only redraws this view.
+     */
+    private void updateAspectRatio(long aspectRatio) {
+        long oldAspectRatio = Dimensions.pack(mAspectRatioWidth, mAspectRatioHeight);
+        applyAspectRatio(aspectRatio);
+        int result = mDelegate.onAspectRatioChanged(oldAspectRatio, aspectRatio);
+
+        if (AspectRatioInstrumentation.ENABLED) {
+            AspectRatioInstrumentation.onAspectRatioChanged(result);
+            if (result == AspectRatioMeasurer.SIZE_CHANGED) {
+                AspectRatioInstrumentation.onRequestLayout();
+            }
+        }
+    }
+
+    /**
+     * Get the number of times a call to {@link #setAspectRatio(float)} or
+     * {@link #setOriginalImageWidthAndHeight(int, int)} did not need a new layout, either because
+     * the aspect ratio did not change or because it resolved to the same size.
+     */
+    public int getAvoidedLayoutCount() {
+        return mDelegate.getMeasurer().getAvoidedLayoutCount();
+    }
+
+    private void applyAspectRatio(long aspectRatio) {
+        this.mAspectRatioWidth = Dimensions.width(aspectRatio);
+        this.mAspectRatioHeight = Dimensions.height(aspectRatio);
     }
 
     /**
      * Get the aspect ratio (width / height) of the image that will be loaded into this view
      */
     public float getAspectRatio() {
-        return mAspectRatio;
+        return AspectRatios.toFloat(mAspectRatioWidth, mAspectRatioHeight);
+    }
+
+    /**
+     * Get the width term of the aspect ratio of the image that will be loaded into this view,
+     * reduced to lowest terms. This is 0 when no aspect ratio is set.
+     */
+    public int getAspectRatioWidth() {
+        return mAspectRatioWidth;
+    }
+
+    /**
+     * Get the height term of the aspect ratio of the image that will be loaded into this view,
+     * reduced to lowest terms. This is 0 when no aspect ratio is set.
+     */
+    public int getAspectRatioHeight() {
+        return mAspectRatioHeight;
+    }
+
+    /**
+     * Set the pool that bitmaps shown with {@link #setPooledImageBitmap(Bitmap)} are returned to
+     * when this view is recycled or detached. {@link AspectRatioBitmapDecoder} also decodes into
+     * bitmaps from this pool when it decodes for this view.
+     *
+     * @param pool the pool to use, or null to stop pooling bitmaps
+     */
+    public void setBitmapPool(AspectRatioBitmapPool pool) {
+        mBitmapPool = pool;
+    }
+
+    /**
+     * Get the pool that bitmaps shown by this view are returned to
+     */
+    public AspectRatioBitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Show a bitmap that belongs to this view's {@link AspectRatioBitmapPool}. The bitmap is
+     * returned to the pool when it is replaced by another pooled bitmap, when
+     * {@link #reclaimBitmap()} is called or when this view is detached from its window. The caller
+     * must not use the bitmap after that.
+     *
+     * @param bitmap the bitmap to show
+     */
+    public void setPooledImageBitmap(Bitmap bitmap) {
+        Bitmap previous = mPooledBitmap;
+        mPooledBitmap = bitmap;
+        setImageBitmap(bitmap);
+
+        if (previous != null && previous != bitmap && mBitmapPool != null) {
+            mBitmapPool.put(previous);
+        }
+    }
+
+    /**
+     * Clear the image of this view and return its pooled bitmap, if it has one, to the
+     * {@link AspectRatioBitmapPool}. Adapters should call this when a row is recycled, for
+     * example from an {@link android.widget.AbsListView.RecyclerListener}, so that the bitmap can
+     * be decoded into for the next row. The size of this view does not
+     * depend on the image, so clearing it does not change the layout.
+     */
+    public void reclaimBitmap() {
+        Bitmap bitmap = mPooledBitmap;
+        if (bitmap == null || mBitmapPool == null) {
+            return;
+        }
+
+        mPooledBitmap = null;
+        setImageDrawable(null);
+        mBitmapPool.put(bitmap);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        dispatchTrimVisibility();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        // A trim manager keeps the bitmap until memory is needed, and reloads it if it was
+        // released by the time this view is attached again
+        if (mTrimManager == null) {
+            reclaimBitmap();
+        }
+        dispatchTrimVisibility();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        dispatchTrimVisibility();
+    }
+
+    /**
+     * Set the manager that releases this view's bitmap when it is not on screen and memory runs
+     * low. The bitmap is loaded again through the manager's
+     * {@link AspectRatioTrimManager.OnReloadListener} when this view is shown again. While a
+     * manager is set, a pooled bitmap is no longer returned to its pool as soon as this view is
+     * detached, only when the manager releases it.
+     *
+     * @param manager the manager to use, or null to stop tracking this view
+     */
+    public void setTrimManager(AspectRatioTrimManager manager) {
+        if (mTrimManager == manager) {
+            return;
+        }
+
+        if (mTrimManager != null) {
+            mTrimManager.remove(this);
+        }
+        mTrimManager = manager;
+        if (manager != null) {
+            manager.onImageChanged(this, getBitmap(getDrawable()));
+        }
+    }
+
+    /**
+     * Get the manager set with {@link #setTrimManager(AspectRatioTrimManager)}
+     */
+    public AspectRatioTrimManager getTrimManager() {
+        return mTrimManager;
+    }
+
+    AspectRatioTrimManager.Entry getTrimEntry() {
+        return mTrimEntry;
+    }
+
+    void setTrimEntry(AspectRatioTrimManager.Entry entry) {
+        mTrimEntry = entry;
+    }
+
+    /**
+     * Check whether this view is attached to a window that is shown
+     */
+    boolean isOnScreen() {
+        return getWindowToken() != null && getWindowVisibility() == VISIBLE;
+    }
+
+    /**
+     * Drop the bitmap of this view for the trim manager. A pooled bitmap goes back to its pool.
+     */
+    void releaseBitmapForTrim() {
+        mReleasingForTrim = true;
+        try {
+            if (mPooledBitmap != null && mBitmapPool != null) {
+                reclaimBitmap();
+            } else {
+                setImageDrawable(null);
+            }
+        } finally {
+            mReleasingForTrim = false;
+        }
+    }
+
+    private void dispatchTrimVisibility() {
+        if (mTrimManager != null) {
+            mTrimManager.onVisibilityChanged(this, isOnScreen());
+        }
+    }
+
+    private static Bitmap getBitmap(Drawable drawable) {
+        return drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null;
+    }
+
+    /**
+     * Fill this view with a solid color, such as the dominant color of the image, until a
+     * drawable is set. The placeholder is drawn directly by this view, so it needs no
+     * {@link Drawable} and does not affect the layout.
+     *
+     * @param color the color to draw as an ARGB int
+     */
+    public void setPlaceholderColor(int color) {
+        mHasPlaceholder = true;
+        mPlaceholderBitmap = null;
+        mPlaceholderPaint.setColor(color);
+        invalidate();
+    }
+
+    /**
+     * Fill this view with the blurred preview described by a BlurHash until a drawable is set.
+     * The hash is decoded into a tiny bitmap that is shared through
+     * {@link AspectRatioPlaceholderCache} and stretched over the content area of this view.
+     *
+     * @param  hash the BlurHash of the image that will be loaded into this view
+     * @throws IllegalArgumentException if the hash is not valid
+     */
+    public void setPlaceholderBlurHash(@NonNull String hash) {
+        mHasPlaceholder = true;
+        mPlaceholderBitmap = AspectRatioPlaceholderCache.getBlurHashBitmap(hash);
+        mCropPlaceholder = false;
+        mPlaceholderPaint.setColor(Color.BLACK);
+        invalidate();
+    }
+
+    /**
+     * Show a small version of the image, such as a thumbnail or a preview decoded from the first
+     * scans of a progressive JPEG, until a drawable is set. The bitmap is scaled into the content
+     * area of this view and center cropped if its shape differs. It is drawn directly by this
+     * view without a {@link Drawable} or a scaled copy, so it does not affect the layout.
+     *
+     * @param bitmap the bitmap to draw
+     */
+    public void setPlaceholderBitmap(@NonNull Bitmap bitmap) {
+        mHasPlaceholder = true;
+        mPlaceholderBitmap = bitmap;
+        mCropPlaceholder = true;
+        mPlaceholderPaint.setColor(Color.BLACK);
+        invalidate();
+    }
+
+    /**
+     * Stop drawing the placeholder set with {@link #setPlaceholderColor(int)} or
+     * {@link #setPlaceholderBlurHash(String)}
+     */
+    public void clearPlaceholder() {
+        if (mHasPlaceholder) {
+            mHasPlaceholder = false;
+            mPlaceholderBitmap = null;
+            invalidate();
+        }
+    }
+
+    /**
+     * Check whether a placeholder will be drawn while this view has no drawable
+     */
+    public boolean hasPlaceholder() {
+        return mHasPlaceholder;
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        if (drawable != null) {
+            replacePlaceholder();
+        }
+        boolean deferred = beginDrawableSwap();
+        try {
+            super.setImageDrawable(drawable);
+        } finally {
+            endDrawableSwap(deferred);
+        }
+
+        if (mTrimManager != null && !mReleasingForTrim) {
+            mTrimManager.onImageChanged(this, getBitmap(drawable));
+        }
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        if (resId != 0) {
+            replacePlaceholder();
+        }
+        boolean deferred = beginDrawableSwap();
+        try {
+            super.setImageResource(resId);
+        } finally {
+            endDrawableSwap(deferred);
+        }
+    }
+
+    @Override
+    public void setImageURI(Uri uri) {
+        if (uri != null) {
+            replacePlaceholder();
+        }
+        boolean deferred = beginDrawableSwap();
+        try {
+            super.setImageURI(uri);
+        } finally {
+            endDrawableSwap(deferred);
+        }
+    }
+
+    private void replacePlaceholder() {
+        // The real image replaces the placeholder. Only the drawing changes, since the size of
+        // this view comes from its aspect ratio either way, and ImageView invalidates when the
+        // image is set.
+        mHasPlaceholder = false;
+        mPlaceholderBitmap = null;
+    }
+
+    @Override
+    public void requestLayout() {
+        // ImageView requests layouts from its constructor, before the delegate exists
+        if (mDelegate == null || mDelegate.onRequestLayout()) {
+            super.requestLayout();
+        }
+    }
+
+    /**
+     * Check whether the size of this view is locked by its aspect ratio. That is the case when
+     * the last measure pass resolved the size from the measure specs and aspect ratio alone and
+     * nothing has asked for a new layout since, so a new drawable can't change the size.
+     */
+    public boolean isSizeLockedByAspectRatio() {
+        // ImageView sets its drawable from its constructor, before the delegate exists
+        return mDelegate != null && mDelegate.isSizeLocked(mAspectRatioWidth, mAspectRatioHeight);
+    }
+
+    /**
+     * Get the number of drawable changes that only redrew this view instead of requesting the
+     * layout ImageView asks for when the size of the drawable changes
+     */
+    public int getAvoidedDrawableLayoutCount() {
+        return mDelegate.getMeasurer().getAvoidedDrawableLayoutCount();
+    }
+
+    /**
+     * Start holding back the layout requests ImageView makes while it swaps drawables, if the
+     * size of this view is locked by its aspect ratio
+     *
+     * @return true if layout requests are held back and {@link #endDrawableSwap(boolean)} must
+     *         decide what to do with them
+     */
+    private boolean beginDrawableSwap() {
+        return mDelegate != null && mDelegate.beginDrawableSwap(mAspectRatioWidth,
+                mAspectRatioHeight);
+    }
+
+    /**
+     * Stop holding back layout requests, letting one through only if the new drawable needs it
+     */
+    private void endDrawableSwap(boolean deferred) {
+        mDelegate.endDrawableSwap(deferred, mAspectRatioWidth, mAspectRatioHeight);
+    }
+
+    /**
+     * The part of this view that {@link AspectRatioViewDelegate} calls back into
+     */
+    private final class ViewHost implements AspectRatioViewDelegate.Host {
+        @Override
+        public boolean isLayoutRequested() {
+            return AspectRatioImageView.this.isLayoutRequested();
+        }
+
+        @Override
+        public void requestLayout() {
+            AspectRatioImageView.this.requestLayout();
+        }
+
+        @Override
+        public void invalidate() {
+            AspectRatioImageView.this.invalidate();
+        }
+
+        @Override
+        public long measureDrawable(int widthMeasureSpec, int heightMeasureSpec) {
+            AspectRatioImageView.super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            return Dimensions.pack(getMeasuredWidth(), getMeasuredHeight());
+        }
+
+        @Override
+        public void setMeasuredSize(int width, int height) {
+            setMeasuredDimension(width, height);
+        }
+
+        @Override
+        public int getDrawableWidth() {
+            Drawable drawable = getDrawable();
+            return drawable != null ? drawable.getIntrinsicWidth() : -1;
+        }
+
+        @Override
+        public int getDrawableHeight() {
+            Drawable drawable = getDrawable();
+            return drawable != null ? drawable.getIntrinsicHeight() : -1;
+        }
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        if (mHasPlaceholder && getDrawable() == null) {
+            mPlaceholderBounds.set(getPaddingLeft(), getPaddingTop(),
+                    getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+            if (mPlaceholderBitmap != null) {
+                Rect source = null;
+                if (mCropPlaceholder) {
+                    setCenterCropSource(mPlaceholderBitmap, mPlaceholderBounds,
+                            mPlaceholderSource);
+                    source = mPlaceholderSource;
+                }
+                canvas.drawBitmap(mPlaceholderBitmap, source, mPlaceholderBounds,
+                        mPlaceholderPaint);
+            } else {
+                canvas.drawRect(mPlaceholderBounds, mPlaceholderPaint);
+            }
+        }
+        super.onDraw(canvas);
+    }
+
+    /**
+     * Set the part of a bitmap that fills the bounds when scaled with the same factor in both
+     * directions
+     */
+    private static void setCenterCropSource(Bitmap bitmap, Rect bounds, Rect source) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        long boundsWidth = Math.max(bounds.width(), 1);
+        long boundsHeight = Math.max(bounds.height(), 1);
+
+        if (boundsWidth * height > boundsHeight * width) {
+            // The bounds are wider than the bitmap, so crop its top and bottom
+            int croppedHeight = (int) (width * boundsHeight / boundsWidth);
+            int top = (height - croppedHeight) / 2;
+            source.set(0, top, width, top + croppedHeight);
+        } else {
+            int croppedWidth = (int) (height * boundsWidth / boundsHeight);
+            int left = (width - croppedWidth) / 2;
+            source.set(left, 0, left + croppedWidth, height);
+        }
+    }
+
+    AspectRatioTwoStageLoad getTwoStageLoad() {
+        return mTwoStageLoad;
+    }
+
+    void setTwoStageLoad(AspectRatioTwoStageLoad load) {
+        mTwoStageLoad = load;
     }
 
     /**
@@ -235,7 +948,13 @@ public class AspectRatioImageView extends ImageView {
         Parcelable superState = super.onSaveInstanceState();
 
         SavedState state = new SavedState(superState);
-        state.aspectRatio = mAspectRatio;
+        state.aspectRatioWidth = mAspectRatioWidth;
+        state.aspectRatioHeight = mAspectRatioHeight;
+        System.arraycopy(mResolvedWidthSpecs, 0, state.widthMeasureSpecs, 0, ORIENTATION_COUNT);
+        System.arraycopy(mResolvedHeightSpecs, 0, state.heightMeasureSpecs, 0,
+                ORIENTATION_COUNT);
+        System.arraycopy(mResolvedAspectRatios, 0, state.aspectRatios, 0, ORIENTATION_COUNT);
+        System.arraycopy(mResolvedSizes, 0, state.sizes, 0, ORIENTATION_COUNT);
 
         return state;
     }
@@ -252,7 +971,16 @@ public class AspectRatioImageView extends ImageView {
         if (state instanceof SavedState) {
             SavedState savedState = (SavedState) state;
             super.onRestoreInstanceState(savedState.getSuperState());
-            mAspectRatio = savedState.aspectRatio;
+            mAspectRatioWidth = savedState.aspectRatioWidth;
+            mAspectRatioHeight = savedState.aspectRatioHeight;
+            System.arraycopy(savedState.widthMeasureSpecs, 0, mResolvedWidthSpecs, 0,
+                    ORIENTATION_COUNT);
+            System.arraycopy(savedState.heightMeasureSpecs, 0, mResolvedHeightSpecs, 0,
+                    ORIENTATION_COUNT);
+            System.arraycopy(savedState.aspectRatios, 0, mResolvedAspectRatios, 0,
+                    ORIENTATION_COUNT);
+            System.arraycopy(savedState.sizes, 0, mResolvedSizes, 0, ORIENTATION_COUNT);
+            mRestoredSizePending = true;
         } else {
             throw new IllegalArgumentException("Wrong state class, expecting SavedState but " +
                     "received " + state.getClass().toString() + " instead. This usually happens " +
@@ -262,9 +990,12 @@ public class AspectRatioImageView extends ImageView {
     }
 
     /**
-     * A class for managing the instance state of a {@link AspectRatioImageView}.
+     * A class for managing the instance state of a {@link AspectRatioImageView}. Besides the
+     * aspect ratio it holds the last size the view resolved in portrait and in landscape, with the
+     * measure specs and aspect ratio it was resolved from, so that the first measure pass after a
+     * restore or rotation can reuse it.
      */
-    static class SavedState extends Preference.BaseSavedState {
+    static class SavedState extends View.BaseSavedState {
         public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable
                 .Creator<SavedState>() {
             public SavedState createFromParcel(Parcel in) {
@@ -276,7 +1007,15 @@ public class AspectRatioImageView extends ImageView {
             }
         };
 
-        float aspectRatio;
+        int aspectRatioWidth;
+        int aspectRatioHeight;
+
+        // Indexed by orientation. A size of Dimensions.NONE means the view was never measured in
+        // that orientation.
+        final int[] widthMeasureSpecs = new int[ORIENTATION_COUNT];
+        final int[] heightMeasureSpecs = new int[ORIENTATION_COUNT];
+        final long[] aspectRatios = new long[ORIENTATION_COUNT];
+        final long[] sizes = {Dimensions.NONE, Dimensions.NONE};
 
         /**
          * Constructor used when reading from a parcel. Reads the state of the superclass.
@@ -286,7 +1025,12 @@ public class AspectRatioImageView extends ImageView {
         public SavedState(Parcel source) {
             super(source);
 
-            aspectRatio = source.readFloat();
+            aspectRatioWidth = source.readInt();
+            aspectRatioHeight = source.readInt();
+            source.readIntArray(widthMeasureSpecs);
+            source.readIntArray(heightMeasureSpecs);
+            source.readLongArray(aspectRatios);
+            source.readLongArray(sizes);
         }
 
         /**
@@ -301,7 +1045,12 @@ public class AspectRatioImageView extends ImageView {
         @Override
         public void writeToParcel(@NonNull Parcel out, int flags) {
             super.writeToParcel(out, flags);
-            out.writeFloat(aspectRatio);
+            out.writeInt(aspectRatioWidth);
+            out.writeInt(aspectRatioHeight);
+            out.writeIntArray(widthMeasureSpecs);
+            out.writeIntArray(heightMeasureSpecs);
+            out.writeLongArray(aspectRatios);
+            out.writeLongArray(sizes);
         }
     }
 }
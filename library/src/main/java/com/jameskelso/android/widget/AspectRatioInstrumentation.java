@@ -0,0 +1,234 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import com.jameskelso.android.widget.core.AspectRatioMeasurer;
+import com.jameskelso.android.widget.core.Dimensions;
+
+/**
+ * Optional counters and trace sections for the measure pass of {@link AspectRatioImageView}, so
+ * the layout time spent in these views can be tracked in production.
+ *
+ * Instrumentation is off by default. It is turned on by setting the system property
+ * {@value #PROPERTY} to {@code true} before the first {@link AspectRatioImageView} is created,
+ * for example with {@link System#setProperty(String, String)} in
+ * {@link android.app.Application#onCreate()}. The flag is read once into a static field, so when
+ * instrumentation is off the only cost is a check of that flag.
+ *
+ * The counters are updated on the main thread without synchronization. Take snapshots of them on
+ * the main thread too.
+ */
+public final class AspectRatioInstrumentation {
+    /**
+     * The system property that turns instrumentation on
+     */
+    public static final String PROPERTY = "com.jameskelso.android.widget.instrumentation";
+
+    /**
+     * Whether instrumentation is on
+     */
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    private static final boolean TRACE_ENABLED = ENABLED
+            && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private static final String MEASURE_SECTION = "AspectRatioImageView#onMeasure";
+
+    private static long sMeasureCount;
+    private static long sFastPathCount;
+    private static long sSlowPathCount;
+    private static long sMeasureTimeNanos;
+    private static long sRatioChangeCount;
+    private static long sSizeChangeCount;
+    private static long sRequestLayoutCount;
+
+    private static long sMeasureStartNanos;
+
+    private AspectRatioInstrumentation() {
+    }
+
+    /**
+     * An immutable copy of the counters at one point in time
+     */
+    public static final class Snapshot {
+        /**
+         * Number of calls to {@link AspectRatioImageView#onMeasure(int, int)}
+         */
+        public final long measureCount;
+
+        /**
+         * Number of measure passes resolved from the measure specs and aspect ratio alone
+         */
+        public final long fastPathCount;
+
+        /**
+         * Number of measure passes that had to let {@link android.widget.ImageView} measure first
+         */
+        public final long slowPathCount;
+
+        /**
+         * Total time spent in {@link AspectRatioImageView#onMeasure(int, int)}, in nanoseconds
+         */
+        public final long measureTimeNanos;
+
+        /**
+         * Number of calls to the aspect ratio setters that changed the aspect ratio
+         */
+        public final long ratioChangeCount;
+
+        /**
+         * Number of measure passes in which a new aspect ratio changed the size a view had
+         * resolved before
+         */
+        public final long sizeChangeCount;
+
+        /**
+         * Number of calls to {@link android.view.View#requestLayout()} made by the aspect ratio
+         * setters
+         */
+        public final long requestLayoutCount;
+
+        Snapshot(long measureCount, long fastPathCount, long slowPathCount, long measureTimeNanos,
+                 long ratioChangeCount, long sizeChangeCount, long requestLayoutCount) {
+            this.measureCount = measureCount;
+            this.fastPathCount = fastPathCount;
+            this.slowPathCount = slowPathCount;
+            this.measureTimeNanos = measureTimeNanos;
+            this.ratioChangeCount = ratioChangeCount;
+            this.sizeChangeCount = sizeChangeCount;
+            this.requestLayoutCount = requestLayoutCount;
+        }
+
+        @Override
+        public String toString() {
+            return "AspectRatioInstrumentation.Snapshot{"
+                    + "measureCount=" + measureCount
+                    + ", fastPathCount=" + fastPathCount
+                    + ", slowPathCount=" + slowPathCount
+                    + ", measureTimeNanos=" + measureTimeNanos
+                    + ", ratioChangeCount=" + ratioChangeCount
+                    + ", sizeChangeCount=" + sizeChangeCount
+                    + ", requestLayoutCount=" + requestLayoutCount
+                    + '}';
+        }
+    }
+
+    /**
+     * Take a snapshot of the counters. All of the counters are 0 when instrumentation is off.
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot(sMeasureCount, sFastPathCount, sSlowPathCount, sMeasureTimeNanos,
+                sRatioChangeCount, sSizeChangeCount, sRequestLayoutCount);
+    }
+
+    /**
+     * Reset every counter to 0, for example after sending a snapshot to a metrics backend
+     */
+    public static void reset() {
+        sMeasureCount = 0;
+        sFastPathCount = 0;
+        sSlowPathCount = 0;
+        sMeasureTimeNanos = 0;
+        sRatioChangeCount = 0;
+        sSizeChangeCount = 0;
+        sRequestLayoutCount = 0;
+    }
+
+    /**
+     * Called at the start of {@link AspectRatioImageView#onMeasure(int, int)} when instrumentation
+     * is on. Measure passes do not nest, so a single start time is enough.
+     */
+    static void beginMeasure() {
+        if (TRACE_ENABLED) {
+            beginSection();
+        }
+        sMeasureStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Called at the end of {@link AspectRatioImageView#onMeasure(int, int)} when instrumentation
+     * is on
+     *
+     * @param fastPath whether the size was resolved from the measure specs alone
+     * @param previousSize the size resolved by the last measure pass in the same orientation, or
+     *                     {@link com.jameskelso.android.widget.core.Dimensions#NONE} if there
+     *                     was none
+     * @param previousAspectRatio the aspect ratio the previous size was resolved with
+     * @param size the size resolved by this measure pass
+     * @param aspectRatio the aspect ratio this measure pass used
+     */
+    static void endMeasure(boolean fastPath, long previousSize, long previousAspectRatio,
+                           long size, long aspectRatio) {
+        sMeasureTimeNanos += System.nanoTime() - sMeasureStartNanos;
+        sMeasureCount++;
+        if (fastPath) {
+            sFastPathCount++;
+        } else {
+            sSlowPathCount++;
+        }
+
+        // Only a view that was measured before can change size
+        if (previousSize != Dimensions.NONE && previousSize != size
+                && previousAspectRatio != aspectRatio) {
+            sSizeChangeCount++;
+        }
+
+        if (TRACE_ENABLED) {
+            endSection();
+        }
+    }
+
+    /**
+     * Called by the aspect ratio setters when instrumentation is on
+     *
+     * @param result the result of {@link AspectRatioMeasurer#onAspectRatioChanged(long, long)}
+     */
+    static void onAspectRatioChanged(int result) {
+        if (result != AspectRatioMeasurer.RATIO_UNCHANGED) {
+            sRatioChangeCount++;
+        }
+    }
+
+    /**
+     * Called when an aspect ratio setter requests a layout and instrumentation is on
+     */
+    static void onRequestLayout() {
+        sRequestLayoutCount++;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection() {
+        Trace.beginSection(MEASURE_SECTION);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection() {
+        Trace.endSection();
+    }
+}
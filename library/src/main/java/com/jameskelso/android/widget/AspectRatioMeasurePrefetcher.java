@@ -0,0 +1,202 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import com.jameskelso.android.widget.core.AspectRatios;
+import com.jameskelso.android.widget.core.PrecomputedMeasure;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Builds {@link PrecomputedMeasure}s for the adapter positions that are about to be bound, so
+ * that binding an {@link AspectRatioImageView} does not have to look up its aspect ratio or
+ * measure it on the main thread.
+ *
+ * Call {@link #prefetch(int, int, int, int)} from the main thread, for example from a scroll
+ * listener. The work waits until the main thread is idle between frames and then runs on the
+ * executor, so it never competes with drawing a frame. Bind with {@link #get(int, int, int)} and
+ * {@link AspectRatioImageView#setPrecomputedMeasure(PrecomputedMeasure)}.
+ *
+ * The prefetcher keeps a fixed number of results, each in a slot chosen by its position, so
+ * results for positions that have scrolled far away are overwritten without any bookkeeping.
+ */
+public class AspectRatioMeasurePrefetcher {
+    /**
+     * Supplies the aspect ratios of adapter positions. It is called on the executor, so it must
+     * be safe to call from a background thread.
+     */
+    public interface AspectRatioProvider {
+        /**
+         * Get the aspect ratio of the image at an adapter position
+         *
+         * @param  position the adapter position
+         * @return the aspect ratio packed as returned by
+         *         {@link AspectRatios#calculateAspectRatio(int, int)}, or
+         *         {@link AspectRatios#NONE} if it is not known
+         */
+        long getAspectRatio(int position);
+    }
+
+    private final Executor mExecutor;
+    private final AspectRatioProvider mProvider;
+
+    // Results by position modulo the capacity, guarded by this
+    private final int[] mPositions;
+    private final PrecomputedMeasure[] mMeasures;
+
+    // Incremented by clear() so that work started before it does not store stale results
+    private int mGeneration;
+
+    /**
+     * Create a prefetcher
+     *
+     * @param executor the executor to build measures on
+     * @param provider supplies the aspect ratio of each position
+     * @param capacity the number of results to keep. It should be at least the number of
+     *                 positions prefetched at once plus the number of visible rows.
+     */
+    public AspectRatioMeasurePrefetcher(Executor executor, AspectRatioProvider provider,
+                                        int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+
+        mExecutor = executor;
+        mProvider = provider;
+        mPositions = new int[capacity];
+        mMeasures = new PrecomputedMeasure[capacity];
+        clearSlots();
+    }
+
+    /**
+     * Build measures for a range of positions once the main thread is idle. Positions that
+     * already have a result for the same measure specs are skipped. Must be called on a thread
+     * with a {@link Looper}, normally the main thread.
+     *
+     * @param firstPosition the first position to prefetch
+     * @param count the number of positions to prefetch
+     * @param widthMeasureSpec the width measure spec the views will be measured with
+     * @param heightMeasureSpec the height measure spec the views will be measured with
+     */
+    public void prefetch(final int firstPosition, final int count, final int widthMeasureSpec,
+                         final int heightMeasureSpec) {
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        final Runnable work = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    build(firstPosition + i, widthMeasureSpec, heightMeasureSpec, generation);
+                }
+            }
+        };
+
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                mExecutor.execute(work);
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Get the prefetched measure of a position
+     *
+     * @return the measure, or null if it has not been built yet or was built for other measure
+     *         specs
+     */
+    public synchronized PrecomputedMeasure get(int position, int widthMeasureSpec,
+                                               int heightMeasureSpec) {
+        int slot = slot(position);
+        PrecomputedMeasure measure = mMeasures[slot];
+        if (mPositions[slot] == position && measure != null
+                && measure.matchesSpecs(widthMeasureSpec, heightMeasureSpec)) {
+            return measure;
+        }
+        return null;
+    }
+
+    /**
+     * Drop every result, for example when the data set of the adapter changes. Work that is
+     * already running finishes but does not store its results.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        clearSlots();
+    }
+
+    private void build(int position, int widthMeasureSpec, int heightMeasureSpec,
+                       int generation) {
+        if (position < 0) {
+            return;
+        }
+
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return;
+            }
+            int slot = slot(position);
+            PrecomputedMeasure existing = mMeasures[slot];
+            if (mPositions[slot] == position && existing != null
+                    && existing.matchesSpecs(widthMeasureSpec, heightMeasureSpec)) {
+                return;
+            }
+        }
+
+        // Look the ratio up outside the lock, since the provider may be slow
+        long aspectRatio = mProvider.getAspectRatio(position);
+        if (!PrecomputedMeasure.canPrecompute(aspectRatio, widthMeasureSpec, heightMeasureSpec)) {
+            return;
+        }
+        PrecomputedMeasure measure = PrecomputedMeasure.create(aspectRatio, widthMeasureSpec,
+                heightMeasureSpec);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                int slot = slot(position);
+                mPositions[slot] = position;
+                mMeasures[slot] = measure;
+            }
+        }
+    }
+
+    private int slot(int position) {
+        return position % mPositions.length;
+    }
+
+    private void clearSlots() {
+        for (int i = 0; i < mPositions.length; i++) {
+            mPositions[i] = -1;
+            mMeasures[i] = null;
+        }
+    }
+}
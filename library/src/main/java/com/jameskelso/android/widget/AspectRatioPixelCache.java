@@ -0,0 +1,448 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import com.jameskelso.android.widget.core.AspectRatioMetadataCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A disk cache of decoded pixels. An {@link AspectRatioImageView} knows its size before the image
+ * arrives, so the same image is decoded to the same size every time it is shown in the same view.
+ * This cache stores the raw pixels of those downsampled bitmaps, keyed by the image key and the
+ * size it was decoded for. A hit copies the pixels from a memory mapped file straight into a
+ * bitmap, optionally from an {@link AspectRatioBitmapPool}, without decoding anything.
+ *
+ * Each entry is a file holding a small header followed by the pixels. Entries are written to a
+ * temporary file that is synced to disk and then renamed into place, so a crash or power loss
+ * never leaves a partial entry behind. The index is rebuilt from the entry files when the cache
+ * is opened, ordered by when each entry was last used, so it can't go out of sync with the
+ * directory. The cache holds at most a fixed number of bytes and evicts the least recently used
+ * entries first.
+ *
+ * The order of use is kept in memory, so a hit does not write to disk. It is saved to the
+ * modification times of the entry files by {@link #flush()}, which every put also does.
+ *
+ * Instances are thread safe, but a directory must only be used by one instance at a time.
+ */
+public class AspectRatioPixelCache {
+    private static final int MAGIC = 0x41525043;  // "ARPC"
+    private static final int VERSION = 1;
+
+    // Header: magic, version, width, height, config, pixel byte count
+    private static final int HEADER_SIZE = 24;
+
+    private static final String ENTRY_SUFFIX = ".px";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    // Entries by key hash, from least to most recently used
+    private final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<Long, Entry>(16, 0.75f,
+            true);
+    private long mCurrentBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Open a cache in a directory, creating the directory if it does not exist. Entries left by
+     * an earlier instance are kept, and incomplete entries are deleted.
+     *
+     * @param  directory the directory to store entries in. It should not be used for anything
+     *                   else.
+     * @param  maxBytes the maximum number of bytes of entries kept on disk
+     * @throws IOException if the directory could not be created
+     */
+    public AspectRatioPixelCache(@NonNull File directory, long maxBytes) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        readIndex();
+    }
+
+    private void readIndex() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long left = lhs.lastModified();
+                long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            Long keyHash = parseKeyHash(name);
+            if (keyHash == null || file.length() < HEADER_SIZE) {
+                // Left behind by a write that never finished, or not ours
+                if (name.endsWith(TEMP_SUFFIX) || name.endsWith(ENTRY_SUFFIX)) {
+                    file.delete();
+                }
+                continue;
+            }
+            mEntries.put(keyHash, new Entry(file.length()));
+            mCurrentBytes += file.length();
+        }
+
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Get the pixels of an image decoded for the measured size of a view, reusing a bitmap from
+     * the view's {@link AspectRatioBitmapPool} if it has one
+     *
+     * @param  key the URL or other unique key of the image
+     * @param  view the view the image will be displayed in. It must already have been measured.
+     * @param  config the config the image was decoded with
+     * @return a bitmap holding the cached pixels, or null if they are not in the cache
+     */
+    public Bitmap get(@NonNull String key, @NonNull AspectRatioImageView view,
+                      @NonNull Bitmap.Config config) {
+        AspectRatioBitmapDecoder.checkMeasured(view);
+        return get(key, view.getMeasuredWidth(), view.getMeasuredHeight(), config,
+                view.getBitmapPool());
+    }
+
+    /**
+     * Get the pixels of an image decoded for a target size
+     *
+     * @param  key the URL or other unique key of the image
+     * @param  targetWidth the width the image was decoded for
+     * @param  targetHeight the height the image was decoded for
+     * @param  config the config the image was decoded with
+     * @param  pool the pool to take the bitmap from, or null to allocate a new one
+     * @return a bitmap holding the cached pixels, or null if they are not in the cache
+     */
+    public Bitmap get(@NonNull String key, int targetWidth, int targetHeight,
+                      @NonNull Bitmap.Config config, AspectRatioBitmapPool pool) {
+        long keyHash = hash(key, targetWidth, targetHeight, config);
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(keyHash);
+            if (entry == null) {
+                mMissCount++;
+                return null;
+            }
+        }
+
+        File file = getEntryFile(keyHash);
+        Bitmap bitmap = null;
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    in.length());
+
+            int width = buffer.getInt(8);
+            int height = buffer.getInt(12);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(16) != config.ordinal()
+                    || buffer.getInt(20) != byteCount(width, height, config)
+                    || buffer.capacity() != HEADER_SIZE + buffer.getInt(20)) {
+                throw new IOException("Invalid cache entry " + file);
+            }
+
+            bitmap = pool != null
+                    ? pool.getOrCreate(width, height, config)
+                    : Bitmap.createBitmap(width, height, config);
+            buffer.position(HEADER_SIZE);
+            bitmap.copyPixelsFromBuffer(buffer);
+
+            synchronized (this) {
+                // Saved by the next flush, so that the order of use survives a restart
+                entry.mUsed = true;
+                mHitCount++;
+            }
+            return bitmap;
+        } catch (IOException e) {
+            if (bitmap != null && pool != null) {
+                pool.put(bitmap);
+            }
+            remove(keyHash);
+            synchronized (this) {
+                mMissCount++;
+            }
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the pixels of an image decoded for the measured size of a view
+     *
+     * @param  key the URL or other unique key of the image
+     * @param  view the view the image was decoded for. It must already have been measured.
+     * @param  bitmap the decoded image
+     * @return true if the pixels were stored
+     */
+    public boolean put(@NonNull String key, @NonNull AspectRatioImageView view,
+                       @NonNull Bitmap bitmap) {
+        AspectRatioBitmapDecoder.checkMeasured(view);
+        return put(key, view.getMeasuredWidth(), view.getMeasuredHeight(), bitmap);
+    }
+
+    /**
+     * Store the pixels of an image decoded for a target size. The bitmap may be larger than the
+     * target size, as it is when an image is decoded to cover the target.
+     *
+     * @param  key the URL or other unique key of the image
+     * @param  targetWidth the width the image was decoded for
+     * @param  targetHeight the height the image was decoded for
+     * @param  bitmap the decoded image
+     * @return true if the pixels were stored
+     */
+    public boolean put(@NonNull String key, int targetWidth, int targetHeight,
+                       @NonNull Bitmap bitmap) {
+        Bitmap.Config config = bitmap.getConfig();
+        if (config == null || bitmap.isRecycled()) {
+            return false;
+        }
+
+        int byteCount = byteCount(bitmap.getWidth(), bitmap.getHeight(), config);
+        long size = HEADER_SIZE + byteCount;
+        if (size > mMaxBytes || bitmap.getRowBytes() * bitmap.getHeight() != byteCount) {
+            return false;
+        }
+
+        long keyHash = hash(key, targetWidth, targetHeight, config);
+        File temp = new File(mDirectory, Long.toHexString(keyHash) + TEMP_SUFFIX);
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(temp, "rw");
+            out.setLength(size);
+            MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(config.ordinal());
+            buffer.putInt(byteCount);
+            bitmap.copyPixelsToBuffer(buffer);
+
+            // The pixels have to be on disk before the entry is renamed into place, or a power
+            // loss could leave a valid header in front of pixels that were never written
+            buffer.force();
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(getEntryFile(keyHash))) {
+                throw new IOException("Could not rename " + temp);
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            temp.delete();
+            return false;
+        }
+
+        synchronized (this) {
+            flush();
+            Entry previous = mEntries.put(keyHash, new Entry(size));
+            if (previous != null) {
+                mCurrentBytes -= previous.mSize;
+            }
+            mCurrentBytes += size;
+            trimToSize(mMaxBytes);
+        }
+        return true;
+    }
+
+    /**
+     * Save the order in which entries were last used, so that the least recently used entries
+     * are still evicted first after a restart. Only entries used since the last flush are
+     * written. Every put flushes, so this only needs to be called when the app is about to stop,
+     * for example from {@link android.app.Activity#onStop()}.
+     */
+    public synchronized void flush() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Entry> entry : mEntries.entrySet()) {
+            if (entry.getValue().mUsed) {
+                entry.getValue().mUsed = false;
+                getEntryFile(entry.getKey()).setLastModified(now);
+            }
+        }
+    }
+
+    /**
+     * Remove the pixels of an image decoded for a target size
+     */
+    public void remove(@NonNull String key, int targetWidth, int targetHeight,
+                       @NonNull Bitmap.Config config) {
+        remove(hash(key, targetWidth, targetHeight, config));
+    }
+
+    private synchronized void remove(long keyHash) {
+        Entry entry = mEntries.remove(keyHash);
+        if (entry != null) {
+            mCurrentBytes -= entry.mSize;
+            getEntryFile(keyHash).delete();
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache holds at most the given number of
+     * bytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Long, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Long, Entry> entry = iterator.next();
+            iterator.remove();
+            mCurrentBytes -= entry.getValue().mSize;
+            getEntryFile(entry.getKey()).delete();
+        }
+    }
+
+    /**
+     * Remove every entry from the cache
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Get the number of bytes of entries currently stored
+     */
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * Get the maximum number of bytes of entries kept on disk
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Get the number of entries currently stored
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Get the number of calls to get that returned cached pixels
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Get the number of calls to get that found nothing usable
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private File getEntryFile(long keyHash) {
+        return new File(mDirectory, Long.toHexString(keyHash) + ENTRY_SUFFIX);
+    }
+
+    private static Long parseKeyHash(String name) {
+        if (!name.endsWith(ENTRY_SUFFIX)) {
+            return null;
+        }
+        try {
+            return parseUnsignedHex(name.substring(0, name.length() - ENTRY_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseUnsignedHex(String hex) {
+        if (hex.isEmpty() || hex.length() > 16) {
+            throw new NumberFormatException(hex);
+        }
+        long value = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException(hex);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Hash an image key together with the size and config it was decoded for
+     */
+    static long hash(String key, int targetWidth, int targetHeight, Bitmap.Config config) {
+        return AspectRatioMetadataCache.hash(key + '\n' + targetWidth + 'x' + targetHeight + '\n'
+                + config.name());
+    }
+
+    private static int byteCount(int width, int height, Bitmap.Config config) {
+        return width * height * AspectRatioBitmapPool.bytesPerPixel(config);
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class Entry {
+        final long mSize;
+
+        // Whether the entry was used since the order of use was last saved
+        boolean mUsed;
+
+        Entry(long size) {
+            mSize = size;
+        }
+    }
+}
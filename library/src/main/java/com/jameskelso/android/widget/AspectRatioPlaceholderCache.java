@@ -0,0 +1,87 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import com.jameskelso.android.widget.core.BlurHash;
+
+/**
+ * A cache of the tiny bitmaps that BlurHash placeholders are decoded into, shared by every
+ * {@link AspectRatioImageView}. A feed that shows the same placeholder in many rows, or scrolls
+ * back to rows it has already shown, decodes each hash only once.
+ *
+ * Placeholders are decoded at {@value #DECODE_SIZE}x{@value #DECODE_SIZE} pixels, which is plenty
+ * for an image that is blurred anyway, and stored as {@link Bitmap.Config#RGB_565}.
+ */
+public final class AspectRatioPlaceholderCache {
+    /**
+     * The width and height placeholders are decoded at
+     */
+    public static final int DECODE_SIZE = 32;
+
+    private static final int MAX_BYTES = 512 * 1024;
+
+    private static final LruCache<String, Bitmap> sBitmaps =
+            new LruCache<String, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    };
+
+    // Reused for every decode, guarded by the class lock
+    private static final int[] sPixels = new int[DECODE_SIZE * DECODE_SIZE];
+
+    private AspectRatioPlaceholderCache() {
+    }
+
+    /**
+     * Get the placeholder bitmap for a BlurHash, decoding it if it is not in the cache yet
+     *
+     * @throws IllegalArgumentException if the hash is not valid
+     */
+    public static Bitmap getBlurHashBitmap(String hash) {
+        Bitmap bitmap = sBitmaps.get(hash);
+        if (bitmap == null) {
+            bitmap = decode(hash);
+            sBitmaps.put(hash, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Remove every placeholder from the cache
+     */
+    public static void clear() {
+        sBitmaps.evictAll();
+    }
+
+    private static synchronized Bitmap decode(String hash) {
+        BlurHash.decode(hash, DECODE_SIZE, DECODE_SIZE, sPixels);
+        return Bitmap.createBitmap(sPixels, DECODE_SIZE, DECODE_SIZE, Bitmap.Config.RGB_565);
+    }
+}
@@ -0,0 +1,382 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.jameskelso.android.widget.core.Dimensions;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * A map from item ids to the original dimensions of their images, for binding
+ * {@link AspectRatioImageView}s in long feeds by item id.
+ *
+ * The map uses open addressing over two parallel {@code long} arrays, so entries are never boxed
+ * and each one costs a fixed 16 bytes of table space, sized for a load factor of at most 3/4.
+ * Lookups do not allocate. Dimensions can be added one at a time or streamed in bulk from a
+ * binary or JSON manifest.
+ *
+ * Instances are not thread safe. A registry can be filled on a background thread and then handed
+ * to the main thread as long as it is published safely.
+ */
+public class AspectRatioRegistry {
+    private static final int MIN_CAPACITY = 16;
+
+    // Records in a binary manifest are a long id, an int width and an int height
+    private static final int RECORD_SIZE = 16;
+    private static final int RECORDS_PER_READ = 256;
+
+    // Empty slots hold a value of 0, which is never a valid pair of dimensions
+    private static final long EMPTY = 0L;
+
+    private long[] mKeys;
+    private long[] mValues;
+    private int mMask;
+    private int mSize;
+
+    /**
+     * Create an empty registry
+     */
+    public AspectRatioRegistry() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create an empty registry that can hold a number of entries without growing
+     *
+     * @param expectedSize the number of entries the registry is expected to hold
+     */
+    public AspectRatioRegistry(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Store the original dimensions of the image of an item
+     *
+     * @param id the id of the item
+     * @param width the original width of the image
+     * @param height the original height of the image
+     */
+    public void put(long id, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive: " + width + "x"
+                    + height);
+        }
+
+        ensureCapacity(mSize + 1);
+
+        int slot = slot(id);
+        while (mValues[slot] != EMPTY) {
+            if (mKeys[slot] == id) {
+                mValues[slot] = Dimensions.pack(width, height);
+                return;
+            }
+            slot = (slot + 1) & mMask;
+        }
+
+        mKeys[slot] = id;
+        mValues[slot] = Dimensions.pack(width, height);
+        mSize++;
+    }
+
+    /**
+     * Look up the original dimensions of the image of an item
+     *
+     * @param  id the id of the item
+     * @return the width and height of the image packed with
+     *         {@link Dimensions#pack(int, int)}, or {@link Dimensions#NONE} if the item is not in
+     *         the registry
+     */
+    public long get(long id) {
+        int slot = find(id);
+        return slot < 0 ? Dimensions.NONE : mValues[slot];
+    }
+
+    /**
+     * Check whether the registry holds the dimensions of an item
+     */
+    public boolean contains(long id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Remove the dimensions of an item
+     *
+     * @param  id the id of the item
+     * @return true if the item was in the registry
+     */
+    public boolean remove(long id) {
+        int slot = find(id);
+        if (slot < 0) {
+            return false;
+        }
+
+        // Shift later entries of the same probe sequence back so that no lookup stops early at
+        // the hole left behind
+        int hole = slot;
+        int next = (hole + 1) & mMask;
+        while (mValues[next] != EMPTY) {
+            int home = slot(mKeys[next]);
+            boolean canMove = hole <= next
+                    ? home <= hole || home > next
+                    : home <= hole && home > next;
+            if (canMove) {
+                mKeys[hole] = mKeys[next];
+                mValues[hole] = mValues[next];
+                hole = next;
+            }
+            next = (next + 1) & mMask;
+        }
+
+        mValues[hole] = EMPTY;
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Get the number of items in the registry
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Remove every item from the registry
+     */
+    public void clear() {
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = EMPTY;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Grow the table so that it can hold a number of entries without growing again
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (expectedSize * 4L > mValues.length * 3L) {
+            rehash(capacityFor(expectedSize));
+        }
+    }
+
+    /**
+     * Read dimensions from a binary manifest. The manifest starts with the number of entries as a
+     * big endian int, followed by that many records of a big endian long id, int width and int
+     * height. Records with dimensions that are not positive are ignored, as in
+     * {@link #readJson(Reader)}.
+     *
+     * Nothing past the last record is read, so the manifest can be followed by other data in the
+     * same stream.
+     *
+     * @param  in the manifest. The stream is not closed.
+     * @return the number of entries read
+     * @throws IOException if the manifest could not be read or ends early
+     */
+    public int readBinary(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid entry count: " + count);
+        }
+
+        // Read whole records at a time rather than buffering the stream, which would read ahead
+        byte[] buffer = new byte[Math.min(count, RECORDS_PER_READ) * RECORD_SIZE];
+        int read = 0;
+        int remaining = count;
+        while (remaining > 0) {
+            int records = Math.min(remaining, RECORDS_PER_READ);
+            ensureCapacity(mSize + records);
+            data.readFully(buffer, 0, records * RECORD_SIZE);
+            for (int offset = 0; offset < records * RECORD_SIZE; offset += RECORD_SIZE) {
+                long id = ((long) readInt(buffer, offset) << 32)
+                        | (readInt(buffer, offset + 4) & 0xffffffffL);
+                int width = readInt(buffer, offset + 8);
+                int height = readInt(buffer, offset + 12);
+                if (width > 0 && height > 0) {
+                    put(id, width, height);
+                    read++;
+                }
+            }
+            remaining -= records;
+        }
+        return read;
+    }
+
+    /**
+     * Read dimensions from a JSON manifest, which is an array of objects with numeric
+     * {@code "id"}, {@code "width"} and {@code "height"} members. Other members are ignored, as
+     * are objects missing any of the three or with dimensions that are not positive.
+     *
+     * The manifest is streamed with {@link JsonReader}. Before Honeycomb, which added it, the
+     * whole manifest is read into memory and parsed with {@link JSONArray} instead.
+     *
+     * @param  in the manifest. The reader is not closed.
+     * @return the number of entries read
+     * @throws IOException if the manifest could not be read or is not valid JSON
+     */
+    public int readJson(Reader in) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return readJsonCompat(in);
+        }
+        return readJsonStream(in);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int readJsonStream(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        int count = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long id = 0;
+            int width = 0;
+            int height = 0;
+            boolean hasId = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() != JsonToken.NUMBER) {
+                    reader.skipValue();
+                } else if ("id".equals(name)) {
+                    id = reader.nextLong();
+                    hasId = true;
+                } else if ("width".equals(name)) {
+                    width = reader.nextInt();
+                } else if ("height".equals(name)) {
+                    height = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (hasId && width > 0 && height > 0) {
+                put(id, width, height);
+                count++;
+            }
+        }
+        reader.endArray();
+
+        return count;
+    }
+
+    /**
+     * Read a JSON manifest with the org.json classes, which every version has
+     */
+    int readJsonCompat(Reader in) throws IOException {
+        StringBuilder json = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            json.append(buffer, 0, read);
+        }
+
+        try {
+            JSONArray array = new JSONArray(json.toString());
+            int count = 0;
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject entry = array.getJSONObject(i);
+                Object id = entry.opt("id");
+                Object width = entry.opt("width");
+                Object height = entry.opt("height");
+                if (id instanceof Number && width instanceof Number && height instanceof Number
+                        && ((Number) width).intValue() > 0 && ((Number) height).intValue() > 0) {
+                    put(((Number) id).longValue(), ((Number) width).intValue(),
+                            ((Number) height).intValue());
+                    count++;
+                }
+            }
+            return count;
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON manifest", e);
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    private int find(long id) {
+        int slot = slot(id);
+        while (mValues[slot] != EMPTY) {
+            if (mKeys[slot] == id) {
+                return slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return -1;
+    }
+
+    private int slot(long id) {
+        // Spread the bits of the id, since ids are often sequential
+        long mixed = id * 0x9e3779b97f4a7c15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mMask;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        long[] values = mValues;
+
+        allocate(capacity);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != EMPTY) {
+                int slot = slot(keys[i]);
+                while (mValues[slot] != EMPTY) {
+                    slot = (slot + 1) & mMask;
+                }
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new long[capacity];
+        mMask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // Smallest power of two that keeps the load factor at or below 3/4
+        long minimum = Math.max(MIN_CAPACITY, (expectedSize * 4L + 2) / 3);
+        if (minimum > 1 << 30) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) minimum - 1) << 1;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Releases the bitmaps of {@link AspectRatioImageView}s that are not on screen when memory runs
+ * low, and asks for them to be loaded again when the views come back. An
+ * {@link AspectRatioImageView} keeps its size without a drawable, so dropping its bitmap never
+ * changes the layout. Apps can keep many more screens in the back stack this way.
+ *
+ * A single manager is shared by every view in the app, set with
+ * {@link AspectRatioImageView#setTrimManager(AspectRatioTrimManager)}. It tracks the bitmaps set
+ * on those views with {@link AspectRatioImageView#setImageBitmap(Bitmap)} or as a
+ * {@link android.graphics.drawable.BitmapDrawable}, and keeps them within an app-wide byte
+ * budget by releasing the least recently shown bitmaps of views that are detached or in a hidden
+ * window. Bitmaps of views on screen are never released.
+ *
+ * {@link #register(Context)} connects the manager to
+ * {@link ComponentCallbacks2#onTrimMemory(int)} on {@link Build.VERSION_CODES#ICE_CREAM_SANDWICH}
+ * and above. On older releases forward {@link android.app.Activity#onLowMemory()} to
+ * {@link #onLowMemory()}.
+ *
+ * All methods must be called on the main thread.
+ */
+public class AspectRatioTrimManager {
+    /**
+     * Interface definition for a callback to be invoked when a view whose bitmap was released is
+     * shown again
+     */
+    public interface OnReloadListener {
+        /**
+         * Called when a view whose bitmap was released is shown again. Load the image into the
+         * view as usual, for example from the URL kept in its tag. The view keeps its size while
+         * the image loads.
+         *
+         * @param view the view to load the image into
+         */
+        void onReload(AspectRatioImageView view);
+    }
+
+    /**
+     * The state of a single tracked view
+     */
+    static final class Entry {
+        final WeakReference<AspectRatioImageView> view;
+        int bytes;
+        boolean visible;
+        boolean released;
+
+        Entry(AspectRatioImageView view) {
+            this.view = new WeakReference<AspectRatioImageView>(view);
+        }
+    }
+
+    private final int mMaxBytes;
+    private final OnReloadListener mOnReloadListener;
+
+    // Tracked views ordered from least to most recently shown
+    private final LinkedHashSet<Entry> mEntries = new LinkedHashSet<Entry>();
+    private int mCurrentBytes;
+    private int mReleaseCount;
+
+    /**
+     * Create a trim manager
+     *
+     * @param maxBytes the number of bytes of bitmaps all tracked views may hold before bitmaps of
+     *                 views that are not on screen are released
+     * @param listener called to load the images of views that were released and are shown again
+     */
+    public AspectRatioTrimManager(int maxBytes, OnReloadListener listener) {
+        mMaxBytes = maxBytes;
+        mOnReloadListener = listener;
+    }
+
+    /**
+     * Start releasing bitmaps when the system asks the app to trim its memory
+     *
+     * @param context any context of the app
+     */
+    public void register(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            TrimCallbacks.register(context.getApplicationContext(), this);
+        }
+    }
+
+    /**
+     * Release bitmaps according to a trim level from {@link ComponentCallbacks2}. Moderate
+     * pressure halves the bitmaps held by views that are not on screen, and anything more
+     * releases all of them.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(Math.min(mCurrentBytes, mMaxBytes) / 2);
+        }
+    }
+
+    /**
+     * Release the bitmaps of every view that is not on screen
+     */
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    /**
+     * Get the number of bytes of bitmaps held by tracked views
+     */
+    public int getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * Get the maximum number of bytes of bitmaps held by tracked views that are not on screen
+     */
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Get the number of bitmaps released so far
+     */
+    public int getReleaseCount() {
+        return mReleaseCount;
+    }
+
+    /**
+     * Called by a view when its image changes
+     */
+    void onImageChanged(AspectRatioImageView view, Bitmap bitmap) {
+        Entry entry = view.getTrimEntry();
+        if (entry == null) {
+            if (bitmap == null) {
+                return;
+            }
+            entry = new Entry(view);
+            entry.visible = view.isOnScreen();
+            view.setTrimEntry(entry);
+        }
+
+        int bytes = bitmap == null ? 0 : AspectRatioBitmapPool.getAllocationByteCount(bitmap);
+        mCurrentBytes += bytes - entry.bytes;
+        entry.bytes = bytes;
+        entry.released = false;
+
+        // Move the entry to the most recently shown end
+        mEntries.remove(entry);
+        mEntries.add(entry);
+
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Called by a view when it is attached, detached, or its window is shown or hidden
+     */
+    void onVisibilityChanged(AspectRatioImageView view, boolean visible) {
+        Entry entry = view.getTrimEntry();
+        if (entry == null || entry.visible == visible) {
+            return;
+        }
+
+        entry.visible = visible;
+        if (!visible) {
+            trimToSize(mMaxBytes);
+        } else if (entry.released) {
+            entry.released = false;
+            if (mOnReloadListener != null) {
+                mOnReloadListener.onReload(view);
+            }
+        }
+    }
+
+    /**
+     * Called by a view when it stops using this manager
+     */
+    void remove(AspectRatioImageView view) {
+        Entry entry = view.getTrimEntry();
+        if (entry != null) {
+            mEntries.remove(entry);
+            mCurrentBytes -= entry.bytes;
+            view.setTrimEntry(null);
+        }
+    }
+
+    /**
+     * Release the bitmaps of the least recently shown views that are not on screen until the
+     * tracked bitmaps fit in a number of bytes, or only bitmaps on screen are left
+     */
+    private void trimToSize(int maxBytes) {
+        Iterator<Entry> iterator = mEntries.iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            AspectRatioImageView view = entry.view.get();
+
+            if (view == null) {
+                // The view was garbage collected along with its bitmap
+                mCurrentBytes -= entry.bytes;
+                iterator.remove();
+            } else if (!entry.visible && entry.bytes > 0) {
+                mCurrentBytes -= entry.bytes;
+                entry.bytes = 0;
+                entry.released = true;
+                iterator.remove();
+                mReleaseCount++;
+                view.releaseBitmapForTrim();
+            }
+        }
+    }
+
+    /**
+     * Forwards trim callbacks to a manager. Kept in its own class so that
+     * {@link ComponentCallbacks2} is only loaded on releases that have it.
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static final class TrimCallbacks implements ComponentCallbacks2 {
+        private final AspectRatioTrimManager mManager;
+
+        private TrimCallbacks(AspectRatioTrimManager manager) {
+            mManager = manager;
+        }
+
+        static void register(Context context, AspectRatioTrimManager manager) {
+            context.registerComponentCallbacks(new TrimCallbacks(manager));
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            mManager.onTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            mManager.onLowMemory();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    }
+}
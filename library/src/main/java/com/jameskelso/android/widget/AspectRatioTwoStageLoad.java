@@ -0,0 +1,213 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.jameskelso.android.widget.core.ProgressiveJpegScanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+
+/**
+ * Loads an image into an {@link AspectRatioImageView} in stages. Because the view has its final
+ * size before any pixels arrive, a small thumbnail can be shown first and replaced with the full
+ * image without any change to the layout.
+ *
+ * Start the thumbnail and full image requests together and pass their results to
+ * {@link #deliverThumbnail(Bitmap)} and {@link #deliverFullImage(Bitmap)}. Each stage is only
+ * shown if nothing better has been shown yet, so a thumbnail that arrives after the full image is
+ * dropped. When the full image is a progressive JPEG, pass its bytes to
+ * {@link #deliverFullImageBytes(byte[], int)} as they stream in to show a preview after each
+ * complete scan.
+ *
+ * Thumbnails and previews are drawn as the placeholder of the view, scaled into its frame without
+ * a drawable or a scaled copy. The full image replaces them as the drawable of the view. Results
+ * may be delivered from any thread. Creating a new load for a view cancels its previous one, so
+ * results of a recycled row's old image are never shown. The placeholder is only drawn while the
+ * view has no drawable, so clear the old image of a recycled view before starting a new load.
+ */
+public class AspectRatioTwoStageLoad {
+    private static final int STAGE_NONE = 0;
+    private static final int STAGE_THUMBNAIL = 1;
+    private static final int STAGE_FULL_IMAGE = Integer.MAX_VALUE;
+
+    // Appended to a preview so the decoder sees a complete image
+    private static final byte[] END_OF_IMAGE = {(byte) 0xFF, (byte) 0xD9};
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final AspectRatioImageView mView;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+
+    // Only used by the thread delivering the bytes of the full image
+    private final ProgressiveJpegScanner mScanner = new ProgressiveJpegScanner();
+
+    private volatile boolean mCancelled;
+
+    // The best stage shown so far. Only used on the main thread.
+    private int mShownStage = STAGE_NONE;
+
+    /**
+     * Start a load into a view that has already been measured. Must be called on the main
+     * thread.
+     *
+     * @param view the view to load the image into
+     */
+    public AspectRatioTwoStageLoad(@NonNull AspectRatioImageView view) {
+        this(checkMeasured(view), view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+
+    private static AspectRatioImageView checkMeasured(AspectRatioImageView view) {
+        AspectRatioBitmapDecoder.checkMeasured(view);
+        return view;
+    }
+
+    /**
+     * Start a load into a view. Must be called on the main thread.
+     *
+     * @param view the view to load the image into
+     * @param targetWidth the width previews of a progressive JPEG are decoded to cover
+     * @param targetHeight the height previews of a progressive JPEG are decoded to cover
+     */
+    public AspectRatioTwoStageLoad(@NonNull AspectRatioImageView view, int targetWidth,
+                                   int targetHeight) {
+        mView = view;
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+
+        AspectRatioTwoStageLoad previous = view.getTwoStageLoad();
+        if (previous != null) {
+            previous.cancel();
+        }
+        view.setTwoStageLoad(this);
+    }
+
+    /**
+     * Show the thumbnail, unless a preview or the full image is already shown
+     *
+     * @param thumbnail a small version of the image
+     */
+    public void deliverThumbnail(@NonNull Bitmap thumbnail) {
+        deliver(STAGE_THUMBNAIL, thumbnail);
+    }
+
+    /**
+     * Show the full image. This completes the load.
+     *
+     * @param image the full image, normally decoded to the size of the view
+     */
+    public void deliverFullImage(@NonNull Bitmap image) {
+        deliver(STAGE_FULL_IMAGE, image);
+    }
+
+    /**
+     * Pass the bytes of the full image received so far. When they complete another scan of a
+     * progressive JPEG, the scans received so far are decoded to the target size and shown as a
+     * preview. Call this from the thread that receives the image, never the main thread, since it
+     * may decode.
+     *
+     * @param  data the bytes of the image received so far. Bytes that were already passed in must
+     *              not change.
+     * @param  length the number of bytes received so far
+     * @return true if a preview was decoded and will be shown
+     */
+    public boolean deliverFullImageBytes(@NonNull byte[] data, int length) {
+        if (mCancelled || !mScanner.scan(data, length) || !mScanner.isProgressive()
+                || mScanner.isComplete() || mTargetWidth <= 0 || mTargetHeight <= 0) {
+            // The complete image is decoded by the caller and passed to deliverFullImage
+            return false;
+        }
+
+        Bitmap preview;
+        try {
+            preview = AspectRatioBitmapDecoder.decodeStream(new SequenceInputStream(
+                    new ByteArrayInputStream(data, 0, mScanner.getCompleteScansEnd()),
+                    new ByteArrayInputStream(END_OF_IMAGE)), mTargetWidth, mTargetHeight);
+        } catch (IOException e) {
+            return false;
+        }
+        if (preview == null) {
+            return false;
+        }
+
+        // Later scans rank above earlier ones and the thumbnail
+        deliver(STAGE_THUMBNAIL + mScanner.getCompleteScanCount(), preview);
+        return true;
+    }
+
+    /**
+     * Stop showing results of this load. Results delivered afterwards are dropped.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Check whether the load was cancelled, either directly or by a newer load into the same view
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void deliver(final int stage, final Bitmap bitmap) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            show(stage, bitmap);
+        } else {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    show(stage, bitmap);
+                }
+            });
+        }
+    }
+
+    private void show(int stage, Bitmap bitmap) {
+        if (mCancelled || stage <= mShownStage) {
+            return;
+        }
+        mShownStage = stage;
+
+        if (stage == STAGE_FULL_IMAGE) {
+            mView.setImageBitmap(bitmap);
+            mView.setTwoStageLoad(null);
+        } else {
+            mView.setPlaceholderBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Check whether the full image has been shown
+     */
+    public boolean isFullImageShown() {
+        return mShownStage == STAGE_FULL_IMAGE;
+    }
+}
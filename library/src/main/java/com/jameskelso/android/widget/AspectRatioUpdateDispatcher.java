@@ -0,0 +1,135 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Applies aspect ratios published from any thread with
+ * {@link AspectRatioImageView#postAspectRatio(float)} and
+ * {@link AspectRatioImageView#postOriginalImageWidthAndHeight(int, int)} on the main thread.
+ *
+ * The first view published after an apply schedules the next one. Every view published until
+ * then is applied in the same pass just before the next frame is laid out, so a page of
+ * dimensions arriving from a background thread costs a single layout instead of one per view.
+ */
+final class AspectRatioUpdateDispatcher implements Runnable {
+    private static AspectRatioUpdateDispatcher sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentLinkedQueue<AspectRatioImageView> mPendingViews =
+            new ConcurrentLinkedQueue<AspectRatioImageView>();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    // Created on the main thread the first time it is needed, on Jelly Bean and above only
+    private FrameCallback mFrameCallback;
+
+    private volatile int mApplyCount;
+
+    static synchronized AspectRatioUpdateDispatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new AspectRatioUpdateDispatcher();
+        }
+        return sInstance;
+    }
+
+    private AspectRatioUpdateDispatcher() {
+    }
+
+    /**
+     * Queue a view whose pending aspect ratio must be applied. Safe to call from any thread. A
+     * view must only be queued when it has no pending aspect ratio yet so that it is queued once.
+     */
+    void enqueue(AspectRatioImageView view) {
+        mPendingViews.add(view);
+        if (mScheduled.compareAndSet(false, true)) {
+            mHandler.post(this);
+        }
+    }
+
+    /**
+     * Runs on the main thread once after the first view is queued. Waiting for the next frame
+     * lets every view published until then join the same pass.
+     */
+    @Override
+    public void run() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            applyPendingAspectRatios();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new FrameCallback(this);
+        }
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * Apply the pending aspect ratio of every queued view. Must be called on the main thread.
+     */
+    void applyPendingAspectRatios() {
+        // Clear the flag first so that a view queued while we drain schedules another pass
+        // instead of being missed
+        mScheduled.set(false);
+        mApplyCount++;
+
+        AspectRatioImageView view;
+        while ((view = mPendingViews.poll()) != null) {
+            view.applyPendingAspectRatio();
+        }
+    }
+
+    /**
+     * Get the number of passes that applied pending aspect ratios
+     */
+    int getApplyCount() {
+        return mApplyCount;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCallback implements Choreographer.FrameCallback {
+        private final AspectRatioUpdateDispatcher mDispatcher;
+
+        FrameCallback(AspectRatioUpdateDispatcher dispatcher) {
+            mDispatcher = dispatcher;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mDispatcher.applyPendingAspectRatios();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.jameskelso.android.widget.core.AspectRatios;
+import com.jameskelso.android.widget.core.Dimensions;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * A pool of views inflated ahead of time from a layout that contains {@link AspectRatioImageView}s.
+ * Inflating a row on the main thread while flinging into new content is one of the largest
+ * causes of dropped frames, so the pool inflates rows on a background executor and hands them out
+ * ready to bind.
+ *
+ * The aspect ratio attributes of each {@link AspectRatioImageView} in the layout are resolved
+ * with the first inflation and reused for every later one, so only ImageView's own attributes are
+ * resolved for each new view. {@link AspectRatioImageView}s in the layout are matched by their
+ * order in the layout. Subclasses are inflated as usual.
+ *
+ * Views are inflated off the main thread without a parent window, so the layout must not contain
+ * views that need a {@link android.os.Looper} when they are created. The pool holds at most a
+ * fixed number of views and evicts the oldest first.
+ */
+public class AspectRatioViewPool {
+    private final Context mContext;
+    private final int mLayoutResId;
+    private final ViewGroup mParent;
+    private final int mMaxSize;
+    private final Executor mExecutor;
+
+    // Inflated views from oldest to newest, guarded by this
+    private final ArrayDeque<View> mViews = new ArrayDeque<View>();
+    private int mPendingCount;
+
+    // Packed aspect ratio of each AspectRatioImageView in the layout by order of appearance, or
+    // Dimensions.NONE until it has been resolved. Guarded by this.
+    private long[] mCachedRatios = new long[0];
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * Create a pool
+     *
+     * @param context the context to inflate views with, normally the activity
+     * @param layoutResId the layout to inflate
+     * @param parent the view the inflated views will be added to, used to generate their layout
+     *               params. It is only read, never modified, so it may be used from the executor.
+     * @param maxSize the maximum number of views held by the pool
+     * @param executor the executor to inflate views on
+     */
+    public AspectRatioViewPool(@NonNull Context context, int layoutResId, ViewGroup parent,
+                               int maxSize, @NonNull Executor executor) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+
+        mContext = context;
+        mLayoutResId = layoutResId;
+        mParent = parent;
+        mMaxSize = maxSize;
+        mExecutor = executor;
+    }
+
+    /**
+     * Inflate views on the executor until the pool holds the given number of views, counting
+     * views that are already being inflated. The count is capped at the maximum size of the pool.
+     *
+     * @param count the number of views the pool should hold
+     */
+    public void prefetch(int count) {
+        int toInflate;
+        synchronized (this) {
+            toInflate = Math.min(count, mMaxSize) - mViews.size() - mPendingCount;
+            if (toInflate <= 0) {
+                return;
+            }
+            mPendingCount += toInflate;
+        }
+
+        for (int i = 0; i < toInflate; i++) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    View view = null;
+                    try {
+                        view = inflate();
+                    } finally {
+                        onInflated(view);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void onInflated(View view) {
+        mPendingCount--;
+        if (view != null) {
+            addView(view);
+        }
+    }
+
+    /**
+     * Get a view from the pool, or inflate one on the calling thread if the pool is empty. Views
+     * come out in the order they were inflated.
+     *
+     * @return a view inflated from the layout of this pool, without a parent
+     */
+    public View acquire() {
+        synchronized (this) {
+            View view = mViews.pollFirst();
+            if (view != null) {
+                mHitCount++;
+                return view;
+            }
+            mMissCount++;
+        }
+
+        return inflate();
+    }
+
+    /**
+     * Give back a view that was acquired but not used so that it can be handed out again. The
+     * view must not have a parent. If the pool is full its oldest view is evicted.
+     */
+    public synchronized void release(@NonNull View view) {
+        if (view.getParent() != null) {
+            throw new IllegalArgumentException("The view must not have a parent");
+        }
+        addView(view);
+    }
+
+    private void addView(View view) {
+        mViews.addLast(view);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Evict the oldest views until the pool holds at most the given number of views
+     */
+    public synchronized void trimToSize(int maxSize) {
+        while (mViews.size() > maxSize) {
+            mViews.pollFirst();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Evict every view from the pool
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Get the number of views currently held by the pool
+     */
+    public synchronized int size() {
+        return mViews.size();
+    }
+
+    /**
+     * Get the maximum number of views held by the pool
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Get the number of calls to {@link #acquire()} that returned an inflated view from the pool
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Get the number of calls to {@link #acquire()} that had to inflate a view
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Get the number of views evicted from the pool
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Inflate the layout of this pool. Each call uses its own inflater, so inflations on the
+     * executor and on the main thread can run at the same time.
+     */
+    View inflate() {
+        LayoutInflater inflater = LayoutInflater.from(mContext).cloneInContext(mContext);
+        CachingFactory factory = new CachingFactory();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            setFactory2(inflater, factory);
+        } else {
+            inflater.setFactory(factory);
+        }
+        return inflater.inflate(mLayoutResId, mParent, false);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void setFactory2(LayoutInflater inflater, final CachingFactory factory) {
+        // Factories set on the original inflater, such as the one installed by AppCompat, are
+        // asked only when this one does not create the view
+        inflater.setFactory2(new LayoutInflater.Factory2() {
+            @Override
+            public View onCreateView(View parent, String name, Context context,
+                                     AttributeSet attrs) {
+                return factory.onCreateView(name, context, attrs);
+            }
+
+            @Override
+            public View onCreateView(String name, Context context, AttributeSet attrs) {
+                return factory.onCreateView(name, context, attrs);
+            }
+        });
+    }
+
+    private synchronized long getCachedRatio(int index) {
+        return index < mCachedRatios.length ? mCachedRatios[index] : Dimensions.NONE;
+    }
+
+    private synchronized void putCachedRatio(int index, long aspectRatio) {
+        if (index >= mCachedRatios.length) {
+            int oldLength = mCachedRatios.length;
+            mCachedRatios = Arrays.copyOf(mCachedRatios, index + 1);
+            Arrays.fill(mCachedRatios, oldLength, index, Dimensions.NONE);
+        }
+        mCachedRatios[index] = aspectRatio;
+    }
+
+    /**
+     * Creates the {@link AspectRatioImageView}s of a single inflation, applying the cached aspect
+     * ratio instead of resolving the attributes again
+     */
+    private class CachingFactory implements LayoutInflater.Factory {
+        private int mIndex;
+
+        @Override
+        public View onCreateView(String name, Context context, AttributeSet attrs) {
+            if (!AspectRatioImageView.class.getName().equals(name)) {
+                return null;
+            }
+
+            int index = mIndex++;
+            long aspectRatio = getCachedRatio(index);
+            if (aspectRatio != Dimensions.NONE) {
+                return new AspectRatioImageView(context, attrs, aspectRatio);
+            }
+
+            AspectRatioImageView view = new AspectRatioImageView(context, attrs);
+            aspectRatio = view.getAspectRatioWidth() > 0
+                    ? Dimensions.pack(view.getAspectRatioWidth(), view.getAspectRatioHeight())
+                    : AspectRatios.NONE;
+            putCachedRatio(index, aspectRatio);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * The measurement logic behind {@link com.jameskelso.android.widget.AspectRatioImageView}, kept
+ * free of Android dependencies so it can be benchmarked and tested on a plain JVM.
+ *
+ * The static methods hold the aspect ratio math. An instance remembers the measure specs and
+ * results of the last measure pass of a single view. That memory is used to skip repeated work
+ * when a view is measured again with the same specs, and to decide how much work a new aspect
+ * ratio actually needs.
+ */
+public final class AspectRatioMeasurer {
+    /**
+     * The aspect ratio did not change, so nothing needs to be done
+     */
+    public static final int RATIO_UNCHANGED = 0;
+
+    /**
+     * The aspect ratio changed but resolves to the same size, so the view only needs to be redrawn
+     */
+    public static final int SIZE_UNCHANGED = 1;
+
+    /**
+     * The aspect ratio changed the size of the view, so a new layout is needed
+     */
+    public static final int SIZE_CHANGED = 2;
+
+    // The measure specs and results of the last measure pass
+    private boolean mHasMeasured;
+    private boolean mLastMeasureUsedSuper;
+    private boolean mLastMeasureFromSpecs;
+    private int mLastWidthMeasureSpec;
+    private int mLastHeightMeasureSpec;
+    private int mLastSuperMeasuredWidth;
+    private int mLastSuperMeasuredHeight;
+    private int mLastResolvedWidth;
+    private int mLastResolvedHeight;
+
+    // Number of aspect ratio changes that did not need a new layout
+    private int mAvoidedLayoutCount;
+
+    // Number of drawable changes that did not need a new layout
+    private int mAvoidedDrawableLayoutCount;
+
+    // The result of the last measure pass that was resolved from the measure specs alone, keyed by
+    // the measure specs and aspect ratio that produced it
+    private boolean mHasCachedMeasure;
+    private int mCachedWidthMeasureSpec;
+    private int mCachedHeightMeasureSpec;
+    private int mCachedRatioWidth;
+    private int mCachedRatioHeight;
+    private long mCachedSize;
+
+    /**
+     * Calculate how wide a view wants to be based on its measured height and aspect ratio. This
+     * method will respect the measure spec passed in by the parent if necessary.
+     *
+     * @param  measuredHeight the measured height of the view
+     * @param  widthMeasureSpec the measure spec passed in by the parent as part of the layout cycle
+     * @param  ratioWidth the width term of the aspect ratio
+     * @param  ratioHeight the height term of the aspect ratio
+     * @return the desired width of the view with respect to its parent
+     */
+    public static int calculateDesiredWidthForHeight(int measuredHeight, int widthMeasureSpec,
+                                                     int ratioWidth, int ratioHeight) {
+        // Desired width = height * aspect ratio
+        // For example,  9 * (16 / 9) = 16
+        int desiredWidth = AspectRatios.calculateWidthForHeight(measuredHeight, ratioWidth,
+                ratioHeight);
+        return MeasureSpecs.resolveSize(desiredWidth, widthMeasureSpec);
+    }
+
+    /**
+     * Calculate how tall a view wants to be based on its measured width and aspect ratio. This
+     * method will respect the measure spec passed in by the parent if necessary.
+     *
+     * @param  measuredWidth the measured width of the view
+     * @param  heightMeasureSpec the measure spec passed in by the parent as part of the layout
+     *                           cycle
+     * @param  ratioWidth the width term of the aspect ratio
+     * @param  ratioHeight the height term of the aspect ratio
+     * @return the desired height of the view with respect to its parent
+     */
+    public static int calculateDesiredHeightForWidth(int measuredWidth, int heightMeasureSpec,
+                                                     int ratioWidth, int ratioHeight) {
+        // Desired height = width / aspect ratio
+        // For example,  16 / (16 / 9) = 9
+        int desiredHeight = AspectRatios.calculateHeightForWidth(measuredWidth, ratioWidth,
+                ratioHeight);
+        return MeasureSpecs.resolveSize(desiredHeight, heightMeasureSpec);
+    }
+
+    /**
+     * Check whether the size of a view can be resolved from the measure specs and aspect ratio
+     * alone. This is the case when both dimensions are exact, or when one dimension is exact and
+     * an aspect ratio is set.
+     */
+    public static boolean canMeasureFromSpecs(int widthMeasureSpec, int heightMeasureSpec,
+                                              int ratioWidth, int ratioHeight) {
+        boolean exactWidth = MeasureSpecs.getMode(widthMeasureSpec) == MeasureSpecs.EXACTLY;
+        boolean exactHeight = MeasureSpecs.getMode(heightMeasureSpec) == MeasureSpecs.EXACTLY;
+
+        return exactWidth && exactHeight
+                || (ratioWidth > 0 && ratioHeight > 0 && (exactWidth || exactHeight));
+    }
+
+    /**
+     * Calculate the size of a view from measure specs that satisfy
+     * {@link #canMeasureFromSpecs(int, int, int, int)}.
+     *
+     * @return the width and height of the view packed with {@link Dimensions#pack(int, int)}
+     */
+    public static long calculateSizeFromSpecs(int widthMeasureSpec, int heightMeasureSpec,
+                                              int ratioWidth, int ratioHeight) {
+        int width;
+        int height;
+
+        if (MeasureSpecs.getMode(widthMeasureSpec) == MeasureSpecs.EXACTLY) {
+            width = MeasureSpecs.getSize(widthMeasureSpec);
+            if (MeasureSpecs.getMode(heightMeasureSpec) == MeasureSpecs.EXACTLY) {
+                height = MeasureSpecs.getSize(heightMeasureSpec);
+            } else {
+                height = calculateDesiredHeightForWidth(width, heightMeasureSpec, ratioWidth,
+                        ratioHeight);
+            }
+        } else {
+            height = MeasureSpecs.getSize(heightMeasureSpec);
+            width = calculateDesiredWidthForHeight(height, widthMeasureSpec, ratioWidth,
+                    ratioHeight);
+        }
+
+        return Dimensions.pack(width, height);
+    }
+
+    /**
+     * Calculate the size of a view from the dimensions measured by
+     * {@link android.widget.ImageView}. Only a dimension that could not be measured is replaced
+     * with one calculated from the aspect ratio.
+     *
+     * @return the width and height of the view packed with {@link Dimensions#pack(int, int)}
+     */
+    public static long calculateSizeFromMeasured(int measuredWidth, int measuredHeight,
+                                                 int widthMeasureSpec, int heightMeasureSpec,
+                                                 int ratioWidth, int ratioHeight) {
+        // We don't want to override default functionality if the width and height are already set
+        // or if both the width and height are unknown
+        if (measuredWidth != 0 && measuredHeight != 0
+                || (measuredWidth == 0 && measuredHeight == 0)) {
+            return Dimensions.pack(measuredWidth, measuredHeight);
+        }
+
+        int desiredWidth;
+        int desiredHeight;
+
+        // If the width is the unknown dimension
+        if (measuredWidth == 0) {
+            desiredWidth = calculateDesiredWidthForHeight(measuredHeight, widthMeasureSpec,
+                    ratioWidth, ratioHeight);
+            desiredHeight = measuredHeight;
+        }
+        // Otherwise the height is the unknown dimension
+        else {
+            desiredWidth = measuredWidth;
+            desiredHeight = calculateDesiredHeightForWidth(measuredWidth, heightMeasureSpec,
+                    ratioWidth, ratioHeight);
+        }
+
+        // Only use the calculated size if we were able to resolve the missing dimension
+        if (desiredWidth != 0 && desiredHeight != 0) {
+            return Dimensions.pack(desiredWidth, desiredHeight);
+        }
+        return Dimensions.pack(measuredWidth, measuredHeight);
+    }
+
+    /**
+     * Resolve the size of a view for a measure pass without measuring its drawable, trying the
+     * cheapest source first: a size restored from saved state, then a precomputed measure, then
+     * the measure specs and aspect ratio alone. Whichever source resolves the size is recorded as
+     * the last measure pass. If none can, the caller has to let {@link android.widget.ImageView}
+     * measure and pass the result to
+     * {@link #measureFromSuper(int, int, int, int, int, int)}.
+     *
+     * @param  restoredSize a size restored from saved state that was resolved from the same
+     *                      measure specs and aspect ratio, or {@link Dimensions#NONE}
+     * @param  precomputed a size calculated ahead of time, or null
+     * @return the width and height of the view packed with {@link Dimensions#pack(int, int)}, or
+     *         {@link Dimensions#NONE} if the drawable has to be measured first
+     */
+    public long measure(int widthMeasureSpec, int heightMeasureSpec, int ratioWidth,
+                        int ratioHeight, long restoredSize, PrecomputedMeasure precomputed) {
+        boolean fromSpecs = canMeasureFromSpecs(widthMeasureSpec, heightMeasureSpec, ratioWidth,
+                ratioHeight);
+
+        if (restoredSize != Dimensions.NONE) {
+            record(widthMeasureSpec, heightMeasureSpec, restoredSize);
+            mLastMeasureFromSpecs = fromSpecs;
+            return restoredSize;
+        }
+
+        if (precomputed != null && precomputed.matches(widthMeasureSpec, heightMeasureSpec,
+                ratioWidth, ratioHeight)) {
+            long size = precomputed.getSize();
+            record(widthMeasureSpec, heightMeasureSpec, size);
+            mLastMeasureFromSpecs = true;
+            return size;
+        }
+
+        if (fromSpecs) {
+            return measureFromSpecs(widthMeasureSpec, heightMeasureSpec, ratioWidth, ratioHeight);
+        }
+
+        return Dimensions.NONE;
+    }
+
+    /**
+     * Record a size that was resolved from the given measure specs without this measurer, so that
+     * later measure passes and aspect ratio changes are compared against it.
+     *
+     * @param size the width and height of the view packed with {@link Dimensions#pack(int, int)}
+     */
+    public void record(int widthMeasureSpec, int heightMeasureSpec, long size) {
+        mHasMeasured = true;
+        mLastMeasureUsedSuper = false;
+        mLastMeasureFromSpecs = false;
+        mLastWidthMeasureSpec = widthMeasureSpec;
+        mLastHeightMeasureSpec = heightMeasureSpec;
+        mLastResolvedWidth = Dimensions.width(size);
+        mLastResolvedHeight = Dimensions.height(size);
+    }
+
+    /**
+     * Measure a view from measure specs that satisfy
+     * {@link #canMeasureFromSpecs(int, int, int, int)}. The result is cached so that repeated
+     * measure passes with the same specs and aspect ratio do no work.
+     *
+     * @return the width and height of the view packed with {@link Dimensions#pack(int, int)}
+     */
+    public long measureFromSpecs(int widthMeasureSpec, int heightMeasureSpec, int ratioWidth,
+                                 int ratioHeight) {
+        if (!mHasCachedMeasure
+                || mCachedWidthMeasureSpec != widthMeasureSpec
+                || mCachedHeightMeasureSpec != heightMeasureSpec
+                || mCachedRatioWidth != ratioWidth
+                || mCachedRatioHeight != ratioHeight) {
+            mHasCachedMeasure = true;
+            mCachedWidthMeasureSpec = widthMeasureSpec;
+            mCachedHeightMeasureSpec = heightMeasureSpec;
+            mCachedRatioWidth = ratioWidth;
+            mCachedRatioHeight = ratioHeight;
+            mCachedSize = calculateSizeFromSpecs(widthMeasureSpec, heightMeasureSpec, ratioWidth,
+                    ratioHeight);
+        }
+
+        record(widthMeasureSpec, heightMeasureSpec, mCachedSize);
+        mLastMeasureFromSpecs = true;
+
+        return mCachedSize;
+    }
+
+    /**
+     * Measure a view from the dimensions measured by {@link android.widget.ImageView}.
+     *
+     * @return the width and height of the view packed with {@link Dimensions#pack(int, int)}
+     */
+    public long measureFromSuper(int widthMeasureSpec, int heightMeasureSpec, int measuredWidth,
+                                 int measuredHeight, int ratioWidth, int ratioHeight) {
+        long size = calculateSizeFromMeasured(measuredWidth, measuredHeight, widthMeasureSpec,
+                heightMeasureSpec, ratioWidth, ratioHeight);
+
+        record(widthMeasureSpec, heightMeasureSpec, size);
+        mLastMeasureUsedSuper = true;
+        mLastSuperMeasuredWidth = measuredWidth;
+        mLastSuperMeasuredHeight = measuredHeight;
+
+        return size;
+    }
+
+    /**
+     * Work out how much work a change of aspect ratio needs. An unchanged ratio needs nothing. A
+     * ratio that resolves to the same size only needs a redraw, but that can only be shown when
+     * the last measure pass took one dimension from the aspect ratio. When both measure specs
+     * were exact, the parent may have derived them from the size of the view, as many parents
+     * do when they measure a child a second time, so any other change needs a new layout.
+     *
+     * @param  oldAspectRatio the aspect ratio the view was last measured with, packed with
+     *                        {@link Dimensions#pack(int, int)}
+     * @param  newAspectRatio the aspect ratio the view will use from now on, packed with
+     *                        {@link Dimensions#pack(int, int)}
+     * @return one of {@link #RATIO_UNCHANGED}, {@link #SIZE_UNCHANGED} or {@link #SIZE_CHANGED}
+     */
+    public int onAspectRatioChanged(long oldAspectRatio, long newAspectRatio) {
+        if (isSameAspectRatio(oldAspectRatio, newAspectRatio)) {
+            mAvoidedLayoutCount++;
+            return RATIO_UNCHANGED;
+        }
+
+        if (mHasMeasured && !isLastMeasureExact() && resolvesToLastSize(
+                Dimensions.width(newAspectRatio), Dimensions.height(newAspectRatio))) {
+            mAvoidedLayoutCount++;
+            return SIZE_UNCHANGED;
+        }
+
+        return SIZE_CHANGED;
+    }
+
+    /**
+     * Check whether a new drawable can't change the size of a view. That is the case when the
+     * last measure pass resolved the size from the measure specs and aspect ratio alone and no
+     * new layout has been requested since.
+     *
+     * @param layoutRequested true if a new layout has been requested since the last measure pass
+     */
+    public boolean isSizeLocked(boolean layoutRequested, int ratioWidth, int ratioHeight) {
+        return !layoutRequested && mLastMeasureFromSpecs && ratioWidth > 0 && ratioHeight > 0;
+    }
+
+    /**
+     * Decide whether the layout {@link android.widget.ImageView} requests for a drawable of a new
+     * size is needed while the size of the view is locked, see
+     * {@link #isSizeLocked(boolean, int, int)}. It isn't when the drawable fits the aspect ratio,
+     * since only the drawing changes. A drawable of a different shape means the aspect ratio
+     * didn't match the image, so the layout goes ahead as it would for a plain ImageView.
+     *
+     * @param  drawableWidth the intrinsic width of the new drawable, or -1 if it has none
+     * @param  drawableHeight the intrinsic height of the new drawable, or -1 if it has none
+     * @return true if the layout is needed
+     */
+    public boolean onDrawableChanged(int drawableWidth, int drawableHeight, int ratioWidth,
+                                     int ratioHeight) {
+        if (fitsAspectRatio(drawableWidth, drawableHeight, ratioWidth, ratioHeight)) {
+            mAvoidedDrawableLayoutCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether an image has the shape of an aspect ratio. Images are often decoded at a
+     * sampled size, so the height may be a pixel off the exact ratio. An image without a size
+     * fills any bounds.
+     */
+    public static boolean fitsAspectRatio(int width, int height, int ratioWidth,
+                                          int ratioHeight) {
+        if (width <= 0 || height <= 0) {
+            return true;
+        }
+
+        int expectedHeight = AspectRatios.calculateHeightForWidth(width, ratioWidth, ratioHeight);
+        return Math.abs(expectedHeight - height) <= 1;
+    }
+
+    /**
+     * Check whether two aspect ratios reduce to the same ratio. Either may be
+     * {@link AspectRatios#NONE}, which is only the same as itself.
+     */
+    private static boolean isSameAspectRatio(long aspectRatio, long otherAspectRatio) {
+        if (aspectRatio == otherAspectRatio) {
+            return true;
+        }
+
+        int width = Dimensions.width(aspectRatio);
+        int height = Dimensions.height(aspectRatio);
+        int otherWidth = Dimensions.width(otherAspectRatio);
+        int otherHeight = Dimensions.height(otherAspectRatio);
+        if (width <= 0 || height <= 0 || otherWidth <= 0 || otherHeight <= 0) {
+            return false;
+        }
+        return (long) width * otherHeight == (long) otherWidth * height;
+    }
+
+    /**
+     * Check whether both measure specs of the last measure pass were exact, which leaves no
+     * dimension to the aspect ratio
+     */
+    private boolean isLastMeasureExact() {
+        return MeasureSpecs.getMode(mLastWidthMeasureSpec) == MeasureSpecs.EXACTLY
+                && MeasureSpecs.getMode(mLastHeightMeasureSpec) == MeasureSpecs.EXACTLY;
+    }
+
+    /**
+     * Check whether an aspect ratio resolves to the same size as the last measure pass when given
+     * the same measure specs.
+     */
+    private boolean resolvesToLastSize(int ratioWidth, int ratioHeight) {
+        long size;
+        if (canMeasureFromSpecs(mLastWidthMeasureSpec, mLastHeightMeasureSpec, ratioWidth,
+                ratioHeight)) {
+            size = calculateSizeFromSpecs(mLastWidthMeasureSpec, mLastHeightMeasureSpec,
+                    ratioWidth, ratioHeight);
+        } else if (mLastMeasureUsedSuper) {
+            size = calculateSizeFromMeasured(mLastSuperMeasuredWidth, mLastSuperMeasuredHeight,
+                    mLastWidthMeasureSpec, mLastHeightMeasureSpec, ratioWidth, ratioHeight);
+        } else {
+            // Without a measurement from ImageView we can't predict the new size
+            return false;
+        }
+
+        return Dimensions.width(size) == mLastResolvedWidth
+                && Dimensions.height(size) == mLastResolvedHeight;
+    }
+
+    /**
+     * Check whether the last measure pass resolved a size that the measure specs and aspect ratio
+     * decide on their own, so that the drawable can't change it.
+     */
+    public boolean isLastMeasureFromSpecs() {
+        return mLastMeasureFromSpecs;
+    }
+
+    /**
+     * Get the number of aspect ratio changes that did not need a new layout, either because the
+     * aspect ratio did not change or because it resolved to the same size.
+     */
+    public int getAvoidedLayoutCount() {
+        return mAvoidedLayoutCount;
+    }
+
+    /**
+     * Get the number of drawable changes that did not need a new layout because the drawable fit
+     * the aspect ratio
+     */
+    public int getAvoidedDrawableLayoutCount() {
+        return mAvoidedDrawableLayoutCount;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A persistent cache of the original dimensions of images, so that an
+ * {@link com.jameskelso.android.widget.AspectRatioImageView} can take its aspect ratio from a
+ * single lookup before its first measure, even after a cold start.
+ *
+ * The cache is a fixed size hash table of fixed size records stored in a file and accessed
+ * through a memory map. Lookups and updates are plain memory reads and writes, with no system
+ * calls. Each key is hashed to 64 bits and looked up in a small window of slots. When every slot
+ * in the window is taken, the least recently used entry in the window is evicted, so the cache
+ * never grows past the capacity given when it was created.
+ *
+ * Lookups only read the file. The order of use is kept in memory and saved to the file by
+ * {@link #flush()} and {@link #close()}, so a lookup never dirties a page of the map. A record's
+ * key is written after its dimensions, so a crash in the middle of a put never pairs a key with
+ * the dimensions of another image.
+ *
+ * Instances are thread safe, but a cache file must only be opened once at a time.
+ */
+public final class AspectRatioMetadataCache {
+    private static final int MAGIC = 0x41524d43;  // "ARMC"
+    private static final int VERSION = 1;
+
+    // Header: magic, version, capacity, clock
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_CLOCK = 12;
+
+    // Record: key hash, width, height, last access
+    private static final int RECORD_SIZE = 20;
+    private static final int RECORD_WIDTH = 8;
+    private static final int RECORD_HEIGHT = 12;
+    private static final int RECORD_ACCESS = 16;
+
+    // Number of slots searched for a key
+    private static final int PROBE_WINDOW = 8;
+
+    private static final long EMPTY_KEY = 0L;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+
+    // Last access tick of each slot. Only puts write these to the file, lookups wait for a flush.
+    private final int[] mAccess;
+    private int mClock;
+
+    /**
+     * Open a cache file, creating it if it does not exist. An existing file with a different
+     * capacity or an unknown format is cleared.
+     *
+     * @param  file the file to store the cache in
+     * @param  maxEntries the maximum number of entries to keep. This is rounded up to a power of
+     *                    two.
+     * @throws IOException if the file could not be opened or mapped
+     */
+    public AspectRatioMetadataCache(File file, int maxEntries) throws IOException {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+
+        int capacity = Math.max(PROBE_WINDOW, Integer.highestOneBit(maxEntries - 1) << 1);
+        long length = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+
+        mFile = new RandomAccessFile(file, "rw");
+        boolean valid = mFile.length() == length && hasValidHeader(mFile, capacity);
+        if (!valid) {
+            // Start again with an empty table
+            mFile.setLength(0);
+            mFile.setLength(length);
+        }
+
+        mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        mCapacity = capacity;
+        mAccess = new int[capacity];
+
+        if (valid) {
+            mClock = mBuffer.getInt(HEADER_CLOCK);
+            for (int i = 0; i < capacity; i++) {
+                mAccess[i] = mBuffer.getInt(recordOffset(i) + RECORD_ACCESS);
+            }
+        } else {
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(HEADER_CAPACITY, capacity);
+            mBuffer.putInt(HEADER_CLOCK, 0);
+        }
+    }
+
+    private static boolean hasValidHeader(RandomAccessFile file, int capacity) throws IOException {
+        file.seek(0);
+        return file.readInt() == MAGIC
+                && file.readInt() == VERSION
+                && file.readInt() == capacity;
+    }
+
+    /**
+     * Look up the original dimensions of an image
+     *
+     * @param  key the URL or other unique key of the image
+     * @return the width and height of the image packed with {@link Dimensions#pack(int, int)},
+     *         or {@link Dimensions#NONE} if the image is not in the cache
+     */
+    public long get(String key) {
+        return get(hash(key));
+    }
+
+    /**
+     * Look up the original dimensions of an image by the 64 bit hash of its key
+     *
+     * @return the width and height of the image packed with {@link Dimensions#pack(int, int)},
+     *         or {@link Dimensions#NONE} if the image is not in the cache
+     */
+    public synchronized long get(long keyHash) {
+        int slot = find(normalize(keyHash));
+        if (slot < 0) {
+            return Dimensions.NONE;
+        }
+
+        mAccess[slot] = ++mClock;
+        int record = recordOffset(slot);
+        return Dimensions.pack(mBuffer.getInt(record + RECORD_WIDTH),
+                mBuffer.getInt(record + RECORD_HEIGHT));
+    }
+
+    /**
+     * Store the original dimensions of an image
+     *
+     * @param key the URL or other unique key of the image
+     * @param width the original width of the image
+     * @param height the original height of the image
+     */
+    public void put(String key, int width, int height) {
+        put(hash(key), width, height);
+    }
+
+    /**
+     * Store the original dimensions of an image by the 64 bit hash of its key
+     */
+    public synchronized void put(long keyHash, int width, int height) {
+        long key = normalize(keyHash);
+
+        int slot = find(key);
+        if (slot < 0) {
+            slot = findSlotToReplace(key);
+        }
+        int record = recordOffset(slot);
+        mAccess[slot] = ++mClock;
+
+        // Empty the slot while it is written and publish the key last, so that a crash in
+        // between leaves an empty slot rather than a key with the wrong dimensions
+        mBuffer.putLong(record, EMPTY_KEY);
+        mBuffer.putInt(record + RECORD_WIDTH, width);
+        mBuffer.putInt(record + RECORD_HEIGHT, height);
+        mBuffer.putInt(record + RECORD_ACCESS, mClock);
+        mBuffer.putInt(HEADER_CLOCK, mClock);
+        mBuffer.putLong(record, key);
+    }
+
+    /**
+     * Remove the dimensions of an image from the cache
+     *
+     * @param key the URL or other unique key of the image
+     */
+    public synchronized void remove(String key) {
+        int slot = find(normalize(hash(key)));
+        if (slot >= 0) {
+            mBuffer.putLong(recordOffset(slot), EMPTY_KEY);
+        }
+    }
+
+    /**
+     * Remove every entry from the cache
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mCapacity; i++) {
+            mBuffer.putLong(recordOffset(i), EMPTY_KEY);
+        }
+    }
+
+    /**
+     * Get the maximum number of entries the cache can hold
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Save the order of use and write any changes to storage. Changes are written by the
+     * operating system in the background anyway, but the order of use only reaches the file here,
+     * so call this when the app is about to stop to keep recently used entries after a restart.
+     */
+    public synchronized void flush() {
+        saveAccessTicks();
+        mBuffer.force();
+    }
+
+    /**
+     * Write any changes to storage and close the cache file. The cache must not be used afterwards.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    public synchronized void close() throws IOException {
+        flush();
+        mFile.close();
+    }
+
+    private void saveAccessTicks() {
+        for (int i = 0; i < mCapacity; i++) {
+            // Only pages with a changed tick are dirtied
+            int offset = recordOffset(i) + RECORD_ACCESS;
+            if (mBuffer.getInt(offset) != mAccess[i]) {
+                mBuffer.putInt(offset, mAccess[i]);
+            }
+        }
+        mBuffer.putInt(HEADER_CLOCK, mClock);
+    }
+
+    private int find(long key) {
+        int start = slot(key);
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int slot = (start + i) & (mCapacity - 1);
+            if (mBuffer.getLong(recordOffset(slot)) == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find an empty slot for a new key, or the least recently used slot in its window if they are
+     * all taken
+     */
+    private int findSlotToReplace(long key) {
+        int start = slot(key);
+        int oldestSlot = -1;
+        int oldestAge = -1;
+
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int slot = (start + i) & (mCapacity - 1);
+            if (mBuffer.getLong(recordOffset(slot)) == EMPTY_KEY) {
+                return slot;
+            }
+
+            // Ages are compared relative to the clock so that wrapping around does not matter
+            int age = mClock - mAccess[slot];
+            if (age > oldestAge) {
+                oldestAge = age;
+                oldestSlot = slot;
+            }
+        }
+        return oldestSlot;
+    }
+
+    private int slot(long key) {
+        // Spread the bits of the hash before masking it to the size of the table
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        return (int) (mixed >>> 32) & (mCapacity - 1);
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static long normalize(long keyHash) {
+        // 0 marks an empty slot
+        return keyHash == EMPTY_KEY ? 1L : keyHash;
+    }
+
+    /**
+     * Hash a key to 64 bits with FNV-1a
+     */
+    public static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, length = key.length(); i < length; i++) {
+            char c = key.charAt(i);
+            hash ^= c & 0xff;
+            hash *= 0x100000001b3L;
+            hash ^= c >>> 8;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
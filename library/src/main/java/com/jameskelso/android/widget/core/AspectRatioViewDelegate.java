@@ -0,0 +1,223 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * The decisions {@link com.jameskelso.android.widget.AspectRatioImageView} makes on top of
+ * {@link android.widget.ImageView}, kept free of Android dependencies so they can be tested on a
+ * plain JVM. The view forwards its measure passes, aspect ratio changes, drawable swaps and
+ * layout requests here, and this class calls back through a {@link Host} for the work only the
+ * view can do.
+ */
+public final class AspectRatioViewDelegate {
+    /**
+     * The view a delegate makes decisions for
+     */
+    public interface Host {
+        /**
+         * Check whether a new layout has been requested since the last measure pass
+         */
+        boolean isLayoutRequested();
+
+        /**
+         * Request a new layout. The request is passed back to
+         * {@link AspectRatioViewDelegate#onRequestLayout()} like any other.
+         */
+        void requestLayout();
+
+        /**
+         * Redraw the view without a new layout
+         */
+        void invalidate();
+
+        /**
+         * Let {@link android.widget.ImageView} measure the view from its drawable
+         *
+         * @return the measured width and height packed with {@link Dimensions#pack(int, int)}
+         */
+        long measureDrawable(int widthMeasureSpec, int heightMeasureSpec);
+
+        /**
+         * Store the measured size of the view
+         */
+        void setMeasuredSize(int width, int height);
+
+        /**
+         * Get the intrinsic width of the drawable, or -1 if there is no drawable or it has no
+         * intrinsic width
+         */
+        int getDrawableWidth();
+
+        /**
+         * Get the intrinsic height of the drawable, or -1 if there is no drawable or it has no
+         * intrinsic height
+         */
+        int getDrawableHeight();
+    }
+
+    private final Host mHost;
+    private final AspectRatioMeasurer mMeasurer = new AspectRatioMeasurer();
+
+    private boolean mLastMeasureFromDrawable;
+
+    // Layout requests made while the drawable is swapped are held back here and only let through
+    // if the new drawable doesn't fit the aspect ratio
+    private boolean mDeferringLayoutRequests;
+    private boolean mLayoutRequestDeferred;
+
+    public AspectRatioViewDelegate(Host host) {
+        mHost = host;
+    }
+
+    /**
+     * Get the measurer that remembers the last measure pass of the view
+     */
+    public AspectRatioMeasurer getMeasurer() {
+        return mMeasurer;
+    }
+
+    /**
+     * Measure the view and store its measured size. The drawable is only measured by
+     * {@link android.widget.ImageView} when
+     * {@link AspectRatioMeasurer#measure(int, int, int, int, long, PrecomputedMeasure)} can't
+     * resolve the size without it.
+     *
+     * @param  restoredSize a size restored from saved state that was resolved from the same
+     *                      measure specs and aspect ratio, or {@link Dimensions#NONE}
+     * @param  precomputed a size calculated ahead of time, or null
+     * @return the width and height of the view packed with {@link Dimensions#pack(int, int)}
+     */
+    public long measure(int widthMeasureSpec, int heightMeasureSpec, int ratioWidth,
+                        int ratioHeight, long restoredSize, PrecomputedMeasure precomputed) {
+        long size = mMeasurer.measure(widthMeasureSpec, heightMeasureSpec, ratioWidth,
+                ratioHeight, restoredSize, precomputed);
+        mLastMeasureFromDrawable = size == Dimensions.NONE;
+
+        if (!mLastMeasureFromDrawable) {
+            mHost.setMeasuredSize(Dimensions.width(size), Dimensions.height(size));
+            return size;
+        }
+
+        long measured = mHost.measureDrawable(widthMeasureSpec, heightMeasureSpec);
+        size = mMeasurer.measureFromSuper(widthMeasureSpec, heightMeasureSpec,
+                Dimensions.width(measured), Dimensions.height(measured), ratioWidth, ratioHeight);
+
+        // Keep the measured state flags from ImageView if we aren't changing the size
+        if (size != measured) {
+            mHost.setMeasuredSize(Dimensions.width(size), Dimensions.height(size));
+        }
+        return size;
+    }
+
+    /**
+     * Check whether the last measure pass had to let {@link android.widget.ImageView} measure
+     * the drawable
+     */
+    public boolean isLastMeasureFromDrawable() {
+        return mLastMeasureFromDrawable;
+    }
+
+    /**
+     * Request a layout for a new aspect ratio only when it is needed, see
+     * {@link AspectRatioMeasurer#onAspectRatioChanged(long, long)}. A ratio that resolves to the
+     * same size only redraws the view.
+     *
+     * @return one of {@link AspectRatioMeasurer#RATIO_UNCHANGED},
+     *         {@link AspectRatioMeasurer#SIZE_UNCHANGED} or
+     *         {@link AspectRatioMeasurer#SIZE_CHANGED}
+     */
+    public int onAspectRatioChanged(long oldAspectRatio, long newAspectRatio) {
+        int result = mMeasurer.onAspectRatioChanged(oldAspectRatio, newAspectRatio);
+        if (result == AspectRatioMeasurer.SIZE_CHANGED) {
+            mHost.requestLayout();
+        } else if (result == AspectRatioMeasurer.SIZE_UNCHANGED) {
+            mHost.invalidate();
+        }
+        return result;
+    }
+
+    /**
+     * Check whether the size of the view is locked by its aspect ratio, see
+     * {@link AspectRatioMeasurer#isSizeLocked(boolean, int, int)}
+     */
+    public boolean isSizeLocked(int ratioWidth, int ratioHeight) {
+        return mMeasurer.isSizeLocked(mHost.isLayoutRequested(), ratioWidth, ratioHeight);
+    }
+
+    /**
+     * Start holding back the layout requests {@link android.widget.ImageView} makes while it
+     * swaps drawables, if the size of the view is locked by its aspect ratio
+     *
+     * @return true if layout requests are held back and
+     *         {@link #endDrawableSwap(boolean, int, int)} must decide what to do with them
+     */
+    public boolean beginDrawableSwap(int ratioWidth, int ratioHeight) {
+        if (mDeferringLayoutRequests || !isSizeLocked(ratioWidth, ratioHeight)) {
+            return false;
+        }
+
+        mDeferringLayoutRequests = true;
+        mLayoutRequestDeferred = false;
+        return true;
+    }
+
+    /**
+     * Stop holding back layout requests. ImageView already invalidates the view for the new
+     * drawable, so a held back request is only let through if
+     * {@link AspectRatioMeasurer#onDrawableChanged(int, int, int, int)} decides it is needed.
+     *
+     * @param deferred the result of the matching {@link #beginDrawableSwap(int, int)}
+     */
+    public void endDrawableSwap(boolean deferred, int ratioWidth, int ratioHeight) {
+        if (!deferred) {
+            return;
+        }
+
+        mDeferringLayoutRequests = false;
+        if (!mLayoutRequestDeferred) {
+            return;
+        }
+        mLayoutRequestDeferred = false;
+
+        if (mMeasurer.onDrawableChanged(mHost.getDrawableWidth(), mHost.getDrawableHeight(),
+                ratioWidth, ratioHeight)) {
+            mHost.requestLayout();
+        }
+    }
+
+    /**
+     * Called whenever the view is asked for a new layout
+     *
+     * @return true if the request should go ahead, or false if it is held back during a drawable
+     *         swap
+     */
+    public boolean onRequestLayout() {
+        if (mDeferringLayoutRequests) {
+            mLayoutRequestDeferred = true;
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * Helpers for exact aspect ratios. An aspect ratio is kept as an integer width and height reduced
+ * to lowest terms, so 3415x2268 stays 3415:2268 and 32x18 becomes 16:9. Two ratios are equal
+ * exactly when their terms are equal.
+ *
+ * All of the size math uses integer multiply and divide, so any code that resizes images with
+ * these methods gets exactly the same pixel size as the view that measures itself with them.
+ */
+public final class AspectRatios {
+    /**
+     * The packed value of a view without an aspect ratio
+     */
+    public static final long NONE = 0L;
+
+    // Limit on the terms found when approximating a float aspect ratio
+    private static final int MAX_APPROXIMATION_TERM = 1 << 20;
+
+    private AspectRatios() {
+    }
+
+    /**
+     * Calculate the aspect ratio of an image from its width and height
+     *
+     * @param  originalWidth the width of the image
+     * @param  originalHeight the height of the image
+     * @return the aspect ratio reduced to lowest terms and packed with
+     *         {@link Dimensions#pack(int, int)}, or {@link #NONE} if either dimension is not
+     *         positive
+     */
+    public static long calculateAspectRatio(int originalWidth, int originalHeight) {
+        if (originalWidth <= 0 || originalHeight <= 0) {
+            return NONE;
+        }
+
+        int divisor = gcd(originalWidth, originalHeight);
+        return Dimensions.pack(originalWidth / divisor, originalHeight / divisor);
+    }
+
+    /**
+     * Parse an aspect ratio written as "width:height", for example "16:9"
+     *
+     * @return the aspect ratio reduced to lowest terms and packed with
+     *         {@link Dimensions#pack(int, int)}
+     * @throws IllegalArgumentException if the string is not a valid aspect ratio
+     */
+    public static long parseAspectRatio(String aspectRatio) {
+        int separator = aspectRatio.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid aspect ratio \"" + aspectRatio
+                    + "\". Expected the form width:height, for example 16:9.");
+        }
+
+        int width;
+        int height;
+        try {
+            width = Integer.parseInt(aspectRatio.substring(0, separator).trim());
+            height = Integer.parseInt(aspectRatio.substring(separator + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid aspect ratio \"" + aspectRatio
+                    + "\". Expected the form width:height, for example 16:9.");
+        }
+
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid aspect ratio \"" + aspectRatio
+                    + "\". Both terms must be positive.");
+        }
+
+        return calculateAspectRatio(width, height);
+    }
+
+    /**
+     * Find the simplest integer aspect ratio that is equal to a float aspect ratio. For example
+     * 1.7777778f becomes 16:9. Ratios that no small fraction matches exactly are approximated as
+     * closely as the float allows.
+     *
+     * @param  aspectRatio the aspect ratio (width / height)
+     * @return the aspect ratio packed with {@link Dimensions#pack(int, int)}, or {@link #NONE} if
+     *         the aspect ratio is not positive
+     */
+    public static long approximateAspectRatio(float aspectRatio) {
+        if (!(aspectRatio > 0) || Float.isInfinite(aspectRatio)) {
+            return NONE;
+        }
+        if (aspectRatio >= MAX_APPROXIMATION_TERM) {
+            // Larger than any ratio we can represent with the limited terms
+            return Dimensions.pack(MAX_APPROXIMATION_TERM, 1);
+        }
+
+        // Walk the continued fraction expansion until a convergent rounds to the same float
+        long previousWidth = 1;
+        long previousHeight = 0;
+        long width = (long) Math.floor(aspectRatio);
+        long height = 1;
+        double remainder = aspectRatio - Math.floor(aspectRatio);
+
+        while ((float) ((double) width / height) != aspectRatio && remainder > 0) {
+            double inverse = 1d / remainder;
+            long term = (long) Math.floor(inverse);
+            remainder = inverse - term;
+
+            long nextWidth = term * width + previousWidth;
+            long nextHeight = term * height + previousHeight;
+            if (nextWidth > MAX_APPROXIMATION_TERM || nextHeight > MAX_APPROXIMATION_TERM) {
+                break;
+            }
+
+            previousWidth = width;
+            previousHeight = height;
+            width = nextWidth;
+            height = nextHeight;
+        }
+
+        if (width == 0) {
+            // Smaller than any ratio we can represent with the limited terms
+            return Dimensions.pack(1, MAX_APPROXIMATION_TERM);
+        }
+
+        return calculateAspectRatio((int) width, (int) height);
+    }
+
+    /**
+     * Convert an aspect ratio to a float (width / height)
+     *
+     * @return the aspect ratio as a float, or 0 if there is no aspect ratio
+     */
+    public static float toFloat(int ratioWidth, int ratioHeight) {
+        if (ratioWidth <= 0 || ratioHeight <= 0) {
+            return 0f;
+        }
+        return (float) ratioWidth / (float) ratioHeight;
+    }
+
+    /**
+     * Calculate the height that matches a width, rounded to the nearest pixel
+     *
+     * @param  width the width in pixels
+     * @param  ratioWidth the width term of the aspect ratio
+     * @param  ratioHeight the height term of the aspect ratio
+     * @return the matching height in pixels, or 0 if there is no aspect ratio
+     */
+    public static int calculateHeightForWidth(int width, int ratioWidth, int ratioHeight) {
+        if (ratioWidth <= 0 || ratioHeight <= 0) {
+            return 0;
+        }
+        // Height = width * (ratio height / ratio width), rounded half up
+        return (int) ((2L * width * ratioHeight + ratioWidth) / (2L * ratioWidth));
+    }
+
+    /**
+     * Calculate the width that matches a height, rounded to the nearest pixel
+     *
+     * @param  height the height in pixels
+     * @param  ratioWidth the width term of the aspect ratio
+     * @param  ratioHeight the height term of the aspect ratio
+     * @return the matching width in pixels, or 0 if there is no aspect ratio
+     */
+    public static int calculateWidthForHeight(int height, int ratioWidth, int ratioHeight) {
+        if (ratioWidth <= 0 || ratioHeight <= 0) {
+            return 0;
+        }
+        // Width = height * (ratio width / ratio height), rounded half up
+        return (int) ((2L * height * ratioWidth + ratioHeight) / (2L * ratioHeight));
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * Decodes BlurHash strings (https://blurha.sh) into small blurred images that can stand in for an
+ * image while it loads. A hash is a few dozen characters that hold the average color of an image
+ * and a handful of cosine components.
+ *
+ * Pixels are written as opaque ARGB ints, ready for {@code Bitmap.setPixels}.
+ */
+public final class BlurHash {
+    private static final String ALPHABET =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private BlurHash() {
+    }
+
+    /**
+     * Check whether a string is a well formed BlurHash
+     */
+    public static boolean isValid(String hash) {
+        if (hash == null || hash.length() < 6) {
+            return false;
+        }
+
+        int sizeFlag = decode83(hash, 0, 1);
+        if (sizeFlag < 0) {
+            return false;
+        }
+
+        int componentCount = (sizeFlag / 9 + 1) * (sizeFlag % 9 + 1);
+        if (hash.length() != 4 + 2 * componentCount) {
+            return false;
+        }
+
+        for (int i = 1; i < hash.length(); i++) {
+            if (ALPHABET.indexOf(hash.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the average color of the image a BlurHash was made from, which is a good solid color
+     * placeholder on its own
+     *
+     * @return the color as an opaque ARGB int
+     * @throws IllegalArgumentException if the hash is not valid
+     */
+    public static int decodeAverageColor(String hash) {
+        checkValid(hash);
+        return 0xff000000 | decode83(hash, 2, 6);
+    }
+
+    /**
+     * Decode a BlurHash into pixels
+     *
+     * @param  hash the BlurHash
+     * @param  width the width of the decoded image
+     * @param  height the height of the decoded image
+     * @param  pixels filled with {@code width * height} opaque ARGB pixels, row by row
+     * @throws IllegalArgumentException if the hash is not valid
+     */
+    public static void decode(String hash, int width, int height, int[] pixels) {
+        checkValid(hash);
+        if (width <= 0 || height <= 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+
+        int sizeFlag = decode83(hash, 0, 1);
+        int componentsY = sizeFlag / 9 + 1;
+        int componentsX = sizeFlag % 9 + 1;
+        int componentCount = componentsX * componentsY;
+
+        float maxValue = (decode83(hash, 1, 2) + 1) / 166f;
+
+        // Linear RGB of each component, the average color first
+        float[] colors = new float[componentCount * 3];
+        int average = decode83(hash, 2, 6);
+        colors[0] = sRgbToLinear(average >> 16);
+        colors[1] = sRgbToLinear((average >> 8) & 0xff);
+        colors[2] = sRgbToLinear(average & 0xff);
+
+        for (int i = 1; i < componentCount; i++) {
+            int value = decode83(hash, 4 + i * 2, 6 + i * 2);
+            colors[i * 3] = signedSquare((value / (19 * 19) - 9) / 9f) * maxValue;
+            colors[i * 3 + 1] = signedSquare(((value / 19) % 19 - 9) / 9f) * maxValue;
+            colors[i * 3 + 2] = signedSquare((value % 19 - 9) / 9f) * maxValue;
+        }
+
+        // The cosines only depend on one coordinate each, so compute them once
+        float[] cosX = new float[width * componentsX];
+        for (int x = 0; x < width; x++) {
+            for (int i = 0; i < componentsX; i++) {
+                cosX[x * componentsX + i] = (float) Math.cos(Math.PI * x * i / width);
+            }
+        }
+        float[] cosY = new float[height * componentsY];
+        for (int y = 0; y < height; y++) {
+            for (int j = 0; j < componentsY; j++) {
+                cosY[y * componentsY + j] = (float) Math.cos(Math.PI * y * j / height);
+            }
+        }
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float r = 0;
+                float g = 0;
+                float b = 0;
+
+                for (int j = 0; j < componentsY; j++) {
+                    for (int i = 0; i < componentsX; i++) {
+                        float basis = cosX[x * componentsX + i] * cosY[y * componentsY + j];
+                        int color = (j * componentsX + i) * 3;
+                        r += colors[color] * basis;
+                        g += colors[color + 1] * basis;
+                        b += colors[color + 2] * basis;
+                    }
+                }
+
+                pixels[y * width + x] = 0xff000000
+                        | linearToSRgb(r) << 16
+                        | linearToSRgb(g) << 8
+                        | linearToSRgb(b);
+            }
+        }
+    }
+
+    private static void checkValid(String hash) {
+        if (!isValid(hash)) {
+            throw new IllegalArgumentException("Invalid BlurHash: " + hash);
+        }
+    }
+
+    /**
+     * Decode the base 83 number in {@code hash[start, end)}, or return -1 if it holds a character
+     * outside the alphabet
+     */
+    private static int decode83(String hash, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = ALPHABET.indexOf(hash.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 83 + digit;
+        }
+        return value;
+    }
+
+    private static float signedSquare(float value) {
+        return Math.copySign(value * value, value);
+    }
+
+    private static float sRgbToLinear(int value) {
+        float v = value / 255f;
+        return v <= 0.04045f ? v / 12.92f : (float) Math.pow((v + 0.055f) / 1.055f, 2.4f);
+    }
+
+    private static int linearToSRgb(float value) {
+        float v = Math.max(0f, Math.min(1f, value));
+        if (v <= 0.0031308f) {
+            return (int) (v * 12.92f * 255f + 0.5f);
+        }
+        return (int) ((1.055f * (float) Math.pow(v, 1 / 2.4f) - 0.055f) * 255f + 0.5f);
+    }
+}
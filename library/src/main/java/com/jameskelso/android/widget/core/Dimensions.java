@@ -0,0 +1,60 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * Helpers for passing a width and height around as a single long without allocating. The width is
+ * stored in the upper 32 bits and the height in the lower 32 bits.
+ */
+public final class Dimensions {
+    /**
+     * A packed value that does not hold any dimensions
+     */
+    public static final long NONE = -1L;
+
+    private Dimensions() {
+    }
+
+    /**
+     * Pack a width and height into a single long
+     */
+    public static long pack(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    /**
+     * Extract the width from a packed value
+     */
+    public static int width(long dimensions) {
+        return (int) (dimensions >>> 32);
+    }
+
+    /**
+     * Extract the height from a packed value
+     */
+    public static int height(long dimensions) {
+        return (int) dimensions;
+    }
+}
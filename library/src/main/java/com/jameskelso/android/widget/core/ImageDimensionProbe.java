@@ -0,0 +1,432 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the dimensions of an image from its header without decoding it, so that
+ * {@link com.jameskelso.android.widget.AspectRatioImageView#setOriginalImageWidthAndHeight(int, int)}
+ * can be called before the image itself is loaded.
+ *
+ * JPEG, PNG, GIF, WebP (VP8, VP8L and VP8X) and BMP are supported. Only the few bytes that hold
+ * the dimensions are parsed. Segments in between, such as JPEG thumbnails or color profiles, are
+ * skipped without being parsed. A file or buffer jumps straight over them, while a stream may
+ * still have to read through them if it can't skip. For JPEG, the EXIF orientation is taken into
+ * account so that the dimensions of a rotated photo match the way it will be displayed.
+ *
+ * <pre>
+ * long dimensions = ImageDimensionProbe.probe(in);
+ * if (dimensions != Dimensions.NONE) {
+ *     view.setOriginalImageWidthAndHeight(Dimensions.width(dimensions),
+ *             Dimensions.height(dimensions));
+ * }
+ * </pre>
+ */
+public final class ImageDimensionProbe {
+    // The most EXIF entries read while looking for the orientation
+    private static final int MAX_EXIF_ENTRIES = 32;
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+    private static final int EXIF_MAGIC = 0x45786966;  // "Exif"
+    private static final int TIFF_BIG_ENDIAN = 0x4d4d;  // "MM"
+    private static final int TIFF_LITTLE_ENDIAN = 0x4949;  // "II"
+
+    private static final int RIFF = 0x52494646;  // "RIFF"
+    private static final int WEBP = 0x57454250;  // "WEBP"
+    private static final int VP8 = 0x56503820;  // "VP8 "
+    private static final int VP8L = 0x5650384c;  // "VP8L"
+    private static final int VP8X = 0x56503858;  // "VP8X"
+
+    private ImageDimensionProbe() {
+    }
+
+    /**
+     * Read the dimensions of an image from a stream. The stream is left positioned somewhere
+     * after the header and is not closed.
+     *
+     * @return the width and height of the image as displayed, packed with
+     *         {@link Dimensions#pack(int, int)}, or {@link Dimensions#NONE} if the format is not
+     *         recognised or the header is incomplete
+     * @throws IOException if the stream could not be read
+     */
+    public static long probe(InputStream in) throws IOException {
+        return probe(new StreamReader(in));
+    }
+
+    /**
+     * Read the dimensions of an image held in a buffer, starting at the buffer's position. The
+     * position of the buffer is not changed.
+     *
+     * @return the width and height of the image as displayed, packed with
+     *         {@link Dimensions#pack(int, int)}, or {@link Dimensions#NONE} if the format is not
+     *         recognised or the header is incomplete
+     */
+    public static long probe(ByteBuffer buffer) {
+        try {
+            return probe(new BufferReader(buffer));
+        } catch (IOException e) {
+            // Buffers don't fail to read, they only run out of bytes
+            return Dimensions.NONE;
+        }
+    }
+
+    /**
+     * Read the dimensions of an image file. The file is memory mapped so that only the pages
+     * holding the header are ever read from storage.
+     *
+     * @return the width and height of the image as displayed, packed with
+     *         {@link Dimensions#pack(int, int)}, or {@link Dimensions#NONE} if the format is not
+     *         recognised or the header is incomplete
+     * @throws IOException if the file could not be read
+     */
+    public static long probe(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return probe(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static long probe(Reader reader) throws IOException {
+        try {
+            int magic = reader.readUInt16();
+            if (magic == 0xffd8) {
+                return probeJpeg(reader);
+            } else if (magic == 0x8950) {
+                return probePng(reader);
+            } else if (magic == 0x4749) {
+                return probeGif(reader);
+            } else if (magic == 0x424d) {
+                return probeBmp(reader);
+            } else if (magic == (RIFF >>> 16)) {
+                return probeWebp(reader);
+            }
+        } catch (EOFException e) {
+            // The header is incomplete
+        }
+        return Dimensions.NONE;
+    }
+
+    private static long probeJpeg(Reader reader) throws IOException {
+        int orientation = 1;
+
+        while (true) {
+            // Markers are a 0xff byte, possibly padded with more, followed by the marker type
+            if (reader.readUInt8() != 0xff) {
+                return Dimensions.NONE;
+            }
+            int marker = reader.readUInt8();
+            while (marker == 0xff) {
+                marker = reader.readUInt8();
+            }
+
+            // Markers without a length
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                continue;
+            }
+            // The start of the image data or the end of the image, so there is no frame header
+            if (marker == 0xda || marker == 0xd9) {
+                return Dimensions.NONE;
+            }
+
+            int length = reader.readUInt16() - 2;
+            if (length < 0) {
+                return Dimensions.NONE;
+            }
+
+            if (isStartOfFrame(marker)) {
+                // Sample precision, then height and width
+                reader.skip(1);
+                int height = reader.readUInt16();
+                int width = reader.readUInt16();
+                return orient(width, height, orientation);
+            } else if (marker == 0xe1) {
+                int read = 0;
+                if (length >= 6) {
+                    int magic = reader.readInt32();
+                    read = 4;
+                    if (magic == EXIF_MAGIC) {
+                        reader.skip(2);
+                        read = 6;
+                        long result = readExifOrientation(reader, length - read);
+                        orientation = (int) (result >>> 32);
+                        read += (int) result;
+                    }
+                }
+                reader.skip(length - read);
+            } else {
+                reader.skip(length);
+            }
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0 to SOF15, except DHT, JPG and DAC which share the range
+        return marker >= 0xc0 && marker <= 0xcf
+                && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+    }
+
+    /**
+     * Read the orientation from the first IFD of the TIFF structure in an EXIF segment
+     *
+     * @return the orientation in the upper 32 bits, or 1 if none was found, and the number of
+     *         bytes read in the lower 32 bits
+     */
+    private static long readExifOrientation(Reader reader, int available) throws IOException {
+        if (available < 8) {
+            return 1L << 32;
+        }
+
+        int byteOrder = reader.readUInt16();
+        boolean littleEndian;
+        if (byteOrder == TIFF_LITTLE_ENDIAN) {
+            littleEndian = true;
+        } else if (byteOrder == TIFF_BIG_ENDIAN) {
+            littleEndian = false;
+        } else {
+            return (1L << 32) | 2;
+        }
+        reader.skip(2);
+        long ifdOffset = readUInt32(reader, littleEndian);
+        int read = 8;
+
+        // The first IFD almost always follows the header directly
+        if (ifdOffset < read || ifdOffset + 2 > available) {
+            return (1L << 32) | read;
+        }
+        reader.skip(ifdOffset - read);
+        read = (int) ifdOffset;
+
+        int entries = readUInt16(reader, littleEndian);
+        read += 2;
+        for (int i = 0; i < entries && i < MAX_EXIF_ENTRIES && read + 12 <= available; i++) {
+            int tag = readUInt16(reader, littleEndian);
+            // Type and count
+            reader.skip(6);
+            int value = readUInt16(reader, littleEndian);
+            reader.skip(2);
+            read += 12;
+
+            if (tag == EXIF_ORIENTATION_TAG) {
+                return ((long) value << 32) | read;
+            }
+        }
+
+        return (1L << 32) | read;
+    }
+
+    private static long orient(int width, int height, int orientation) {
+        // Orientations 5 to 8 rotate the image by 90 or 270 degrees
+        if (orientation >= 5 && orientation <= 8) {
+            return Dimensions.pack(height, width);
+        }
+        return Dimensions.pack(width, height);
+    }
+
+    private static long probePng(Reader reader) throws IOException {
+        // The rest of the signature, the length of the first chunk and its type
+        if (reader.readUInt16() != 0x4e47 || reader.readInt32() != 0x0d0a1a0a) {
+            return Dimensions.NONE;
+        }
+        reader.skip(4);
+        if (reader.readInt32() != 0x49484452) {  // "IHDR"
+            return Dimensions.NONE;
+        }
+
+        int width = reader.readInt32();
+        int height = reader.readInt32();
+        return Dimensions.pack(width, height);
+    }
+
+    private static long probeGif(Reader reader) throws IOException {
+        // "F8" followed by "7a" or "9a"
+        if (reader.readUInt16() != 0x4638) {
+            return Dimensions.NONE;
+        }
+        reader.skip(2);
+
+        int width = readUInt16(reader, true);
+        int height = readUInt16(reader, true);
+        return Dimensions.pack(width, height);
+    }
+
+    private static long probeBmp(Reader reader) throws IOException {
+        // File size, reserved fields and the offset of the pixels
+        reader.skip(12);
+        long headerSize = readUInt32(reader, true);
+
+        int width;
+        int height;
+        if (headerSize == 12) {
+            // BITMAPCOREHEADER
+            width = readUInt16(reader, true);
+            height = readUInt16(reader, true);
+        } else if (headerSize >= 40) {
+            // BITMAPINFOHEADER and its successors. A negative height means the rows are stored
+            // from top to bottom.
+            width = (int) readUInt32(reader, true);
+            height = Math.abs((int) readUInt32(reader, true));
+        } else {
+            return Dimensions.NONE;
+        }
+        return Dimensions.pack(width, height);
+    }
+
+    private static long probeWebp(Reader reader) throws IOException {
+        if (reader.readUInt16() != (RIFF & 0xffff)) {
+            return Dimensions.NONE;
+        }
+        reader.skip(4);
+        if (reader.readInt32() != WEBP) {
+            return Dimensions.NONE;
+        }
+
+        int chunk = reader.readInt32();
+        // Chunk size
+        reader.skip(4);
+
+        if (chunk == VP8) {
+            // Frame tag, then the start code
+            reader.skip(3);
+            if (reader.readUInt8() != 0x9d || reader.readUInt16() != 0x012a) {
+                return Dimensions.NONE;
+            }
+            int width = readUInt16(reader, true) & 0x3fff;
+            int height = readUInt16(reader, true) & 0x3fff;
+            return Dimensions.pack(width, height);
+        } else if (chunk == VP8L) {
+            if (reader.readUInt8() != 0x2f) {
+                return Dimensions.NONE;
+            }
+            long bits = readUInt32(reader, true);
+            int width = (int) (bits & 0x3fff) + 1;
+            int height = (int) ((bits >> 14) & 0x3fff) + 1;
+            return Dimensions.pack(width, height);
+        } else if (chunk == VP8X) {
+            // Flags and reserved bytes, then the canvas size minus one as 24 bit values
+            reader.skip(4);
+            int width = readUInt24(reader) + 1;
+            int height = readUInt24(reader) + 1;
+            return Dimensions.pack(width, height);
+        }
+        return Dimensions.NONE;
+    }
+
+    private static int readUInt16(Reader reader, boolean littleEndian) throws IOException {
+        int value = reader.readUInt16();
+        return littleEndian ? ((value & 0xff) << 8) | (value >>> 8) : value;
+    }
+
+    private static long readUInt32(Reader reader, boolean littleEndian) throws IOException {
+        int value = reader.readInt32();
+        return (littleEndian ? Integer.reverseBytes(value) : value) & 0xffffffffL;
+    }
+
+    private static int readUInt24(Reader reader) throws IOException {
+        return reader.readUInt8() | (reader.readUInt8() << 8) | (reader.readUInt8() << 16);
+    }
+
+    /**
+     * Big endian access to the bytes of an image
+     */
+    private abstract static class Reader {
+        abstract int readUInt8() throws IOException;
+
+        abstract void skip(long count) throws IOException;
+
+        int readUInt16() throws IOException {
+            return (readUInt8() << 8) | readUInt8();
+        }
+
+        int readInt32() throws IOException {
+            return (readUInt16() << 16) | readUInt16();
+        }
+    }
+
+    private static final class StreamReader extends Reader {
+        private final InputStream mStream;
+
+        StreamReader(InputStream stream) {
+            mStream = stream;
+        }
+
+        @Override
+        int readUInt8() throws IOException {
+            int value = mStream.read();
+            if (value < 0) {
+                throw new EOFException();
+            }
+            return value;
+        }
+
+        @Override
+        void skip(long count) throws IOException {
+            while (count > 0) {
+                long skipped = mStream.skip(count);
+                if (skipped <= 0) {
+                    // Some streams only skip after a read, so fall back to reading a byte
+                    readUInt8();
+                    skipped = 1;
+                }
+                count -= skipped;
+            }
+        }
+    }
+
+    private static final class BufferReader extends Reader {
+        private final ByteBuffer mBuffer;
+        private int mPosition;
+
+        BufferReader(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mPosition = buffer.position();
+        }
+
+        @Override
+        int readUInt8() throws IOException {
+            if (mPosition >= mBuffer.limit()) {
+                throw new EOFException();
+            }
+            return mBuffer.get(mPosition++) & 0xff;
+        }
+
+        @Override
+        void skip(long count) throws IOException {
+            if (mPosition + count > mBuffer.limit()) {
+                throw new EOFException();
+            }
+            mPosition += (int) count;
+        }
+    }
+}
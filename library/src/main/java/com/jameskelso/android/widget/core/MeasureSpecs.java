@@ -0,0 +1,100 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * A plain Java copy of the parts of {@link android.view.View.MeasureSpec} used by the aspect ratio
+ * measurement. The modes and the packing of the size share the same values as the Android
+ * framework, so specs can be passed between the two without conversion.
+ *
+ * Keeping this free of Android dependencies lets the measurement logic run on a plain JVM for
+ * benchmarks and tests.
+ */
+public final class MeasureSpecs {
+    private static final int MODE_SHIFT = 30;
+    private static final int MODE_MASK = 0x3 << MODE_SHIFT;
+
+    /**
+     * The parent has not imposed any constraint on the child
+     */
+    public static final int UNSPECIFIED = 0;
+
+    /**
+     * The parent has determined an exact size for the child
+     */
+    public static final int EXACTLY = 1 << MODE_SHIFT;
+
+    /**
+     * The child can be as large as it wants up to the specified size
+     */
+    public static final int AT_MOST = 2 << MODE_SHIFT;
+
+    private MeasureSpecs() {
+    }
+
+    /**
+     * Create a measure specification from a size and a mode
+     */
+    public static int makeMeasureSpec(int size, int mode) {
+        return (size & ~MODE_MASK) | (mode & MODE_MASK);
+    }
+
+    /**
+     * Extract the mode from a measure specification
+     */
+    public static int getMode(int measureSpec) {
+        return measureSpec & MODE_MASK;
+    }
+
+    /**
+     * Extract the size from a measure specification
+     */
+    public static int getSize(int measureSpec) {
+        return measureSpec & ~MODE_MASK;
+    }
+
+    /**
+     * Reconcile a desired size with the constraints imposed by a measure specification. This
+     * matches {@link android.view.View#resolveSize(int, int)}.
+     *
+     * @param  size how big the view wants to be
+     * @param  measureSpec the constraints imposed by the parent
+     * @return the size the view should be
+     */
+    public static int resolveSize(int size, int measureSpec) {
+        int specMode = getMode(measureSpec);
+        int specSize = getSize(measureSpec);
+
+        switch (specMode) {
+            case AT_MOST:
+                return Math.min(size, specSize);
+            case EXACTLY:
+                return specSize;
+            case UNSPECIFIED:
+            default:
+                return size;
+        }
+    }
+}
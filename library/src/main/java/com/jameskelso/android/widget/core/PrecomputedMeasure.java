@@ -0,0 +1,146 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * The result of measuring an {@link com.jameskelso.android.widget.AspectRatioImageView},
+ * calculated ahead of time from its aspect ratio and measure specs, in the spirit of
+ * {@code PrecomputedText}. Instances are immutable, so they can be built on a background thread
+ * and handed to a view when it is bound. The view checks that the instance still matches the
+ * specs it is measured with and then uses the stored size without any further work.
+ *
+ * Only sizes that can be resolved from the measure specs and aspect ratio alone can be
+ * precomputed; see {@link AspectRatioMeasurer#canMeasureFromSpecs(int, int, int, int)}.
+ */
+public final class PrecomputedMeasure {
+    private final int mRatioWidth;
+    private final int mRatioHeight;
+    private final int mWidthMeasureSpec;
+    private final int mHeightMeasureSpec;
+    private final long mSize;
+
+    private PrecomputedMeasure(int ratioWidth, int ratioHeight, int widthMeasureSpec,
+                               int heightMeasureSpec) {
+        mRatioWidth = ratioWidth;
+        mRatioHeight = ratioHeight;
+        mWidthMeasureSpec = widthMeasureSpec;
+        mHeightMeasureSpec = heightMeasureSpec;
+        mSize = AspectRatioMeasurer.calculateSizeFromSpecs(widthMeasureSpec, heightMeasureSpec,
+                ratioWidth, ratioHeight);
+    }
+
+    /**
+     * Check whether a measure can be precomputed
+     */
+    public static boolean canPrecompute(long aspectRatio, int widthMeasureSpec,
+                                        int heightMeasureSpec) {
+        aspectRatio = normalize(aspectRatio);
+        return aspectRatio != AspectRatios.NONE
+                && AspectRatioMeasurer.canMeasureFromSpecs(widthMeasureSpec, heightMeasureSpec,
+                        Dimensions.width(aspectRatio), Dimensions.height(aspectRatio));
+    }
+
+    /**
+     * Precompute the size of a view
+     *
+     * @param  aspectRatio the aspect ratio of the view packed with
+     *                     {@link Dimensions#pack(int, int)}. It is reduced to lowest terms so
+     *                     that it matches the aspect ratio of the view.
+     * @param  widthMeasureSpec the width measure spec the view will be measured with, for example
+     *                          the exact width of a list
+     * @param  heightMeasureSpec the height measure spec the view will be measured with
+     * @return the precomputed measure
+     * @throws IllegalArgumentException if the size can not be precomputed, see
+     *                                  {@link #canPrecompute(long, int, int)}
+     */
+    public static PrecomputedMeasure create(long aspectRatio, int widthMeasureSpec,
+                                            int heightMeasureSpec) {
+        if (!canPrecompute(aspectRatio, widthMeasureSpec, heightMeasureSpec)) {
+            throw new IllegalArgumentException("The size can not be resolved from the aspect "
+                    + "ratio and measure specs alone");
+        }
+        aspectRatio = normalize(aspectRatio);
+        return new PrecomputedMeasure(Dimensions.width(aspectRatio),
+                Dimensions.height(aspectRatio), widthMeasureSpec, heightMeasureSpec);
+    }
+
+    /**
+     * Reduce an aspect ratio to lowest terms, turning both {@link Dimensions#NONE} and
+     * {@link AspectRatios#NONE} into {@link AspectRatios#NONE}
+     */
+    static long normalize(long aspectRatio) {
+        return AspectRatios.calculateAspectRatio(Dimensions.width(aspectRatio),
+                Dimensions.height(aspectRatio));
+    }
+
+    /**
+     * Check whether this measure is valid for a measure pass
+     */
+    public boolean matches(int widthMeasureSpec, int heightMeasureSpec, int ratioWidth,
+                           int ratioHeight) {
+        return mWidthMeasureSpec == widthMeasureSpec
+                && mHeightMeasureSpec == heightMeasureSpec
+                && mRatioWidth == ratioWidth
+                && mRatioHeight == ratioHeight;
+    }
+
+    /**
+     * Check whether this measure was computed for a pair of measure specs
+     */
+    public boolean matchesSpecs(int widthMeasureSpec, int heightMeasureSpec) {
+        return mWidthMeasureSpec == widthMeasureSpec && mHeightMeasureSpec == heightMeasureSpec;
+    }
+
+    /**
+     * Get the aspect ratio this measure was computed for, packed with
+     * {@link Dimensions#pack(int, int)}
+     */
+    public long getAspectRatio() {
+        return Dimensions.pack(mRatioWidth, mRatioHeight);
+    }
+
+    public int getWidthMeasureSpec() {
+        return mWidthMeasureSpec;
+    }
+
+    public int getHeightMeasureSpec() {
+        return mHeightMeasureSpec;
+    }
+
+    /**
+     * Get the measured size, packed with {@link Dimensions#pack(int, int)}
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    public int getWidth() {
+        return Dimensions.width(mSize);
+    }
+
+    public int getHeight() {
+        return Dimensions.height(mSize);
+    }
+}
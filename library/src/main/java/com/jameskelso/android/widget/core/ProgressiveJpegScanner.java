@@ -0,0 +1,226 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+/**
+ * Finds the ends of the scans of a JPEG while it streams in. A progressive JPEG holds the whole
+ * image in every scan at increasing quality, so the bytes up to the end of any complete scan
+ * decode to a full size preview of the image. A baseline JPEG has a single scan that only
+ * completes with the image.
+ *
+ * Feed the scanner the same growing buffer each time more bytes arrive. Only the new bytes are
+ * parsed, and nothing is allocated.
+ */
+public final class ProgressiveJpegScanner {
+    private static final int STATE_START = 0;
+    private static final int STATE_START_MARKER = 1;
+    private static final int STATE_MARKER_START = 2;
+    private static final int STATE_MARKER = 3;
+    private static final int STATE_LENGTH_HIGH = 4;
+    private static final int STATE_LENGTH_LOW = 5;
+    private static final int STATE_SEGMENT = 6;
+    private static final int STATE_ENTROPY = 7;
+    private static final int STATE_ENTROPY_MARKER = 8;
+    private static final int STATE_COMPLETE = 9;
+    private static final int STATE_INVALID = 10;
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int RST0 = 0xD0;
+    private static final int RST7 = 0xD7;
+    private static final int TEM = 0x01;
+    private static final int STUFFED_ZERO = 0x00;
+
+    private int mState = STATE_START;
+    private int mPosition;
+    private int mMarker;
+    private int mLengthHigh;
+    private int mSegmentRemaining;
+
+    private boolean mProgressive;
+    private int mStartedScanCount;
+    private int mCompleteScanCount;
+    private int mCompleteScansEnd;
+
+    /**
+     * Parse the bytes of the buffer that have not been parsed yet
+     *
+     * @param  data the bytes of the image received so far. Bytes that were already passed in must
+     *              not change.
+     * @param  length the number of bytes received so far
+     * @return true if at least one more scan is complete
+     */
+    public boolean scan(byte[] data, int length) {
+        int completeScanCount = mCompleteScanCount;
+
+        while (mPosition < length && mState != STATE_COMPLETE && mState != STATE_INVALID) {
+            if (mState == STATE_SEGMENT) {
+                int skipped = Math.min(mSegmentRemaining, length - mPosition);
+                mPosition += skipped;
+                mSegmentRemaining -= skipped;
+                if (mSegmentRemaining == 0) {
+                    mState = mMarker == SOS ? STATE_ENTROPY : STATE_MARKER_START;
+                }
+                continue;
+            }
+
+            int value = data[mPosition] & 0xFF;
+            switch (mState) {
+                case STATE_START:
+                    mState = value == MARKER_PREFIX ? STATE_START_MARKER : STATE_INVALID;
+                    break;
+                case STATE_START_MARKER:
+                    mState = value == SOI ? STATE_MARKER_START : STATE_INVALID;
+                    break;
+                case STATE_MARKER_START:
+                    mState = value == MARKER_PREFIX ? STATE_MARKER : STATE_INVALID;
+                    break;
+                case STATE_MARKER:
+                    // Any number of fill bytes may come before a marker
+                    if (value != MARKER_PREFIX) {
+                        onMarker(value);
+                    }
+                    break;
+                case STATE_LENGTH_HIGH:
+                    mLengthHigh = value;
+                    mState = STATE_LENGTH_LOW;
+                    break;
+                case STATE_LENGTH_LOW:
+                    // The length includes its own two bytes
+                    mSegmentRemaining = (mLengthHigh << 8 | value) - 2;
+                    if (mSegmentRemaining < 0) {
+                        mState = STATE_INVALID;
+                    } else if (mSegmentRemaining == 0) {
+                        mState = mMarker == SOS ? STATE_ENTROPY : STATE_MARKER_START;
+                    } else {
+                        mState = STATE_SEGMENT;
+                    }
+                    break;
+                case STATE_ENTROPY:
+                    if (value == MARKER_PREFIX) {
+                        mState = STATE_ENTROPY_MARKER;
+                    }
+                    break;
+                case STATE_ENTROPY_MARKER:
+                    if (value == STUFFED_ZERO || (value >= RST0 && value <= RST7)) {
+                        // Part of the scan data
+                        mState = STATE_ENTROPY;
+                    } else if (value != MARKER_PREFIX) {
+                        // Any other marker ends the scan
+                        onScanComplete(mPosition - 1);
+                        onMarker(value);
+                    }
+                    break;
+            }
+            mPosition++;
+        }
+
+        return mCompleteScanCount > completeScanCount;
+    }
+
+    private void onMarker(int marker) {
+        if (marker == EOI) {
+            onScanComplete(mPosition - 1);
+            mState = STATE_COMPLETE;
+        } else if (marker == SOI || marker == TEM || (marker >= RST0 && marker <= RST7)) {
+            // Markers without a length
+            mState = STATE_MARKER_START;
+        } else {
+            if (isProgressiveFrame(marker)) {
+                mProgressive = true;
+            } else if (marker == SOS) {
+                mStartedScanCount++;
+            }
+            mMarker = marker;
+            mState = STATE_LENGTH_HIGH;
+        }
+    }
+
+    private void onScanComplete(int end) {
+        if (mStartedScanCount > mCompleteScanCount) {
+            mCompleteScanCount = mStartedScanCount;
+            mCompleteScansEnd = end;
+        }
+    }
+
+    private static boolean isProgressiveFrame(int marker) {
+        // SOF2, SOF6, SOF10 and SOF14
+        return marker == 0xC2 || marker == 0xC6 || marker == 0xCA || marker == 0xCE;
+    }
+
+    /**
+     * Check whether the image is a progressive JPEG. This is known once its frame header has been
+     * parsed.
+     */
+    public boolean isProgressive() {
+        return mProgressive;
+    }
+
+    /**
+     * Get the number of scans that are complete
+     */
+    public int getCompleteScanCount() {
+        return mCompleteScanCount;
+    }
+
+    /**
+     * Get the number of bytes at the start of the image that hold every complete scan. Decoding
+     * only these bytes gives the best preview available so far.
+     */
+    public int getCompleteScansEnd() {
+        return mCompleteScansEnd;
+    }
+
+    /**
+     * Check whether the end of the image has been reached
+     */
+    public boolean isComplete() {
+        return mState == STATE_COMPLETE;
+    }
+
+    /**
+     * Check whether the bytes parsed so far are the start of a valid JPEG
+     */
+    public boolean isValid() {
+        return mState != STATE_INVALID;
+    }
+
+    /**
+     * Forget everything parsed so far so that the scanner can be used for another image
+     */
+    public void reset() {
+        mState = STATE_START;
+        mPosition = 0;
+        mMarker = 0;
+        mLengthHigh = 0;
+        mSegmentRemaining = 0;
+        mProgressive = false;
+        mStartedScanCount = 0;
+        mCompleteScanCount = 0;
+        mCompleteScansEnd = 0;
+    }
+}
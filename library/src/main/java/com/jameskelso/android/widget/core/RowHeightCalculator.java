@@ -0,0 +1,417 @@
+/*
+* The MIT License (MIT)
+
+* Copyright (c) 2015 James W Kelso
+
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+* */
+
+package com.jameskelso.android.widget.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates the heights of rows of {@link com.jameskelso.android.widget.AspectRatioImageView}s
+ * of a known width in bulk, without inflating or measuring any views. Each height follows the
+ * same rules as {@link AspectRatioMeasurer#calculateDesiredHeightForWidth(int, int, int, int)},
+ * and the offset of each row is the sum of the heights before it. The results can be used to
+ * draw accurate scrollbars or to jump to any position in a long list.
+ *
+ * Aspect ratios are given either as floats (width / height) or as packed pairs of ints, where
+ * the ratio of item {@code i} is {@code ratios[2 * i]} to {@code ratios[2 * i + 1]}. Float
+ * ratios are converted with {@link AspectRatios#approximateAspectRatio(float)} first. Items
+ * without an aspect ratio have a ratio of 0 and resolve to a height of 0 before the measure spec
+ * is applied.
+ *
+ * The static methods fill caller provided arrays in one batch. An instance keeps the heights and
+ * offsets of a growing list and only calculates the new items when more are appended.
+ *
+ * Very large batches can be split across cores with a {@link ForkJoinPool}, which requires
+ * {@code android.os.Build.VERSION_CODES.LOLLIPOP} on Android. Smaller batches, and any batch
+ * without a pool, are calculated on the calling thread.
+ */
+public final class RowHeightCalculator {
+    /**
+     * The number of rows calculated by each task of a parallel batch. Batches of fewer than two
+     * blocks are always calculated on the calling thread.
+     */
+    public static final int PARALLEL_BLOCK_SIZE = 8192;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int mWidth;
+    private final int mHeightMeasureSpec;
+    private final ForkJoinPool mPool;
+
+    private int[] mHeights = new int[INITIAL_CAPACITY];
+    private int[] mOffsets = new int[INITIAL_CAPACITY + 1];
+    private int mCount;
+
+    /**
+     * Create a calculator for a list of rows that calculates on the calling thread
+     *
+     * @param width the width of every row
+     * @param heightMeasureSpec the measure spec the rows are measured with, as passed in by the
+     *                          parent as part of the layout cycle
+     */
+    public RowHeightCalculator(int width, int heightMeasureSpec) {
+        this(width, heightMeasureSpec, null);
+    }
+
+    /**
+     * Create a calculator for a list of rows that splits large appends across a pool
+     *
+     * @param width the width of every row
+     * @param heightMeasureSpec the measure spec the rows are measured with, as passed in by the
+     *                          parent as part of the layout cycle
+     * @param pool the pool to calculate large appends on, or null to use the calling thread
+     */
+    public RowHeightCalculator(int width, int heightMeasureSpec, ForkJoinPool pool) {
+        mWidth = width;
+        mHeightMeasureSpec = heightMeasureSpec;
+        mPool = pool;
+    }
+
+    /**
+     * Append rows with float aspect ratios (width / height)
+     */
+    public void append(float[] ratios) {
+        ensureCapacity(mCount + ratios.length);
+        calculate(mWidth, mHeightMeasureSpec, ratios, null, ratios.length, mHeights, mOffsets,
+                mCount, mPool);
+        mCount += ratios.length;
+    }
+
+    /**
+     * Append rows with aspect ratios packed as pairs of ints
+     */
+    public void append(int[] ratios) {
+        int count = checkPackedRatios(ratios);
+        ensureCapacity(mCount + count);
+        calculate(mWidth, mHeightMeasureSpec, null, ratios, count, mHeights, mOffsets, mCount,
+                mPool);
+        mCount += count;
+    }
+
+    /**
+     * Remove every row
+     */
+    public void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Get the number of rows
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Get the height of a row
+     */
+    public int getHeight(int position) {
+        checkPosition(position, mCount);
+        return mHeights[position];
+    }
+
+    /**
+     * Get the offset of the top of a row from the top of the first row
+     *
+     * @param position the position of the row, or the number of rows for the total height
+     */
+    public int getOffset(int position) {
+        checkPosition(position, mCount + 1);
+        return mOffsets[position];
+    }
+
+    /**
+     * Get the sum of the heights of every row
+     */
+    public int getTotalHeight() {
+        return mOffsets[mCount];
+    }
+
+    /**
+     * Find the row at an offset from the top of the first row
+     *
+     * @return the position of the row, clamped to the first or last row if the offset is out of
+     *         bounds, or -1 if there are no rows
+     */
+    public int findPosition(int offset) {
+        if (mCount == 0) {
+            return -1;
+        }
+
+        // Find the last row whose top is at or above the offset
+        int low = 0;
+        int high = mCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mOffsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int count) {
+        if (count > mHeights.length) {
+            int capacity = Math.max(count, mHeights.length * 2);
+            int[] heights = new int[capacity];
+            int[] offsets = new int[capacity + 1];
+            System.arraycopy(mHeights, 0, heights, 0, mCount);
+            System.arraycopy(mOffsets, 0, offsets, 0, mCount + 1);
+            mHeights = heights;
+            mOffsets = offsets;
+        }
+    }
+
+    /**
+     * Calculate the heights and offsets of rows with float aspect ratios (width / height) on the
+     * calling thread
+     *
+     * @param width the width of every row
+     * @param heightMeasureSpec the measure spec the rows are measured with
+     * @param ratios the aspect ratio of each row
+     * @param heights filled with the height of each row. Must be at least as long as the ratios.
+     * @param offsets filled with the offset of the top of each row followed by the total height.
+     *                Must be at least one longer than the ratios.
+     */
+    public static void calculate(int width, int heightMeasureSpec, float[] ratios, int[] heights,
+                                 int[] offsets) {
+        calculate(width, heightMeasureSpec, ratios, heights, offsets, null);
+    }
+
+    /**
+     * Calculate the heights and offsets of rows with float aspect ratios (width / height),
+     * splitting large batches across a pool
+     *
+     * @param pool the pool to calculate large batches on, or null to use the calling thread
+     * @see #calculate(int, int, float[], int[], int[])
+     */
+    public static void calculate(int width, int heightMeasureSpec, float[] ratios, int[] heights,
+                                 int[] offsets, ForkJoinPool pool) {
+        checkOutputs(ratios.length, heights, offsets);
+        offsets[0] = 0;
+        calculate(width, heightMeasureSpec, ratios, null, ratios.length, heights, offsets, 0,
+                pool);
+    }
+
+    /**
+     * Calculate the heights and offsets of rows with aspect ratios packed as pairs of ints on the
+     * calling thread
+     *
+     * @param width the width of every row
+     * @param heightMeasureSpec the measure spec the rows are measured with
+     * @param ratios the width and height terms of the aspect ratio of each row
+     * @param heights filled with the height of each row. Must be at least half as long as the
+     *                ratios.
+     * @param offsets filled with the offset of the top of each row followed by the total height.
+     *                Must be at least one longer than the heights.
+     */
+    public static void calculate(int width, int heightMeasureSpec, int[] ratios, int[] heights,
+                                 int[] offsets) {
+        calculate(width, heightMeasureSpec, ratios, heights, offsets, null);
+    }
+
+    /**
+     * Calculate the heights and offsets of rows with aspect ratios packed as pairs of ints,
+     * splitting large batches across a pool
+     *
+     * @param pool the pool to calculate large batches on, or null to use the calling thread
+     * @see #calculate(int, int, int[], int[], int[])
+     */
+    public static void calculate(int width, int heightMeasureSpec, int[] ratios, int[] heights,
+                                 int[] offsets, ForkJoinPool pool) {
+        int count = checkPackedRatios(ratios);
+        checkOutputs(count, heights, offsets);
+        offsets[0] = 0;
+        calculate(width, heightMeasureSpec, null, ratios, count, heights, offsets, 0, pool);
+    }
+
+    /**
+     * Calculate rows {@code start} to {@code start + count}, continuing from the offset already
+     * stored at {@code offsets[start]}. Exactly one of the ratio arrays is set.
+     */
+    private static void calculate(int width, int heightMeasureSpec, float[] floatRatios,
+                                  int[] packedRatios, int count, int[] heights, int[] offsets,
+                                  int start, ForkJoinPool pool) {
+        Batch batch = new Batch(width, heightMeasureSpec, floatRatios, packedRatios, count,
+                heights, offsets, start);
+
+        int blockCount = (count + PARALLEL_BLOCK_SIZE - 1) / PARALLEL_BLOCK_SIZE;
+        if (pool == null || blockCount < 2) {
+            batch.calculateHeights(0, count);
+            batch.calculateOffsets(0, count, offsets[start]);
+            return;
+        }
+
+        // Calculate the heights and the total height of each block in parallel, add up the block
+        // totals, then fill in the offsets of each block in parallel
+        batch.mBlockTotals = new int[blockCount];
+        pool.invoke(new BlockTask(batch, 0, blockCount, false));
+
+        int[] blockOffsets = new int[blockCount];
+        int offset = offsets[start];
+        for (int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = offset;
+            offset += batch.mBlockTotals[i];
+        }
+        batch.mBlockOffsets = blockOffsets;
+        pool.invoke(new BlockTask(batch, 0, blockCount, true));
+    }
+
+    private static int calculateHeight(int width, int heightMeasureSpec, float ratio) {
+        // Convert the ratio the same way AspectRatioImageView.setAspectRatio(float) does, so that
+        // the height is rounded exactly like the view's
+        long aspectRatio = AspectRatios.approximateAspectRatio(ratio);
+        return AspectRatioMeasurer.calculateDesiredHeightForWidth(width, heightMeasureSpec,
+                Dimensions.width(aspectRatio), Dimensions.height(aspectRatio));
+    }
+
+    private static int checkPackedRatios(int[] ratios) {
+        if (ratios.length % 2 != 0) {
+            throw new IllegalArgumentException("Packed ratios must come in pairs");
+        }
+        return ratios.length / 2;
+    }
+
+    private static void checkOutputs(int count, int[] heights, int[] offsets) {
+        if (heights.length < count || offsets.length < count + 1) {
+            throw new IllegalArgumentException("Output arrays are too short for " + count
+                    + " rows");
+        }
+    }
+
+    private static void checkPosition(int position, int bound) {
+        if (position < 0 || position >= bound) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is "
+                    + bound);
+        }
+    }
+
+    /**
+     * The inputs and outputs of a single calculation
+     */
+    private static final class Batch {
+        private final int mWidth;
+        private final int mHeightMeasureSpec;
+        private final float[] mFloatRatios;
+        private final int[] mPackedRatios;
+        private final int mCount;
+        private final int[] mHeights;
+        private final int[] mOffsets;
+        private final int mStart;
+
+        // Only used by parallel calculations
+        private int[] mBlockTotals;
+        private int[] mBlockOffsets;
+
+        Batch(int width, int heightMeasureSpec, float[] floatRatios, int[] packedRatios, int count,
+              int[] heights, int[] offsets, int start) {
+            mWidth = width;
+            mHeightMeasureSpec = heightMeasureSpec;
+            mFloatRatios = floatRatios;
+            mPackedRatios = packedRatios;
+            mCount = count;
+            mHeights = heights;
+            mOffsets = offsets;
+            mStart = start;
+        }
+
+        /**
+         * Calculate the heights of items {@code from} to {@code to} of the batch
+         *
+         * @return the sum of the heights
+         */
+        int calculateHeights(int from, int to) {
+            int total = 0;
+            if (mFloatRatios != null) {
+                for (int i = from; i < to; i++) {
+                    int height = calculateHeight(mWidth, mHeightMeasureSpec, mFloatRatios[i]);
+                    mHeights[mStart + i] = height;
+                    total += height;
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    int height = AspectRatioMeasurer.calculateDesiredHeightForWidth(mWidth,
+                            mHeightMeasureSpec, mPackedRatios[2 * i], mPackedRatios[2 * i + 1]);
+                    mHeights[mStart + i] = height;
+                    total += height;
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Fill in the offsets after items {@code from} to {@code to} of the batch, starting from
+         * the offset of item {@code from}
+         */
+        void calculateOffsets(int from, int to, int offset) {
+            for (int i = from; i < to; i++) {
+                offset += mHeights[mStart + i];
+                mOffsets[mStart + i + 1] = offset;
+            }
+        }
+
+        void calculateBlock(int block, boolean offsets) {
+            int from = block * PARALLEL_BLOCK_SIZE;
+            int to = Math.min(from + PARALLEL_BLOCK_SIZE, mCount);
+            if (offsets) {
+                calculateOffsets(from, to, mBlockOffsets[block]);
+            } else {
+                mBlockTotals[block] = calculateHeights(from, to);
+            }
+        }
+    }
+
+    /**
+     * Splits a range of blocks of a batch in half until each task has a single block
+     */
+    private static final class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Batch mBatch;
+        private final int mFirstBlock;
+        private final int mEndBlock;
+        private final boolean mOffsets;
+
+        BlockTask(Batch batch, int firstBlock, int endBlock, boolean offsets) {
+            mBatch = batch;
+            mFirstBlock = firstBlock;
+            mEndBlock = endBlock;
+            mOffsets = offsets;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEndBlock - mFirstBlock == 1) {
+                mBatch.calculateBlock(mFirstBlock, mOffsets);
+            } else {
+                int middle = (mFirstBlock + mEndBlock) >>> 1;
+                invokeAll(new BlockTask(mBatch, mFirstBlock, middle, mOffsets),
+                        new BlockTask(mBatch, middle, mEndBlock, mOffsets));
+            }
+        }
+    }
+}
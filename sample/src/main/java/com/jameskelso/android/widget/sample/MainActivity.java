@@ -5,11 +5,19 @@ import android.os.Bundle;
 
 
 public class MainActivity extends ListActivity {
+    private SampleAdapter mAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        setListAdapter(new SampleAdapter(this));
+        mAdapter = new SampleAdapter(this);
+        setListAdapter(mAdapter);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mAdapter.release();
+        super.onDestroy();
     }
 }
@@ -10,9 +10,15 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 
+import com.jameskelso.android.widget.AspectRatioImageView;
+import com.jameskelso.android.widget.AspectRatioViewPool;
+import com.jameskelso.android.widget.core.AspectRatios;
 import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Created by jkelso on 1/16/15.
  */
@@ -20,13 +26,31 @@ public class SampleAdapter extends BaseAdapter {
     private static final int VIEW_TYPE_STANDARD = 0;
     private static final int VIEW_TYPE_DEFAULT_SIZE = 1;
 
+    // Rows inflated ahead of time so that flinging into new content doesn't inflate on the main
+    // thread
+    private static final int PREINFLATED_ROWS = 4;
+
     private Context mContext;
     private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mInflateExecutor = Executors.newSingleThreadExecutor();
+    private AspectRatioViewPool mViewPool;
 
     public SampleAdapter(Context ctx) {
         this.mContext = ctx;
     }
 
+    /**
+     * Stop pending image loads and shut down the inflation thread. Call this when the list is
+     * destroyed.
+     */
+    public void release() {
+        mHandler.removeCallbacksAndMessages(null);
+        if (mViewPool != null) {
+            mViewPool.clear();
+        }
+        mInflateExecutor.shutdown();
+    }
+
     @Override
     public int getCount() {
         return 2;
@@ -67,8 +91,12 @@ public class SampleAdapter extends BaseAdapter {
                 view = LayoutInflater.from(mContext).inflate(R.layout.item_standard, parent, false);
                 break;
             case VIEW_TYPE_DEFAULT_SIZE:
-                view = LayoutInflater.from(mContext).inflate(R.layout.item_aspect_ratio, parent,
-                        false);
+                if (mViewPool == null) {
+                    mViewPool = new AspectRatioViewPool(mContext, R.layout.item_aspect_ratio,
+                            parent, PREINFLATED_ROWS, mInflateExecutor);
+                }
+                view = mViewPool.acquire();
+                mViewPool.prefetch(PREINFLATED_ROWS);
                 break;
         }
 
@@ -76,6 +104,27 @@ public class SampleAdapter extends BaseAdapter {
     }
 
     private void loadImage(final ImageView into) {
+        if (into instanceof AspectRatioImageView) {
+            // The AspectRatioImageView knows its size as soon as it is measured, so the request
+            // can start right after the measure pass instead of waiting for a layout. The
+            // listener is called from inside onMeasure, where Picasso must not touch the view, so
+            // the request is posted.
+            ((AspectRatioImageView) into).setOnSizeResolvedListener(
+                    new AspectRatioImageView.OnSizeResolvedListener() {
+                        @Override
+                        public void onSizeResolved(final AspectRatioImageView view,
+                                                   final int width, final int height) {
+                            view.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    requestImage(view, width, height);
+                                }
+                            });
+                        }
+                    });
+            return;
+        }
+
         int width = into.getWidth();
 
         if (width == 0) {
@@ -88,29 +137,33 @@ public class SampleAdapter extends BaseAdapter {
                 }
             });
         } else {
+            // Use the same integer math as the view so the decoded image matches its size exactly
             int desiredWidth = into.getWidth();
-            float aspectRatio = 3415f / 2268f;
-            int desiredHeight = Math.round(desiredWidth / aspectRatio);
-
-            Picasso.with(mContext)
-                    .load("http://upload.wikimedia.org/wikipedia/commons/1/1e/Large_Siamese_cat_tosses_a_mouse.jpg")
-                    .skipMemoryCache()
-                    .resize(desiredWidth, desiredHeight)
-                    .into(into, new Callback() {
-
-                                @Override
-                                public void onSuccess() {
-                                    Log.i(this.getClass().getSimpleName(), "Successfully loaded image");
-                                }
+            int desiredHeight = AspectRatios.calculateHeightForWidth(desiredWidth, 3415, 2268);
 
-                                @Override
-                                public void onError() {
-                                    Log.e(this.getClass().getSimpleName(), "Error loading image");
-                                }
-                            });
+            requestImage(into, desiredWidth, desiredHeight);
         }
     }
 
+    private void requestImage(ImageView into, int desiredWidth, int desiredHeight) {
+        Picasso.with(mContext)
+                .load("http://upload.wikimedia.org/wikipedia/commons/1/1e/Large_Siamese_cat_tosses_a_mouse.jpg")
+                .skipMemoryCache()
+                .resize(desiredWidth, desiredHeight)
+                .into(into, new Callback() {
+
+                            @Override
+                            public void onSuccess() {
+                                Log.i(this.getClass().getSimpleName(), "Successfully loaded image");
+                            }
+
+                            @Override
+                            public void onError() {
+                                Log.e(this.getClass().getSimpleName(), "Error loading image");
+                            }
+                        });
+    }
+
     @Override
     public int getItemViewType(int position) {
         switch(position) {
@@ -0,0 +1,172 @@
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class AspectRatioBitmapDecoderTest extends AndroidTestCase {
+    private static final int SOURCE_WIDTH = 1600;
+    private static final int SOURCE_HEIGHT = 900;
+
+    private byte[] mEncodedImage;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Bitmap source = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.compress(Bitmap.CompressFormat.PNG, 100, out);
+        source.recycle();
+        mEncodedImage = out.toByteArray();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mEncodedImage = null;
+        super.tearDown();
+    }
+
+    public void testCalculateInSampleSizeSmallerSource() {
+        assertEquals(1, AspectRatioBitmapDecoder.calculateInSampleSize(100, 100, 200, 200));
+    }
+
+    public void testCalculateInSampleSizeExactPowerOfTwo() {
+        assertEquals(4, AspectRatioBitmapDecoder.calculateInSampleSize(1600, 900, 400, 225));
+    }
+
+    public void testCalculateInSampleSizeKeepsBothDimensionsCovered() {
+        assertEquals(2, AspectRatioBitmapDecoder.calculateInSampleSize(1600, 900, 300, 300));
+    }
+
+    public void testDecodeStreamWidth() throws Exception {
+        Bitmap bitmap = AspectRatioBitmapDecoder.decodeStream(stream(), 320, 180);
+        assertEquals(320, bitmap.getWidth());
+    }
+
+    public void testDecodeStreamHeight() throws Exception {
+        Bitmap bitmap = AspectRatioBitmapDecoder.decodeStream(stream(), 320, 180);
+        assertEquals(180, bitmap.getHeight());
+    }
+
+    public void testDecodeStreamCoversTarget() throws Exception {
+        Bitmap bitmap = AspectRatioBitmapDecoder.decodeStream(stream(), 300, 300);
+        assertEquals(300, bitmap.getHeight());
+        assertTrue(bitmap.getWidth() >= 300);
+    }
+
+    public void testDecodeStreamEmptyTarget() throws Exception {
+        assertNull(AspectRatioBitmapDecoder.decodeStream(stream(), 0, 0));
+    }
+
+    public void testDecodeStreamUnmeasuredView() throws Exception {
+        try {
+            AspectRatioBitmapDecoder.decodeStream(stream(), new AspectRatioImageView(getContext()));
+            fail("Decoding for a view that has not been measured should throw an exception.");
+        } catch (IllegalStateException e) {
+            // This exception is supposed to occur
+        }
+    }
+
+    public void testDecodeStreamReusesPooledBitmap() throws Exception {
+        if (!AspectRatioBitmapPool.canReuseDifferentSizes()) {
+            return;
+        }
+
+        // Odd dimensions, which the PNG decoder rounds down when sampling
+        Bitmap source = Bitmap.createBitmap(SOURCE_WIDTH + 1, SOURCE_HEIGHT + 1,
+                Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.compress(Bitmap.CompressFormat.PNG, 100, out);
+        source.recycle();
+        byte[] encodedImage = out.toByteArray();
+
+        AspectRatioBitmapPool pool = new AspectRatioBitmapPool(SOURCE_WIDTH * SOURCE_HEIGHT * 4);
+        Bitmap first = AspectRatioBitmapDecoder.decodeStream(
+                new ByteArrayInputStream(encodedImage), 320, 180, pool);
+        assertEquals(320, first.getWidth());
+        assertEquals(180, first.getHeight());
+
+        pool.put(first);
+        Bitmap second = AspectRatioBitmapDecoder.decodeStream(
+                new ByteArrayInputStream(encodedImage), 320, 180, pool);
+        assertSame(first, second);
+        assertEquals(1, pool.getHitCount());
+    }
+
+    public void testDecodeStreamIntoPooledBitmapBoundsMark() throws Exception {
+        if (!AspectRatioBitmapPool.canReuseDifferentSizes()) {
+            return;
+        }
+
+        AspectRatioBitmapPool pool = new AspectRatioBitmapPool(SOURCE_WIDTH * SOURCE_HEIGHT * 4);
+        pool.put(Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888));
+
+        MarkLimitInputStream in = new MarkLimitInputStream(new ByteArrayInputStream(mEncodedImage));
+        Bitmap bitmap = AspectRatioBitmapDecoder.decodeStream(in, 320, 180, pool);
+
+        assertNotNull(bitmap);
+        assertEquals(1, pool.getHitCount());
+        assertTrue(in.mMaxReadLimit <= AspectRatioBitmapDecoder.MARK_LIMIT);
+    }
+
+    public void testCalculateCenterCropRegionCropsSides() {
+        assertEquals(new Rect(350, 0, 1250, 900),
+                AspectRatioBitmapDecoder.calculateCenterCropRegion(1600, 900, 300, 300));
+    }
+
+    public void testCalculateCenterCropRegionCropsTopAndBottom() {
+        assertEquals(new Rect(0, 225, 1600, 675),
+                AspectRatioBitmapDecoder.calculateCenterCropRegion(1600, 900, 320, 90));
+    }
+
+    public void testCalculateCenterCropRegionSameRatio() {
+        assertEquals(new Rect(0, 0, 1600, 900),
+                AspectRatioBitmapDecoder.calculateCenterCropRegion(1600, 900, 320, 180));
+    }
+
+    public void testDecodeStreamRegion() throws Exception {
+        // The visible 900x900 square is sampled by 2 and stays larger than the target
+        Bitmap bitmap = AspectRatioBitmapDecoder.decodeStreamRegion(stream(), 300, 300);
+        assertEquals(450, bitmap.getWidth());
+        assertEquals(450, bitmap.getHeight());
+    }
+
+    public void testDecodeStreamRegionEmptyTarget() throws Exception {
+        assertNull(AspectRatioBitmapDecoder.decodeStreamRegion(stream(), 0, 0));
+    }
+
+    public void testDecodeStreamRegionUnsupportedFormat() throws Exception {
+        // BitmapRegionDecoder either rejects the stream or returns no decoder, but never crashes
+        byte[] notAnImage = {'G', 'I', 'F', '8', '9', 'a', 0, 0, 0, 0};
+        try {
+            assertNull(AspectRatioBitmapDecoder.decodeStreamRegion(
+                    new ByteArrayInputStream(notAnImage), 300, 300));
+        } catch (IOException e) {
+            // Expected on versions that throw for unsupported formats
+        }
+    }
+
+    private InputStream stream() {
+        return new ByteArrayInputStream(mEncodedImage);
+    }
+
+    private static class MarkLimitInputStream extends FilterInputStream {
+        int mMaxReadLimit;
+
+        MarkLimitInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mMaxReadLimit = Math.max(mMaxReadLimit, readLimit);
+            super.mark(readLimit);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+public class AspectRatioBitmapPoolTest extends AndroidTestCase {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 50;
+    private static final int BITMAP_BYTES = WIDTH * HEIGHT * 4;
+
+    private AspectRatioBitmapPool mPool;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mPool = new AspectRatioBitmapPool(BITMAP_BYTES * 2);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mPool.clear();
+        mPool = null;
+        super.tearDown();
+    }
+
+    public void testGetEmpty() {
+        assertNull(mPool.get(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+        assertEquals(1, mPool.getMissCount());
+    }
+
+    public void testPutThenGet() {
+        Bitmap bitmap = createBitmap();
+        mPool.put(bitmap);
+        assertSame(bitmap, mPool.get(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+        assertEquals(1, mPool.getHitCount());
+        assertEquals(0, mPool.getCurrentBytes());
+    }
+
+    public void testGetDifferentConfig() {
+        mPool.put(createBitmap());
+        assertNull(mPool.get(WIDTH, HEIGHT, Bitmap.Config.RGB_565));
+    }
+
+    public void testPutImmutableIgnored() {
+        Bitmap bitmap = createBitmap().copy(Bitmap.Config.ARGB_8888, false);
+        mPool.put(bitmap);
+        assertEquals(0, mPool.getCurrentBytes());
+    }
+
+    public void testPutEvictsLeastRecentlyPooled() {
+        Bitmap first = createBitmap();
+        Bitmap second = createBitmap();
+        Bitmap third = createBitmap();
+        mPool.put(first);
+        mPool.put(second);
+        mPool.put(third);
+
+        assertTrue(first.isRecycled());
+        assertFalse(second.isRecycled());
+        assertEquals(1, mPool.getEvictionCount());
+        assertEquals(BITMAP_BYTES * 2, mPool.getCurrentBytes());
+    }
+
+    public void testPutLargerThanPoolRecycled() {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH * 4, HEIGHT, Bitmap.Config.ARGB_8888);
+        mPool.put(bitmap);
+        assertTrue(bitmap.isRecycled());
+        assertEquals(0, mPool.getCurrentBytes());
+    }
+
+    public void testGetOrCreateRoundedBucket() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+
+        AspectRatioBitmapPool pool = new AspectRatioBitmapPool(BITMAP_BYTES * 4, 64);
+        Bitmap bitmap = pool.getOrCreate(WIDTH - 10, HEIGHT - 10, Bitmap.Config.ARGB_8888);
+        assertEquals(WIDTH - 10, bitmap.getWidth());
+
+        pool.put(bitmap);
+        assertSame(bitmap, pool.get(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+    }
+
+    public void testManySizes() {
+        // Enough sizes to grow the bucket table, then emptied in an order that leaves holes
+        AspectRatioBitmapPool pool = new AspectRatioBitmapPool(Integer.MAX_VALUE);
+        int sizes = 40;
+        for (int i = 1; i <= sizes; i++) {
+            pool.put(Bitmap.createBitmap(i, i, Bitmap.Config.ALPHA_8));
+        }
+        for (int i = 1; i <= sizes; i += 2) {
+            assertNotNull(pool.get(i, i, Bitmap.Config.ALPHA_8));
+        }
+        for (int i = 2; i <= sizes; i += 2) {
+            assertNotNull(pool.get(i, i, Bitmap.Config.ALPHA_8));
+            assertNull(pool.get(i, i, Bitmap.Config.ALPHA_8));
+        }
+
+        assertEquals(sizes, pool.getHitCount());
+        assertEquals(0, pool.getCurrentBytes());
+    }
+
+    public void testReclaimBitmap() {
+        AspectRatioImageView imageView = new AspectRatioImageView(getContext());
+        Bitmap bitmap = createBitmap();
+        imageView.setBitmapPool(mPool);
+        imageView.setPooledImageBitmap(bitmap);
+
+        imageView.reclaimBitmap();
+        assertNull(imageView.getDrawable());
+        assertSame(bitmap, mPool.get(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    private static Bitmap createBitmap() {
+        return Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,164 @@
+package com.jameskelso.android.widget;
+
+import android.test.AndroidTestCase;
+import android.view.View;
+
+public class AspectRatioFlowLayoutTest extends AndroidTestCase {
+    private static final int WIDTH = 1000;
+    private static final int TARGET_ROW_HEIGHT = 200;
+
+    private static final int EXACT_WIDTH = View.MeasureSpec.makeMeasureSpec(WIDTH,
+            View.MeasureSpec.EXACTLY);
+    private static final int WRAP_CONTENT = View.MeasureSpec.makeMeasureSpec(0,
+            View.MeasureSpec.UNSPECIFIED);
+
+    private AspectRatioFlowLayout mLayout;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mLayout = new AspectRatioFlowLayout(getContext());
+        mLayout.setTargetRowHeight(TARGET_ROW_HEIGHT);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mLayout = null;
+        super.tearDown();
+    }
+
+    public void testFullRowIsScaledToWidth() {
+        for (int i = 0; i < 4; i++) {
+            addChild(3, 2);
+        }
+        addChild(1, 1);
+        measureAndLayout();
+
+        assertEquals(2, mLayout.getRowCount());
+        for (int i = 0; i < 4; i++) {
+            View child = mLayout.getChildAt(i);
+            assertEquals(250, child.getMeasuredWidth());
+            assertEquals(167, child.getMeasuredHeight());
+            assertEquals(i * 250, child.getLeft());
+            assertEquals(0, child.getTop());
+        }
+
+        // The last row keeps the target height
+        View last = mLayout.getChildAt(4);
+        assertEquals(200, last.getMeasuredWidth());
+        assertEquals(200, last.getMeasuredHeight());
+        assertEquals(167, last.getTop());
+
+        assertEquals(WIDTH, mLayout.getMeasuredWidth());
+        assertEquals(367, mLayout.getMeasuredHeight());
+    }
+
+    public void testSpacing() {
+        mLayout.setTargetRowHeight(100);
+        mLayout.setSpacing(10);
+        for (int i = 0; i < 3; i++) {
+            addChild(4, 1);
+        }
+        measureAndLayout();
+
+        assertEquals(1, mLayout.getRowCount());
+        assertEquals(0, mLayout.getChildAt(0).getLeft());
+        assertEquals(327, mLayout.getChildAt(0).getWidth());
+        assertEquals(337, mLayout.getChildAt(1).getLeft());
+        assertEquals(326, mLayout.getChildAt(1).getWidth());
+        assertEquals(673, mLayout.getChildAt(2).getLeft());
+        assertEquals(WIDTH, mLayout.getChildAt(2).getRight());
+        assertEquals(82, mLayout.getChildAt(2).getHeight());
+    }
+
+    public void testGoneChildrenTakeNoSpace() {
+        addChild(3, 2);
+        addChild(3, 2).setVisibility(View.GONE);
+        addChild(3, 2);
+        measureAndLayout();
+
+        assertEquals(1, mLayout.getRowCount());
+        assertEquals(300, mLayout.getChildAt(2).getLeft());
+    }
+
+    public void testAppendOnlyLaysOutLastRow() {
+        for (int i = 0; i < 9; i++) {
+            addChild(3, 2);
+        }
+        measureAndLayout();
+        assertEquals(3, mLayout.getRowCount());
+        assertEquals(3, mLayout.getLastRowsLaidOut());
+
+        addChild(16, 9);
+        addChild(1, 1);
+        measureAndLayout();
+        assertEquals(1, mLayout.getLastRowsLaidOut());
+
+        // The result matches laying out every child from scratch
+        AspectRatioFlowLayout expected = new AspectRatioFlowLayout(getContext());
+        expected.setTargetRowHeight(TARGET_ROW_HEIGHT);
+        for (int i = 0; i < mLayout.getChildCount(); i++) {
+            AspectRatioImageView child = (AspectRatioImageView) mLayout.getChildAt(i);
+            AspectRatioImageView copy = new AspectRatioImageView(getContext());
+            copy.setOriginalImageWidthAndHeight(child.getAspectRatioWidth(),
+                    child.getAspectRatioHeight());
+            expected.addView(copy);
+        }
+        expected.measure(EXACT_WIDTH, WRAP_CONTENT);
+        expected.layout(0, 0, expected.getMeasuredWidth(), expected.getMeasuredHeight());
+
+        assertEquals(expected.getRowCount(), mLayout.getRowCount());
+        assertEquals(expected.getMeasuredHeight(), mLayout.getMeasuredHeight());
+        for (int i = 0; i < mLayout.getChildCount(); i++) {
+            View child = mLayout.getChildAt(i);
+            View expectedChild = expected.getChildAt(i);
+            assertEquals(expectedChild.getLeft(), child.getLeft());
+            assertEquals(expectedChild.getTop(), child.getTop());
+            assertEquals(expectedChild.getWidth(), child.getWidth());
+            assertEquals(expectedChild.getHeight(), child.getHeight());
+        }
+    }
+
+    public void testRatioChangeLaysOutFromItsRow() {
+        for (int i = 0; i < 9; i++) {
+            addChild(3, 2);
+        }
+        measureAndLayout();
+
+        // The child is measured with exact specs, so only the layout can see that it changed
+        ((AspectRatioImageView) mLayout.getChildAt(5)).setOriginalImageWidthAndHeight(1, 1);
+        assertTrue(mLayout.isLayoutRequested());
+
+        measureAndLayout();
+        assertEquals(3, mLayout.getRowCount());
+        assertEquals(2, mLayout.getLastRowsLaidOut());
+        assertEquals(182, mLayout.getChildAt(5).getHeight());
+        assertEquals(mLayout.getChildAt(5).getWidth(), mLayout.getChildAt(5).getHeight());
+    }
+
+    public void testUnchangedChildrenLayOutNothing() {
+        for (int i = 0; i < 9; i++) {
+            addChild(3, 2);
+        }
+        measureAndLayout();
+
+        assertFalse(mLayout.isLayoutRequested());
+
+        mLayout.forceLayout();
+        measureAndLayout();
+        assertEquals(3, mLayout.getRowCount());
+        assertEquals(0, mLayout.getLastRowsLaidOut());
+    }
+
+    private AspectRatioImageView addChild(int width, int height) {
+        AspectRatioImageView child = new AspectRatioImageView(getContext());
+        child.setOriginalImageWidthAndHeight(width, height);
+        mLayout.addView(child);
+        return child;
+    }
+
+    private void measureAndLayout() {
+        mLayout.measure(EXACT_WIDTH, WRAP_CONTENT);
+        mLayout.layout(0, 0, mLayout.getMeasuredWidth(), mLayout.getMeasuredHeight());
+    }
+}
@@ -0,0 +1,142 @@
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+/**
+ * Enforces that {@link AspectRatioImageView#onMeasure(int, int)},
+ * {@link AspectRatioImageView#onDraw(Canvas)} and the aspect ratio setters never allocate. Each
+ * runs thousands of times after a warm up, and more allocations than the counting itself can
+ * make fail the test. The core code they use is covered on a plain JVM by AllocationTest in the
+ * benchmark module.
+ */
+@SuppressWarnings("deprecation")
+public class AspectRatioImageViewAllocationTest extends AndroidTestCase {
+    private static final int WARM_UP_CALLS = 1000;
+    private static final int CALLS = 5000;
+
+    // Allocations the runtime may make while starting and stopping the counter, independent of
+    // the number of calls
+    private static final int MAX_HARNESS_ALLOCATIONS = 2;
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 180;
+    private static final int[] WIDTH_SPECS = {
+            View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(WIDTH / 2, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.AT_MOST)
+    };
+    private static final int WRAP_CONTENT = 0;
+
+    private interface Operation {
+        void run(int call);
+    }
+
+    private AspectRatioImageView mImageView;
+    private Canvas mCanvas;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mImageView = new AspectRatioImageView(getContext());
+        mImageView.setOriginalImageWidthAndHeight(16, 9);
+        mImageView.measure(WIDTH_SPECS[0], WRAP_CONTENT);
+        mImageView.layout(0, 0, WIDTH, HEIGHT);
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mImageView = null;
+        mCanvas = null;
+        super.tearDown();
+    }
+
+    public void testMeasureFromSpecs() {
+        assertNoAllocations("onMeasure", new Operation() {
+            @Override
+            public void run(int call) {
+                mImageView.forceLayout();
+                mImageView.measure(WIDTH_SPECS[call % WIDTH_SPECS.length], WRAP_CONTENT);
+            }
+        });
+    }
+
+    public void testMeasureFromSuper() {
+        mImageView.setImageBitmap(Bitmap.createBitmap(16, 9, Bitmap.Config.RGB_565));
+        assertNoAllocations("onMeasure from ImageView", new Operation() {
+            @Override
+            public void run(int call) {
+                mImageView.forceLayout();
+                mImageView.measure(WRAP_CONTENT, WRAP_CONTENT);
+            }
+        });
+    }
+
+    public void testDrawPlaceholderColor() {
+        mImageView.setPlaceholderColor(Color.GRAY);
+        assertDrawAllocatesNothing();
+    }
+
+    public void testDrawPlaceholderBitmap() {
+        mImageView.setPlaceholderBitmap(Bitmap.createBitmap(12, 12, Bitmap.Config.RGB_565));
+        assertDrawAllocatesNothing();
+    }
+
+    public void testDrawImage() {
+        mImageView.setImageBitmap(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.RGB_565));
+        assertDrawAllocatesNothing();
+    }
+
+    public void testSetAspectRatio() {
+        final float[] ratios = {16f / 9f, 4f / 3f, 1f};
+        assertNoAllocations("setAspectRatio", new Operation() {
+            @Override
+            public void run(int call) {
+                mImageView.setAspectRatio(ratios[call % ratios.length]);
+            }
+        });
+    }
+
+    public void testSetOriginalImageWidthAndHeight() {
+        assertNoAllocations("setOriginalImageWidthAndHeight", new Operation() {
+            @Override
+            public void run(int call) {
+                mImageView.setOriginalImageWidthAndHeight(3415 + call % 3, 2268);
+            }
+        });
+    }
+
+    private void assertDrawAllocatesNothing() {
+        assertNoAllocations("onDraw", new Operation() {
+            @Override
+            public void run(int call) {
+                mImageView.onDraw(mCanvas);
+            }
+        });
+    }
+
+    private static void assertNoAllocations(String name, Operation operation) {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            operation.run(i);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        try {
+            for (int i = 0; i < CALLS; i++) {
+                operation.run(i);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        int count = Debug.getThreadAllocCount();
+        assertTrue(name + " made " + count + " allocations in " + CALLS + " calls",
+                count <= MAX_HARNESS_ALLOCATIONS);
+    }
+}
@@ -1,11 +1,18 @@
 package com.jameskelso.android.widget;
 
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.test.AndroidTestCase;
 import android.view.LayoutInflater;
 import android.view.View;
 
+import com.jameskelso.android.widget.core.AspectRatios;
+import com.jameskelso.android.widget.core.PrecomputedMeasure;
 import com.jameskelso.android.widget.tests.R;
 
 /**
@@ -34,7 +41,8 @@ public class AspectRatioImageViewTest extends AndroidTestCase {
         super.setUp();
         mImageView = new AspectRatioImageView(getContext());
         mState = new AspectRatioImageView.SavedState(new Bundle());
-        mState.aspectRatio = ASPECT_RATIO_1;
+        mState.aspectRatioWidth = 16;
+        mState.aspectRatioHeight = 9;
 
         mParcel = Parcel.obtain();
         mState.writeToParcel(mParcel, 0);
@@ -78,6 +86,14 @@ public class AspectRatioImageViewTest extends AndroidTestCase {
         assertEquals(ASPECT_RATIO_2, imageView.getAspectRatio());
     }
 
+    public void testAttrsAspectRatioString() {
+        AspectRatioImageView imageView = (AspectRatioImageView)
+                LayoutInflater.from(getContext()).inflate(R.layout.aspect_string, null,
+                        false);
+        assertEquals(16, imageView.getAspectRatioWidth());
+        assertEquals(9, imageView.getAspectRatioHeight());
+    }
+
     public void testAttrsHeightAndAspectRatioOnly() {
         AspectRatioImageView imageView = (AspectRatioImageView)
                 LayoutInflater.from(getContext()).inflate(R.layout.height_and_aspect, null,
@@ -109,6 +125,29 @@ public class AspectRatioImageViewTest extends AndroidTestCase {
         assertEquals(ASPECT_RATIO_2, mImageView.getAspectRatio());
     }
 
+    public void testSetAspectRatioReducesToIntegerRatio() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        assertEquals(16, mImageView.getAspectRatioWidth());
+        assertEquals(9, mImageView.getAspectRatioHeight());
+    }
+
+    public void testSetOriginalWidthAndHeightReducesToLowestTerms() {
+        mImageView.setOriginalImageWidthAndHeight(32, 18);
+        assertEquals(16, mImageView.getAspectRatioWidth());
+        assertEquals(9, mImageView.getAspectRatioHeight());
+    }
+
+    public void testOnMeasureOriginalWidthAndHeightMatchesIntegerMath() {
+        final int WIDTH = 501;
+        final int MATCH_PARENT_WIDTH = View.MeasureSpec.makeMeasureSpec(WIDTH,
+                View.MeasureSpec.EXACTLY);
+
+        mImageView.setOriginalImageWidthAndHeight(3415, 2268);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        assertEquals(AspectRatios.calculateHeightForWidth(WIDTH, 3415, 2268),
+                mImageView.getMeasuredHeight());
+    }
+
     public void testOnMeasureNoAspectRatioWidthMeasuredWidth() {
         mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
         assertEquals(PARENT_WIDTH, mImageView.getMeasuredWidth());
@@ -247,19 +286,369 @@ public class AspectRatioImageViewTest extends AndroidTestCase {
         assertEquals(HEIGHT, mImageView.getMeasuredHeight());
     }
 
+    public void testOnMeasureWidthWithAspectRatioIgnoresDrawableSize() {
+        mImageView.setImageBitmap(Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        assertEquals(PARENT_HEIGHT, mImageView.getMeasuredHeight());
+    }
+
+    public void testOnMeasureRepeatedWithAspectRatioMeasuredHeight() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.forceLayout();
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        assertEquals(PARENT_HEIGHT, mImageView.getMeasuredHeight());
+    }
+
+    public void testOnMeasureAfterAspectRatioChangeMeasuredHeight() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.setAspectRatio(ASPECT_RATIO_2);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        assertEquals(PARENT_WIDTH, mImageView.getMeasuredHeight());
+    }
+
+    public void testSetAspectRatioUnchangedSkipsLayout() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        assertFalse(mImageView.isLayoutRequested());
+        assertEquals(1, mImageView.getAvoidedLayoutCount());
+    }
+
+    public void testSetAspectRatioSameSizeSkipsLayout() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        // 300 / 1.7777 and 300 / 1.7780 both round to a height of 169
+        mImageView.setAspectRatio(1.778f);
+        assertFalse(mImageView.isLayoutRequested());
+        assertEquals(1, mImageView.getAvoidedLayoutCount());
+    }
+
+    public void testSetAspectRatioAfterExactMeasureRequestsLayout() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+
+        // A parent remeasuring with exact specs taken from the measured size, as LinearLayout
+        // does for weights
+        mImageView.measure(MATCH_PARENT_WIDTH, MATCH_PARENT_HEIGHT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        mImageView.setAspectRatio(1.778f);
+        assertTrue(mImageView.isLayoutRequested());
+        assertEquals(0, mImageView.getAvoidedLayoutCount());
+    }
+
+    public void testSetAspectRatioReducedUnchangedAfterExactMeasureSkipsLayout() {
+        mImageView.setOriginalImageWidthAndHeight(16, 9);
+        mImageView.measure(MATCH_PARENT_WIDTH, MATCH_PARENT_HEIGHT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        mImageView.setOriginalImageWidthAndHeight(1920, 1080);
+        assertFalse(mImageView.isLayoutRequested());
+        assertEquals(1, mImageView.getAvoidedLayoutCount());
+    }
+
+    public void testFirstAspectRatioRequestsLayout() {
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, 0);
+
+        mImageView.setOriginalImageWidthAndHeight(16, 9);
+        assertTrue(mImageView.isLayoutRequested());
+        assertEquals(0, mImageView.getAvoidedLayoutCount());
+    }
+
+    public void testSetAspectRatioNewSizeRequestsLayout() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        mImageView.setAspectRatio(ASPECT_RATIO_2);
+        assertTrue(mImageView.isLayoutRequested());
+        assertEquals(0, mImageView.getAvoidedLayoutCount());
+    }
+
+    public void testSetOriginalWidthAndHeightUnchangedSkipsLayout() {
+        mImageView.setOriginalImageWidthAndHeight(16, 9);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        mImageView.setOriginalImageWidthAndHeight(32, 18);
+        assertFalse(mImageView.isLayoutRequested());
+        assertEquals(1, mImageView.getAvoidedLayoutCount());
+    }
+
+    public void testSetImageBitmapWhenSizeLockedSkipsLayout() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+        assertTrue(mImageView.isSizeLockedByAspectRatio());
+
+        mImageView.setImageBitmap(Bitmap.createBitmap(160, 90, Bitmap.Config.ARGB_8888));
+        assertFalse(mImageView.isLayoutRequested());
+        assertEquals(1, mImageView.getAvoidedDrawableLayoutCount());
+    }
+
+    public void testSetImageBitmapSampledSizeWhenSizeLockedSkipsLayout() {
+        mImageView.setOriginalImageWidthAndHeight(3415, 2268);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, mImageView.getMeasuredHeight());
+
+        // 3415x2268 decoded with a sample size of 8
+        mImageView.setImageBitmap(Bitmap.createBitmap(426, 283, Bitmap.Config.ARGB_8888));
+        assertFalse(mImageView.isLayoutRequested());
+    }
+
+    public void testSetImageBitmapDifferentRatioRequestsLayout() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        mImageView.setImageBitmap(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+        assertTrue(mImageView.isLayoutRequested());
+        assertEquals(0, mImageView.getAvoidedDrawableLayoutCount());
+    }
+
+    public void testSetImageBitmapWithoutAspectRatioRequestsLayout() {
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+        assertFalse(mImageView.isSizeLockedByAspectRatio());
+
+        mImageView.setImageBitmap(Bitmap.createBitmap(160, 90, Bitmap.Config.ARGB_8888));
+        assertTrue(mImageView.isLayoutRequested());
+    }
+
+    public void testSizeNotLockedWhenMeasuredFromDrawable() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(WRAP_CONTENT, WRAP_CONTENT);
+        mImageView.layout(0, 0, 0, 0);
+        assertFalse(mImageView.isSizeLockedByAspectRatio());
+    }
+
+    public void testCalculateHeightForWidth() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        assertEquals(PARENT_HEIGHT, mImageView.calculateHeightForWidth(PARENT_WIDTH));
+    }
+
+    public void testCalculateWidthForHeight() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        assertEquals(PARENT_WIDTH, mImageView.calculateWidthForHeight(PARENT_HEIGHT));
+    }
+
+    public void testOnSizeResolvedListenerCalledFromMeasure() {
+        final int[] size = new int[2];
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.setOnSizeResolvedListener(new AspectRatioImageView.OnSizeResolvedListener() {
+            @Override
+            public void onSizeResolved(AspectRatioImageView view, int width, int height) {
+                size[0] = width;
+                size[1] = height;
+            }
+        });
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        assertEquals(PARENT_WIDTH, size[0]);
+        assertEquals(PARENT_HEIGHT, size[1]);
+    }
+
+    public void testOnSizeResolvedListenerCalledOnce() {
+        final int[] calls = new int[1];
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.setOnSizeResolvedListener(new AspectRatioImageView.OnSizeResolvedListener() {
+            @Override
+            public void onSizeResolved(AspectRatioImageView view, int width, int height) {
+                calls[0]++;
+            }
+        });
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.forceLayout();
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        assertEquals(1, calls[0]);
+    }
+
+    public void testOnSizeResolvedListenerNotCalledWithoutSize() {
+        final int[] calls = new int[1];
+        mImageView.setOnSizeResolvedListener(new AspectRatioImageView.OnSizeResolvedListener() {
+            @Override
+            public void onSizeResolved(AspectRatioImageView view, int width, int height) {
+                calls[0]++;
+            }
+        });
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        assertEquals(0, calls[0]);
+    }
+
+    public void testPrecomputedMeasureSetsAspectRatio() {
+        mImageView.setPrecomputedMeasure(PrecomputedMeasure.create(
+                AspectRatios.calculateAspectRatio(16, 9), MATCH_PARENT_WIDTH, WRAP_CONTENT));
+        assertEquals(16, mImageView.getAspectRatioWidth());
+        assertEquals(9, mImageView.getAspectRatioHeight());
+    }
+
+    public void testPrecomputedMeasureUsedWhenSpecsMatch() {
+        PrecomputedMeasure measure = PrecomputedMeasure.create(
+                AspectRatios.calculateAspectRatio(16, 9), MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.setPrecomputedMeasure(measure);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+
+        assertEquals(measure.getWidth(), mImageView.getMeasuredWidth());
+        assertEquals(measure.getHeight(), mImageView.getMeasuredHeight());
+    }
+
+    public void testPrecomputedMeasureIgnoredWhenRatioChanges() {
+        mImageView.setPrecomputedMeasure(PrecomputedMeasure.create(
+                AspectRatios.calculateAspectRatio(16, 9), MATCH_PARENT_WIDTH, WRAP_CONTENT));
+        mImageView.setAspectRatio(ASPECT_RATIO_2);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+
+        assertEquals(PARENT_WIDTH, mImageView.getMeasuredHeight());
+    }
+
+    public void testPlaceholderColorDoesNotRequestLayout() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        mImageView.layout(0, 0, PARENT_WIDTH, PARENT_HEIGHT);
+
+        mImageView.setPlaceholderColor(Color.RED);
+        assertTrue(mImageView.hasPlaceholder());
+        assertFalse(mImageView.isLayoutRequested());
+    }
+
+    public void testPlaceholderBlurHashIsShared() {
+        final String hash = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+        Bitmap first = AspectRatioPlaceholderCache.getBlurHashBitmap(hash);
+        mImageView.setPlaceholderBlurHash(hash);
+
+        assertTrue(mImageView.hasPlaceholder());
+        assertSame(first, AspectRatioPlaceholderCache.getBlurHashBitmap(hash));
+        assertEquals(AspectRatioPlaceholderCache.DECODE_SIZE, first.getWidth());
+    }
+
+    public void testPlaceholderClearedByDrawable() {
+        mImageView.setPlaceholderColor(Color.RED);
+        mImageView.setImageDrawable(new ColorDrawable(Color.BLUE));
+        assertFalse(mImageView.hasPlaceholder());
+    }
+
+    public void testPlaceholderClearedByResource() {
+        mImageView.setPlaceholderBlurHash("LEHV6nWB2yk8pyo0adR*.7kCMdnj");
+        mImageView.setImageResource(android.R.drawable.ic_delete);
+        assertFalse(mImageView.hasPlaceholder());
+    }
+
+    public void testPlaceholderClearedByUri() {
+        mImageView.setPlaceholderColor(Color.RED);
+        mImageView.setImageURI(Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://android/"
+                + android.R.drawable.ic_delete));
+        assertFalse(mImageView.hasPlaceholder());
+    }
+
+    public void testPlaceholderKeptWhenImageCleared() {
+        mImageView.setPlaceholderColor(Color.RED);
+        mImageView.setImageDrawable(null);
+        assertTrue(mImageView.hasPlaceholder());
+        mImageView.setImageResource(0);
+        assertTrue(mImageView.hasPlaceholder());
+        mImageView.setImageURI(null);
+        assertTrue(mImageView.hasPlaceholder());
+
+        mImageView.clearPlaceholder();
+        assertFalse(mImageView.hasPlaceholder());
+    }
+
     public void testOnSaveInstanceState() {
         final float aspectRatio = 3.5f;
         mImageView.setAspectRatio(aspectRatio);
         AspectRatioImageView.SavedState state = mImageView.onSaveInstanceState();
-        assertEquals(aspectRatio, state.aspectRatio);
+        assertEquals(7, state.aspectRatioWidth);
+        assertEquals(2, state.aspectRatioHeight);
     }
 
     public void testOnRestoreInstanceState() {
         final float aspectRatio = 7.2f;
         AspectRatioImageView.SavedState state = mImageView.onSaveInstanceState();
-        state.aspectRatio = aspectRatio;
+        state.aspectRatioWidth = 36;
+        state.aspectRatioHeight = 5;
         mImageView.onRestoreInstanceState(state);
-        assertEquals(aspectRatio, mImageView.mAspectRatio);
+        assertEquals(aspectRatio, mImageView.getAspectRatio());
+    }
+
+    public void testRestoredSizeIsReusedByFirstMeasure() {
+        // Without an aspect ratio the size comes from the drawable, which isn't loaded yet
+        // after a restore
+        mImageView.setImageBitmap(Bitmap.createBitmap(100, 50, Bitmap.Config.RGB_565));
+        mImageView.measure(WRAP_CONTENT, WRAP_CONTENT);
+        int width = mImageView.getMeasuredWidth();
+        int height = mImageView.getMeasuredHeight();
+        AspectRatioImageView.SavedState state = mImageView.onSaveInstanceState();
+
+        AspectRatioImageView restored = new AspectRatioImageView(getContext());
+        restored.onRestoreInstanceState(state);
+        restored.measure(WRAP_CONTENT, WRAP_CONTENT);
+        assertEquals(width, restored.getMeasuredWidth());
+        assertEquals(height, restored.getMeasuredHeight());
+
+        // Only the first pass reuses the saved size
+        restored.forceLayout();
+        restored.measure(WRAP_CONTENT, WRAP_CONTENT);
+        assertEquals(0, restored.getMeasuredWidth());
+    }
+
+    public void testRestoredSizeNotReusedForOtherSpecs() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        AspectRatioImageView.SavedState state = mImageView.onSaveInstanceState();
+
+        AspectRatioImageView restored = new AspectRatioImageView(getContext());
+        restored.onRestoreInstanceState(state);
+        restored.measure(View.MeasureSpec.makeMeasureSpec(PARENT_WIDTH * 2,
+                View.MeasureSpec.EXACTLY), WRAP_CONTENT);
+        assertEquals(PARENT_HEIGHT * 2, restored.getMeasuredHeight());
+    }
+
+    public void testRestoredSizeResolvesListenerImmediately() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        AspectRatioImageView.SavedState state = mImageView.onSaveInstanceState();
+
+        AspectRatioImageView restored = new AspectRatioImageView(getContext());
+        restored.onRestoreInstanceState(state);
+        final int[] size = new int[2];
+        restored.setOnSizeResolvedListener(new AspectRatioImageView.OnSizeResolvedListener() {
+            @Override
+            public void onSizeResolved(AspectRatioImageView view, int width, int height) {
+                size[0] = width;
+                size[1] = height;
+            }
+        });
+        assertEquals(PARENT_WIDTH, size[0]);
+        assertEquals(PARENT_HEIGHT, size[1]);
+    }
+
+    public void testSavedStateParcelsResolvedSizes() {
+        mImageView.setAspectRatio(ASPECT_RATIO_1);
+        mImageView.measure(MATCH_PARENT_WIDTH, WRAP_CONTENT);
+        AspectRatioImageView.SavedState state = mImageView.onSaveInstanceState();
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            state.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            AspectRatioImageView.SavedState read = new AspectRatioImageView.SavedState(parcel);
+
+            for (int i = 0; i < state.sizes.length; i++) {
+                assertEquals(state.widthMeasureSpecs[i], read.widthMeasureSpecs[i]);
+                assertEquals(state.heightMeasureSpecs[i], read.heightMeasureSpecs[i]);
+                assertEquals(state.aspectRatios[i], read.aspectRatios[i]);
+                assertEquals(state.sizes[i], read.sizes[i]);
+            }
+        } finally {
+            parcel.recycle();
+        }
     }
 
     public void testOnRestoreInstanceStateIllegal() {
@@ -274,7 +663,8 @@ public class AspectRatioImageViewTest extends AndroidTestCase {
 
     public void testSavedStateConstructoFromParcel() {
         AspectRatioImageView.SavedState state = new AspectRatioImageView.SavedState(mParcel);
-        assertEquals(ASPECT_RATIO_1, state.aspectRatio);
+        assertEquals(16, state.aspectRatioWidth);
+        assertEquals(9, state.aspectRatioHeight);
     }
 
     public void testConstructorWithParcelable() {
@@ -0,0 +1,103 @@
+package com.jameskelso.android.widget;
+
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import com.jameskelso.android.widget.core.AspectRatioMeasurer;
+import com.jameskelso.android.widget.core.Dimensions;
+
+public class AspectRatioInstrumentationTest extends AndroidTestCase {
+    private static final int EXACT_WIDTH = View.MeasureSpec.makeMeasureSpec(300,
+            View.MeasureSpec.EXACTLY);
+    private static final int WRAP_CONTENT = View.MeasureSpec.makeMeasureSpec(0,
+            View.MeasureSpec.UNSPECIFIED);
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        AspectRatioInstrumentation.reset();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        AspectRatioInstrumentation.reset();
+        super.tearDown();
+    }
+
+    public void testCountersFollowFlag() {
+        AspectRatioImageView view = new AspectRatioImageView(getContext());
+        view.measure(EXACT_WIDTH, WRAP_CONTENT);
+        view.setOriginalImageWidthAndHeight(16, 9);
+        view.measure(EXACT_WIDTH, WRAP_CONTENT);
+
+        AspectRatioInstrumentation.Snapshot snapshot = AspectRatioInstrumentation.snapshot();
+        if (AspectRatioInstrumentation.ENABLED) {
+            assertEquals(2, snapshot.measureCount);
+            assertEquals(1, snapshot.fastPathCount);
+            assertEquals(1, snapshot.slowPathCount);
+            assertEquals(1, snapshot.ratioChangeCount);
+            assertEquals(1, snapshot.sizeChangeCount);
+            assertEquals(1, snapshot.requestLayoutCount);
+        } else {
+            assertEquals(0, snapshot.measureCount);
+            assertEquals(0, snapshot.fastPathCount);
+            assertEquals(0, snapshot.slowPathCount);
+            assertEquals(0, snapshot.ratioChangeCount);
+            assertEquals(0, snapshot.sizeChangeCount);
+            assertEquals(0, snapshot.requestLayoutCount);
+        }
+    }
+
+    public void testMeasureHooks() {
+        long ratio16x9 = Dimensions.pack(16, 9);
+        long size = Dimensions.pack(300, 169);
+
+        // A first pass, a pass with the same ratio and a pass whose new ratio changes the size
+        AspectRatioInstrumentation.beginMeasure();
+        AspectRatioInstrumentation.endMeasure(false, Dimensions.NONE, Dimensions.NONE, size,
+                ratio16x9);
+        AspectRatioInstrumentation.beginMeasure();
+        AspectRatioInstrumentation.endMeasure(true, size, ratio16x9, size, ratio16x9);
+        AspectRatioInstrumentation.beginMeasure();
+        AspectRatioInstrumentation.endMeasure(true, size, ratio16x9, Dimensions.pack(300, 300),
+                Dimensions.pack(1, 1));
+
+        AspectRatioInstrumentation.Snapshot snapshot = AspectRatioInstrumentation.snapshot();
+        assertEquals(3, snapshot.measureCount);
+        assertEquals(2, snapshot.fastPathCount);
+        assertEquals(1, snapshot.slowPathCount);
+        assertTrue(snapshot.measureTimeNanos >= 0);
+        assertEquals(1, snapshot.sizeChangeCount);
+    }
+
+    public void testMeasureHooksIgnoreSizeChangesWithSameRatio() {
+        long ratio16x9 = Dimensions.pack(16, 9);
+
+        // A new width changes the size without a new ratio
+        AspectRatioInstrumentation.beginMeasure();
+        AspectRatioInstrumentation.endMeasure(true, Dimensions.pack(300, 169), ratio16x9,
+                Dimensions.pack(600, 338), ratio16x9);
+
+        assertEquals(0, AspectRatioInstrumentation.snapshot().sizeChangeCount);
+    }
+
+    public void testAspectRatioHooks() {
+        AspectRatioInstrumentation.onAspectRatioChanged(AspectRatioMeasurer.RATIO_UNCHANGED);
+        AspectRatioInstrumentation.onAspectRatioChanged(AspectRatioMeasurer.SIZE_UNCHANGED);
+        AspectRatioInstrumentation.onAspectRatioChanged(AspectRatioMeasurer.SIZE_CHANGED);
+        AspectRatioInstrumentation.onRequestLayout();
+
+        AspectRatioInstrumentation.Snapshot snapshot = AspectRatioInstrumentation.snapshot();
+        assertEquals(2, snapshot.ratioChangeCount);
+        assertEquals(0, snapshot.sizeChangeCount);
+        assertEquals(1, snapshot.requestLayoutCount);
+    }
+
+    public void testReset() {
+        AspectRatioImageView view = new AspectRatioImageView(getContext());
+        view.measure(EXACT_WIDTH, WRAP_CONTENT);
+        AspectRatioInstrumentation.reset();
+
+        assertEquals(0, AspectRatioInstrumentation.snapshot().measureCount);
+    }
+}
@@ -0,0 +1,159 @@
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class AspectRatioPixelCacheTest extends AndroidTestCase {
+    private static final String KEY = "http://example.com/image.jpg";
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    private static final int ENTRY_BYTES = 24 + WIDTH * HEIGHT * 4;
+
+    private File mDirectory;
+    private AspectRatioPixelCache mCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "pixel-cache-test");
+        deleteDirectory();
+        mCache = new AspectRatioPixelCache(mDirectory, ENTRY_BYTES * 2);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mCache = null;
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testPutAndGet() {
+        assertTrue(mCache.put(KEY, WIDTH, HEIGHT, createBitmap(Color.RED)));
+
+        Bitmap bitmap = mCache.get(KEY, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null);
+        assertNotNull(bitmap);
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+        assertEquals(Color.RED, bitmap.getPixel(WIDTH / 2, HEIGHT / 2));
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    public void testKeyedByTargetSize() {
+        mCache.put(KEY, WIDTH, HEIGHT, createBitmap(Color.RED));
+        assertNull(mCache.get(KEY, WIDTH * 2, HEIGHT * 2, Bitmap.Config.ARGB_8888, null));
+        assertNull(mCache.get(KEY, WIDTH, HEIGHT, Bitmap.Config.RGB_565, null));
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    public void testGetIntoPooledBitmap() {
+        AspectRatioBitmapPool pool = new AspectRatioBitmapPool(ENTRY_BYTES * 2);
+        Bitmap pooled = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        pool.put(pooled);
+        mCache.put(KEY, WIDTH, HEIGHT, createBitmap(Color.BLUE));
+
+        Bitmap bitmap = mCache.get(KEY, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, pool);
+        assertSame(pooled, bitmap);
+        assertEquals(Color.BLUE, bitmap.getPixel(0, 0));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        mCache.put("a", WIDTH, HEIGHT, createBitmap(Color.RED));
+        mCache.put("b", WIDTH, HEIGHT, createBitmap(Color.GREEN));
+        mCache.get("a", WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null);
+        mCache.put("c", WIDTH, HEIGHT, createBitmap(Color.BLUE));
+
+        assertEquals(2, mCache.size());
+        assertEquals(ENTRY_BYTES * 2, mCache.getCurrentBytes());
+        assertNotNull(mCache.get("a", WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null));
+        assertNull(mCache.get("b", WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null));
+    }
+
+    public void testGetDefersOrderOfUseToFlush() {
+        mCache.put(KEY, WIDTH, HEIGHT, createBitmap(Color.RED));
+        File entry = mDirectory.listFiles()[0];
+        assertTrue(entry.setLastModified(1000000L));
+
+        assertNotNull(mCache.get(KEY, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null));
+        assertEquals(1000000L, entry.lastModified());
+
+        mCache.flush();
+        assertTrue(entry.lastModified() > 1000000L);
+    }
+
+    public void testOrderOfUseSurvivesReopen() throws Exception {
+        mCache.put("a", WIDTH, HEIGHT, createBitmap(Color.RED));
+        mCache.put("b", WIDTH, HEIGHT, createBitmap(Color.GREEN));
+        for (File file : mDirectory.listFiles()) {
+            assertTrue(file.setLastModified(1000000L));
+        }
+        new File(mDirectory, Long.toHexString(AspectRatioPixelCache.hash("b", WIDTH, HEIGHT,
+                Bitmap.Config.ARGB_8888)) + ".px").setLastModified(2000000L);
+
+        // Using a makes it newer than b once flushed
+        mCache.get("a", WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null);
+        mCache.flush();
+
+        AspectRatioPixelCache reopened = new AspectRatioPixelCache(mDirectory, ENTRY_BYTES * 2);
+        reopened.put("c", WIDTH, HEIGHT, createBitmap(Color.BLUE));
+        assertNotNull(reopened.get("a", WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null));
+        assertNull(reopened.get("b", WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null));
+    }
+
+    public void testEntriesSurviveReopen() throws Exception {
+        mCache.put(KEY, WIDTH, HEIGHT, createBitmap(Color.RED));
+
+        AspectRatioPixelCache reopened = new AspectRatioPixelCache(mDirectory, ENTRY_BYTES * 2);
+        assertEquals(1, reopened.size());
+        Bitmap bitmap = reopened.get(KEY, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null);
+        assertEquals(Color.RED, bitmap.getPixel(0, 0));
+    }
+
+    public void testIncompleteEntriesAreDeletedOnOpen() throws Exception {
+        File temp = new File(mDirectory, "1234.tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        out.write(new byte[10]);
+        out.close();
+
+        new AspectRatioPixelCache(mDirectory, ENTRY_BYTES * 2);
+        assertFalse(temp.exists());
+    }
+
+    public void testCorruptEntryIsRemoved() throws Exception {
+        mCache.put(KEY, WIDTH, HEIGHT, createBitmap(Color.RED));
+        for (File file : mDirectory.listFiles()) {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[ENTRY_BYTES]);
+            out.close();
+        }
+
+        assertNull(mCache.get(KEY, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888, null));
+        assertEquals(0, mCache.size());
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    public void testRejectsEntryLargerThanCache() {
+        Bitmap large = Bitmap.createBitmap(WIDTH * 4, HEIGHT, Bitmap.Config.ARGB_8888);
+        assertFalse(mCache.put(KEY, WIDTH, HEIGHT, large));
+        assertEquals(0, mCache.size());
+    }
+
+    private static Bitmap createBitmap(int color) {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        return bitmap;
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
@@ -0,0 +1,209 @@
+package com.jameskelso.android.widget;
+
+import com.jameskelso.android.widget.core.Dimensions;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class AspectRatioRegistryTest extends TestCase {
+    private static final String JSON_MANIFEST = "["
+            + "{\"id\": 42, \"width\": 1920, \"height\": 1080, \"url\": \"a.jpg\"},"
+            + "{\"id\": 43, \"width\": 640},"
+            + "{\"id\": 44, \"width\": 0, \"height\": 480},"
+            + "{\"id\": 45, \"width\": 640, \"height\": 480, \"tags\": [1, 2]}"
+            + "]";
+
+    private AspectRatioRegistry mRegistry;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mRegistry = new AspectRatioRegistry();
+    }
+
+    public void testMissingId() {
+        assertEquals(Dimensions.NONE, mRegistry.get(42));
+        assertFalse(mRegistry.contains(42));
+    }
+
+    public void testPutAndGet() {
+        mRegistry.put(42, 1920, 1080);
+        mRegistry.put(-1, 640, 480);
+
+        assertEquals(Dimensions.pack(1920, 1080), mRegistry.get(42));
+        assertEquals(Dimensions.pack(640, 480), mRegistry.get(-1));
+        assertEquals(2, mRegistry.size());
+    }
+
+    public void testPutReplacesExistingEntry() {
+        mRegistry.put(42, 1920, 1080);
+        mRegistry.put(42, 100, 200);
+
+        assertEquals(Dimensions.pack(100, 200), mRegistry.get(42));
+        assertEquals(1, mRegistry.size());
+    }
+
+    public void testPutRejectsInvalidDimensions() {
+        try {
+            mRegistry.put(42, 0, 100);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testGrowsPastInitialCapacity() {
+        for (int i = 0; i < 10000; i++) {
+            mRegistry.put(i, i + 1, i + 2);
+        }
+
+        assertEquals(10000, mRegistry.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(Dimensions.pack(i + 1, i + 2), mRegistry.get(i));
+        }
+    }
+
+    public void testRemoveKeepsOtherEntriesReachable() {
+        for (int i = 0; i < 1000; i++) {
+            mRegistry.put(i, i + 1, i + 1);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(mRegistry.remove(i));
+        }
+
+        assertEquals(500, mRegistry.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 != 0, mRegistry.contains(i));
+        }
+        assertFalse(mRegistry.remove(0));
+    }
+
+    public void testClear() {
+        mRegistry.put(42, 1920, 1080);
+        mRegistry.clear();
+
+        assertEquals(0, mRegistry.size());
+        assertFalse(mRegistry.contains(42));
+    }
+
+    public void testReadBinary() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(2);
+        out.writeLong(42);
+        out.writeInt(1920);
+        out.writeInt(1080);
+        out.writeLong(Long.MAX_VALUE);
+        out.writeInt(640);
+        out.writeInt(480);
+        out.close();
+
+        assertEquals(2, mRegistry.readBinary(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(Dimensions.pack(1920, 1080), mRegistry.get(42));
+        assertEquals(Dimensions.pack(640, 480), mRegistry.get(Long.MAX_VALUE));
+    }
+
+    public void testReadBinarySkipsInvalidEntries() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(3);
+        out.writeLong(1);
+        out.writeInt(0);
+        out.writeInt(1080);
+        out.writeLong(2);
+        out.writeInt(1920);
+        out.writeInt(-1);
+        out.writeLong(3);
+        out.writeInt(640);
+        out.writeInt(480);
+        out.close();
+
+        assertEquals(1, mRegistry.readBinary(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1, mRegistry.size());
+        assertFalse(mRegistry.contains(1));
+        assertFalse(mRegistry.contains(2));
+        assertEquals(Dimensions.pack(640, 480), mRegistry.get(3));
+    }
+
+    public void testReadBinaryManyEntries() throws Exception {
+        int count = 1000;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(-i);
+            out.writeInt(i + 1);
+            out.writeInt(i + 2);
+        }
+        out.close();
+
+        assertEquals(count, mRegistry.readBinary(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(count, mRegistry.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Dimensions.pack(i + 1, i + 2), mRegistry.get(-i));
+        }
+    }
+
+    public void testReadBinaryDoesNotReadPastManifest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1);
+        out.writeLong(42);
+        out.writeInt(1920);
+        out.writeInt(1080);
+        out.writeInt(0xcafe);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(1, mRegistry.readBinary(in));
+        assertEquals(0xcafe, in.readInt());
+    }
+
+    public void testReadBinaryTruncated() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(2);
+        out.writeLong(42);
+        out.close();
+
+        try {
+            mRegistry.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+            fail("Expected an EOFException");
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+
+    public void testReadJson() throws Exception {
+        assertEquals(2, mRegistry.readJson(new StringReader(JSON_MANIFEST)));
+        assertJsonManifestRead();
+    }
+
+    public void testReadJsonCompat() throws Exception {
+        assertEquals(2, mRegistry.readJsonCompat(new StringReader(JSON_MANIFEST)));
+        assertJsonManifestRead();
+    }
+
+    public void testReadJsonCompatInvalid() throws Exception {
+        try {
+            mRegistry.readJsonCompat(new StringReader("[{\"id\": 42,"));
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private void assertJsonManifestRead() {
+        assertEquals(Dimensions.pack(1920, 1080), mRegistry.get(42));
+        assertFalse(mRegistry.contains(43));
+        assertFalse(mRegistry.contains(44));
+        assertEquals(Dimensions.pack(640, 480), mRegistry.get(45));
+    }
+}
@@ -0,0 +1,132 @@
+package com.jameskelso.android.widget;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AspectRatioTrimManagerTest extends AndroidTestCase {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 50;
+    private static final int BITMAP_BYTES = WIDTH * HEIGHT * 4;
+
+    private final List<AspectRatioImageView> mReloaded = new ArrayList<AspectRatioImageView>();
+    private AspectRatioTrimManager mManager;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mManager = new AspectRatioTrimManager(BITMAP_BYTES,
+                new AspectRatioTrimManager.OnReloadListener() {
+                    @Override
+                    public void onReload(AspectRatioImageView view) {
+                        mReloaded.add(view);
+                    }
+                });
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mManager = null;
+        mReloaded.clear();
+        super.tearDown();
+    }
+
+    public void testTracksBitmapBytes() {
+        AspectRatioImageView view = createView();
+        view.setImageBitmap(createBitmap());
+        assertEquals(BITMAP_BYTES, mManager.getCurrentBytes());
+
+        view.setImageDrawable(null);
+        assertEquals(0, mManager.getCurrentBytes());
+    }
+
+    public void testReleasesLeastRecentlyShownOverBudget() {
+        AspectRatioImageView first = createView();
+        AspectRatioImageView second = createView();
+
+        first.setImageBitmap(createBitmap());
+        second.setImageBitmap(createBitmap());
+
+        assertNull(first.getDrawable());
+        assertNotNull(second.getDrawable());
+        assertEquals(BITMAP_BYTES, mManager.getCurrentBytes());
+        assertEquals(1, mManager.getReleaseCount());
+    }
+
+    public void testKeepsBitmapsOnScreen() {
+        AspectRatioImageView first = createView();
+        AspectRatioImageView second = createView();
+        first.setImageBitmap(createBitmap());
+        mManager.onVisibilityChanged(first, true);
+
+        second.setImageBitmap(createBitmap());
+        mManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        assertNotNull(first.getDrawable());
+        assertNull(second.getDrawable());
+    }
+
+    public void testTrimMemoryReleasesEverythingOffScreen() {
+        AspectRatioImageView view = createView();
+        view.setImageBitmap(createBitmap());
+
+        mManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+        assertNull(view.getDrawable());
+        assertEquals(0, mManager.getCurrentBytes());
+    }
+
+    public void testReloadsWhenShownAgain() {
+        AspectRatioImageView view = createView();
+        view.setImageBitmap(createBitmap());
+        mManager.onLowMemory();
+
+        mManager.onVisibilityChanged(view, true);
+        assertEquals(1, mReloaded.size());
+        assertSame(view, mReloaded.get(0));
+
+        // Showing it again before the image arrives does not ask twice
+        mManager.onVisibilityChanged(view, false);
+        mManager.onVisibilityChanged(view, true);
+        assertEquals(1, mReloaded.size());
+    }
+
+    public void testReleaseKeepsSize() {
+        AspectRatioImageView view = createView();
+        view.setAspectRatio(16f / 9f);
+        view.setImageBitmap(createBitmap());
+        int widthSpec = View.MeasureSpec.makeMeasureSpec(320, View.MeasureSpec.EXACTLY);
+        view.measure(widthSpec, 0);
+        int height = view.getMeasuredHeight();
+
+        mManager.onLowMemory();
+        view.measure(widthSpec, 0);
+
+        assertEquals(height, view.getMeasuredHeight());
+    }
+
+    public void testReleaseReturnsPooledBitmap() {
+        AspectRatioBitmapPool pool = new AspectRatioBitmapPool(BITMAP_BYTES * 2);
+        AspectRatioImageView view = createView();
+        view.setBitmapPool(pool);
+        view.setPooledImageBitmap(createBitmap());
+
+        mManager.onLowMemory();
+
+        assertEquals(BITMAP_BYTES, pool.getCurrentBytes());
+    }
+
+    private AspectRatioImageView createView() {
+        AspectRatioImageView view = new AspectRatioImageView(getContext());
+        view.setTrimManager(mManager);
+        return view;
+    }
+
+    private static Bitmap createBitmap() {
+        return Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    }
+}
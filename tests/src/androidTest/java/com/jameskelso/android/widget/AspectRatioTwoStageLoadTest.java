@@ -0,0 +1,107 @@
+package com.jameskelso.android.widget;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AspectRatioTwoStageLoadTest extends AndroidTestCase {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 90;
+
+    private AspectRatioImageView mImageView;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mImageView = new AspectRatioImageView(getContext());
+        mImageView.setOriginalImageWidthAndHeight(WIDTH, HEIGHT);
+        mImageView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY), 0);
+        mImageView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mImageView = null;
+        super.tearDown();
+    }
+
+    public void testThumbnailIsShownAsPlaceholder() throws Exception {
+        AspectRatioTwoStageLoad load = new AspectRatioTwoStageLoad(mImageView);
+        load.deliverThumbnail(createBitmap(16, 9));
+        waitForMainThread();
+
+        assertTrue(mImageView.hasPlaceholder());
+        assertNull(mImageView.getDrawable());
+        assertFalse(mImageView.isLayoutRequested());
+    }
+
+    public void testFullImageReplacesThumbnail() throws Exception {
+        AspectRatioTwoStageLoad load = new AspectRatioTwoStageLoad(mImageView);
+        load.deliverThumbnail(createBitmap(16, 9));
+        load.deliverFullImage(createBitmap(WIDTH, HEIGHT));
+        waitForMainThread();
+
+        assertTrue(load.isFullImageShown());
+        assertNotNull(mImageView.getDrawable());
+        assertFalse(mImageView.hasPlaceholder());
+        assertFalse(mImageView.isLayoutRequested());
+    }
+
+    public void testThumbnailAfterFullImageIsDropped() throws Exception {
+        AspectRatioTwoStageLoad load = new AspectRatioTwoStageLoad(mImageView);
+        load.deliverFullImage(createBitmap(WIDTH, HEIGHT));
+        load.deliverThumbnail(createBitmap(16, 9));
+        waitForMainThread();
+
+        assertTrue(load.isFullImageShown());
+        assertFalse(mImageView.hasPlaceholder());
+    }
+
+    public void testNewLoadCancelsPrevious() throws Exception {
+        AspectRatioTwoStageLoad first = new AspectRatioTwoStageLoad(mImageView);
+        AspectRatioTwoStageLoad second = new AspectRatioTwoStageLoad(mImageView);
+        assertTrue(first.isCancelled());
+        assertFalse(second.isCancelled());
+
+        first.deliverFullImage(createBitmap(WIDTH, HEIGHT));
+        waitForMainThread();
+        assertNull(mImageView.getDrawable());
+    }
+
+    public void testBaselineBytesShowNoPreview() {
+        AspectRatioTwoStageLoad load = new AspectRatioTwoStageLoad(mImageView);
+        byte[] notProgressive = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+        assertFalse(load.deliverFullImageBytes(notProgressive, notProgressive.length));
+    }
+
+    public void testUnmeasuredViewThrows() {
+        try {
+            new AspectRatioTwoStageLoad(new AspectRatioImageView(getContext()));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static Bitmap createBitmap(int width, int height) {
+        return Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * Wait until everything posted to the main thread so far has run
+     */
+    private static void waitForMainThread() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+}
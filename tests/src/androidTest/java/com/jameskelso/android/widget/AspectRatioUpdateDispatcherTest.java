@@ -0,0 +1,87 @@
+package com.jameskelso.android.widget;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+public class AspectRatioUpdateDispatcherTest extends AndroidTestCase {
+    private static final long TIMEOUT_MS = 2000;
+    private static final int VIEW_COUNT = 20;
+
+    public void testPostOriginalWidthAndHeightIsApplied() {
+        AspectRatioImageView view = new AspectRatioImageView(getContext());
+        view.postOriginalImageWidthAndHeight(32, 18);
+
+        waitForAspectRatio(view, 16, 9);
+    }
+
+    public void testPostAspectRatioLastUpdateWins() {
+        AspectRatioImageView view = new AspectRatioImageView(getContext());
+        view.postAspectRatio(2f);
+        view.postAspectRatio(1f);
+        view.postOriginalImageWidthAndHeight(4, 3);
+
+        waitForAspectRatio(view, 4, 3);
+    }
+
+    public void testUpdatesFromBackgroundThreadShareOnePass() throws InterruptedException {
+        final AspectRatioImageView[] views = new AspectRatioImageView[VIEW_COUNT];
+        for (int i = 0; i < VIEW_COUNT; i++) {
+            views[i] = new AspectRatioImageView(getContext());
+        }
+
+        AspectRatioUpdateDispatcher dispatcher = AspectRatioUpdateDispatcher.getInstance();
+        int applyCount = dispatcher.getApplyCount();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (AspectRatioImageView view : views) {
+                    view.postOriginalImageWidthAndHeight(16, 9);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        for (AspectRatioImageView view : views) {
+            waitForAspectRatio(view, 16, 9);
+        }
+
+        // All updates are published well within one frame. Allow for them straddling a frame.
+        assertTrue(dispatcher.getApplyCount() - applyCount <= 2);
+    }
+
+    public void testSetAspectRatioCancelsPostedUpdate() {
+        AspectRatioImageView view = new AspectRatioImageView(getContext());
+        view.postAspectRatio(2f);
+        view.setAspectRatio(1f);
+
+        waitForApply();
+        assertEquals(1, view.getAspectRatioWidth());
+        assertEquals(1, view.getAspectRatioHeight());
+    }
+
+    private static void waitForAspectRatio(AspectRatioImageView view, int ratioWidth,
+                                           int ratioHeight) {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (view.getAspectRatioWidth() != ratioWidth
+                || view.getAspectRatioHeight() != ratioHeight) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                fail("Aspect ratio was not applied");
+            }
+            SystemClock.sleep(5);
+        }
+    }
+
+    private static void waitForApply() {
+        AspectRatioUpdateDispatcher dispatcher = AspectRatioUpdateDispatcher.getInstance();
+        int applyCount = dispatcher.getApplyCount();
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (dispatcher.getApplyCount() == applyCount) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                fail("Pending aspect ratios were not applied");
+            }
+            SystemClock.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.jameskelso.android.widget;
+
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import com.jameskelso.android.widget.tests.R;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class AspectRatioViewPoolTest extends AndroidTestCase {
+    private static final int MAX_SIZE = 3;
+
+    private final List<Runnable> mQueued = new ArrayList<Runnable>();
+    private AspectRatioViewPool mPool;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mPool = new AspectRatioViewPool(getContext(), R.layout.aspect_only, null, MAX_SIZE,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        mQueued.add(command);
+                    }
+                });
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mPool = null;
+        mQueued.clear();
+        super.tearDown();
+    }
+
+    public void testPrefetchInflatesOnExecutor() {
+        mPool.prefetch(2);
+        assertEquals(2, mQueued.size());
+        assertEquals(0, mPool.size());
+
+        runQueued();
+        assertEquals(2, mPool.size());
+    }
+
+    public void testPrefetchCountsPendingViews() {
+        mPool.prefetch(2);
+        mPool.prefetch(2);
+        assertEquals(2, mQueued.size());
+    }
+
+    public void testPrefetchIsCappedAtMaxSize() {
+        mPool.prefetch(MAX_SIZE + 5);
+        runQueued();
+        assertEquals(MAX_SIZE, mPool.size());
+    }
+
+    public void testAcquireFromPool() {
+        mPool.prefetch(1);
+        runQueued();
+
+        View view = mPool.acquire();
+        assertTrue(view instanceof AspectRatioImageView);
+        assertEquals(1, mPool.getHitCount());
+        assertEquals(0, mPool.getMissCount());
+        assertEquals(0, mPool.size());
+    }
+
+    public void testAcquireInflatesWhenEmpty() {
+        View view = mPool.acquire();
+        assertTrue(view instanceof AspectRatioImageView);
+        assertEquals(0, mPool.getHitCount());
+        assertEquals(1, mPool.getMissCount());
+    }
+
+    public void testCachedAspectRatioIsApplied() {
+        AspectRatioImageView first = (AspectRatioImageView) mPool.acquire();
+        AspectRatioImageView second = (AspectRatioImageView) mPool.acquire();
+        assertNotSame(first, second);
+        assertEquals(1, second.getAspectRatioWidth());
+        assertEquals(1, second.getAspectRatioHeight());
+    }
+
+    public void testReleaseEvictsOldest() {
+        mPool.prefetch(MAX_SIZE);
+        runQueued();
+
+        View released = new View(getContext());
+        mPool.release(released);
+        assertEquals(MAX_SIZE, mPool.size());
+        assertEquals(1, mPool.getEvictionCount());
+
+        mPool.acquire();
+        mPool.acquire();
+        assertSame(released, mPool.acquire());
+    }
+
+    public void testTrimToSize() {
+        mPool.prefetch(MAX_SIZE);
+        runQueued();
+        mPool.trimToSize(1);
+        assertEquals(1, mPool.size());
+        assertEquals(MAX_SIZE - 1, mPool.getEvictionCount());
+
+        mPool.clear();
+        assertEquals(0, mPool.size());
+    }
+
+    private void runQueued() {
+        List<Runnable> queued = new ArrayList<Runnable>(mQueued);
+        mQueued.clear();
+        for (Runnable runnable : queued) {
+            runnable.run();
+        }
+    }
+}
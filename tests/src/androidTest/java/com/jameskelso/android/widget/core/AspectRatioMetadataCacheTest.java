@@ -0,0 +1,163 @@
+package com.jameskelso.android.widget.core;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class AspectRatioMetadataCacheTest extends TestCase {
+    private File mFile;
+    private AspectRatioMetadataCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("metadata", ".cache");
+        mCache = new AspectRatioMetadataCache(mFile, 64);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testCapacityIsRoundedUpToAPowerOfTwo() throws Exception {
+        assertEquals(64, mCache.getCapacity());
+        mCache.close();
+        mCache = new AspectRatioMetadataCache(mFile, 100);
+        assertEquals(128, mCache.getCapacity());
+    }
+
+    public void testMissingKey() {
+        assertEquals(Dimensions.NONE, mCache.get("http://example.com/missing.jpg"));
+    }
+
+    public void testPutAndGet() {
+        mCache.put("http://example.com/a.jpg", 1920, 1080);
+        mCache.put("http://example.com/b.jpg", 640, 480);
+
+        long a = mCache.get("http://example.com/a.jpg");
+        assertEquals(1920, Dimensions.width(a));
+        assertEquals(1080, Dimensions.height(a));
+
+        long b = mCache.get("http://example.com/b.jpg");
+        assertEquals(640, Dimensions.width(b));
+        assertEquals(480, Dimensions.height(b));
+    }
+
+    public void testPutReplacesExistingEntry() {
+        mCache.put("http://example.com/a.jpg", 1920, 1080);
+        mCache.put("http://example.com/a.jpg", 100, 200);
+
+        long a = mCache.get("http://example.com/a.jpg");
+        assertEquals(100, Dimensions.width(a));
+        assertEquals(200, Dimensions.height(a));
+    }
+
+    public void testRemove() {
+        mCache.put("http://example.com/a.jpg", 1920, 1080);
+        mCache.remove("http://example.com/a.jpg");
+        assertEquals(Dimensions.NONE, mCache.get("http://example.com/a.jpg"));
+    }
+
+    public void testClear() {
+        mCache.put("http://example.com/a.jpg", 1920, 1080);
+        mCache.clear();
+        assertEquals(Dimensions.NONE, mCache.get("http://example.com/a.jpg"));
+    }
+
+    public void testEntriesSurviveReopening() throws Exception {
+        mCache.put("http://example.com/a.jpg", 1920, 1080);
+        mCache.close();
+
+        mCache = new AspectRatioMetadataCache(mFile, 64);
+        long a = mCache.get("http://example.com/a.jpg");
+        assertEquals(1920, Dimensions.width(a));
+        assertEquals(1080, Dimensions.height(a));
+    }
+
+    public void testReopeningWithADifferentCapacityClearsTheCache() throws Exception {
+        mCache.put("http://example.com/a.jpg", 1920, 1080);
+        mCache.close();
+
+        mCache = new AspectRatioMetadataCache(mFile, 256);
+        assertEquals(Dimensions.NONE, mCache.get("http://example.com/a.jpg"));
+    }
+
+    public void testSizeIsCapped() {
+        for (int i = 0; i < 1000; i++) {
+            mCache.put("http://example.com/" + i + ".jpg", i + 1, i + 1);
+        }
+
+        int found = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (mCache.get("http://example.com/" + i + ".jpg") != Dimensions.NONE) {
+                found++;
+            }
+        }
+        assertTrue(found <= mCache.getCapacity());
+        assertEquals(mFile.length(), 16 + mCache.getCapacity() * 20);
+    }
+
+    public void testRecentlyUsedEntrySurvivesEviction() {
+        mCache.put("http://example.com/keep.jpg", 1920, 1080);
+        for (int i = 0; i < 1000; i++) {
+            mCache.put("http://example.com/" + i + ".jpg", i + 1, i + 1);
+            mCache.get("http://example.com/keep.jpg");
+        }
+
+        long keep = mCache.get("http://example.com/keep.jpg");
+        assertEquals(1920, Dimensions.width(keep));
+        assertEquals(1080, Dimensions.height(keep));
+    }
+
+    public void testGetDoesNotWriteToFile() throws Exception {
+        mCache.put("http://example.com/a.jpg", 1920, 1080);
+        mCache.flush();
+        byte[] before = readFile();
+
+        mCache.get("http://example.com/a.jpg");
+        assertTrue(Arrays.equals(before, readFile()));
+
+        // The order of use is written by the next flush
+        mCache.flush();
+        assertFalse(Arrays.equals(before, readFile()));
+    }
+
+    public void testOrderOfUseSurvivesReopening() throws Exception {
+        // With the smallest capacity every key shares one window
+        mCache.close();
+        mCache = new AspectRatioMetadataCache(mFile, 1);
+        for (int i = 0; i < mCache.getCapacity(); i++) {
+            mCache.put("http://example.com/" + i + ".jpg", i + 1, i + 1);
+        }
+        for (int i = mCache.getCapacity() - 1; i >= 0; i--) {
+            mCache.get("http://example.com/" + i + ".jpg");
+        }
+        mCache.close();
+
+        // The last entry was used longest ago, so it is the one evicted
+        mCache = new AspectRatioMetadataCache(mFile, 1);
+        mCache.put("http://example.com/new.jpg", 1920, 1080);
+        int last = mCache.getCapacity() - 1;
+        assertEquals(Dimensions.NONE, mCache.get("http://example.com/" + last + ".jpg"));
+        for (int i = 0; i < last; i++) {
+            assertEquals(i + 1, Dimensions.width(mCache.get("http://example.com/" + i + ".jpg")));
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            return bytes;
+        } finally {
+            file.close();
+        }
+    }
+}
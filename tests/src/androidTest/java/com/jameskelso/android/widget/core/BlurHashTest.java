@@ -0,0 +1,54 @@
+package com.jameskelso.android.widget.core;
+
+import junit.framework.TestCase;
+
+public class BlurHashTest extends TestCase {
+    private static final String HASH = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+
+    // A single component hash of the color 0xff8040
+    private static final String SOLID_HASH = "00" + "TNp9";
+
+    public void testIsValid() {
+        assertTrue(BlurHash.isValid(HASH));
+        assertTrue(BlurHash.isValid(SOLID_HASH));
+
+        assertFalse(BlurHash.isValid(null));
+        assertFalse(BlurHash.isValid(""));
+        assertFalse(BlurHash.isValid(HASH.substring(0, HASH.length() - 1)));
+        assertFalse(BlurHash.isValid("LEHV6nWB2yk8pyo0adR*.7kCMdn!"));
+    }
+
+    public void testDecodeAverageColor() {
+        assertEquals(0xffff8040, BlurHash.decodeAverageColor(SOLID_HASH));
+    }
+
+    public void testDecodeSolidColor() {
+        int[] pixels = new int[4 * 3];
+        BlurHash.decode(SOLID_HASH, 4, 3, pixels);
+
+        for (int pixel : pixels) {
+            assertEquals(0xffff8040, pixel);
+        }
+    }
+
+    public void testDecodeIsOpaqueAndVaries() {
+        int[] pixels = new int[32 * 32];
+        BlurHash.decode(HASH, 32, 32, pixels);
+
+        boolean varies = false;
+        for (int pixel : pixels) {
+            assertEquals(0xff, pixel >>> 24);
+            varies |= pixel != pixels[0];
+        }
+        assertTrue(varies);
+    }
+
+    public void testDecodeInvalidHash() {
+        try {
+            BlurHash.decode("nope", 4, 4, new int[16]);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.jameskelso.android.widget.core;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+public class ImageDimensionProbeTest extends TestCase {
+    private static final byte[] PNG = {
+            (byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a,
+            0, 0, 0, 13, 'I', 'H', 'D', 'R',
+            0, 0, 0x0d, 0x57, 0, 0, 0x08, (byte) 0xdc};
+
+    private static final byte[] GIF = {'G', 'I', 'F', '8', '9', 'a', 0x41, 0x01, 0x7b, 0x00};
+
+    private static final byte[] BMP = {
+            'B', 'M', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            40, 0, 0, 0, 0x41, 0x01, 0, 0, (byte) 0x85, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+
+    private static final byte[] WEBP_VP8 = {
+            'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', ' ', 0, 0, 0, 0,
+            0, 0, 0, (byte) 0x9d, 0x01, 0x2a, 0x41, 0x01, 0x7b, 0x00};
+
+    private static final byte[] WEBP_VP8L = {
+            'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'L', 0, 0, 0, 0,
+            0x2f, 0x40, (byte) 0x81, 0x1e, 0x00};
+
+    private static final byte[] WEBP_VP8X = {
+            'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'X', 10, 0, 0, 0,
+            0, 0, 0, 0, 0x40, 0x01, 0x00, 0x7a, 0x00, 0x00};
+
+    private static final byte[] JPEG = {
+            (byte) 0xff, (byte) 0xd8,
+            // APP0 with a 2 byte payload
+            (byte) 0xff, (byte) 0xe0, 0, 4, 0, 0,
+            // SOF0
+            (byte) 0xff, (byte) 0xc0, 0, 17, 8, 0x00, 0x7b, 0x01, 0x41, 3};
+
+    private static final byte[] JPEG_ROTATED = {
+            (byte) 0xff, (byte) 0xd8,
+            // APP1 holding EXIF with a single orientation entry of 6
+            (byte) 0xff, (byte) 0xe1, 0, 34, 'E', 'x', 'i', 'f', 0, 0,
+            'M', 'M', 0, 42, 0, 0, 0, 8, 0, 1,
+            0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0, 0, 0, 0, 0,
+            // SOF2
+            (byte) 0xff, (byte) 0xc2, 0, 17, 8, 0x00, 0x7b, 0x01, 0x41, 3};
+
+    public void testProbePng() throws Exception {
+        assertDimensions(3415, 2268, ImageDimensionProbe.probe(new ByteArrayInputStream(PNG)));
+    }
+
+    public void testProbeGif() throws Exception {
+        assertDimensions(321, 123, ImageDimensionProbe.probe(new ByteArrayInputStream(GIF)));
+    }
+
+    public void testProbeBmpTopDown() throws Exception {
+        assertDimensions(321, 123, ImageDimensionProbe.probe(new ByteArrayInputStream(BMP)));
+    }
+
+    public void testProbeWebpLossy() throws Exception {
+        assertDimensions(321, 123, ImageDimensionProbe.probe(ByteBuffer.wrap(WEBP_VP8)));
+    }
+
+    public void testProbeWebpLossless() throws Exception {
+        assertDimensions(321, 123, ImageDimensionProbe.probe(ByteBuffer.wrap(WEBP_VP8L)));
+    }
+
+    public void testProbeWebpExtended() throws Exception {
+        assertDimensions(321, 123, ImageDimensionProbe.probe(ByteBuffer.wrap(WEBP_VP8X)));
+    }
+
+    public void testProbeJpeg() throws Exception {
+        assertDimensions(321, 123, ImageDimensionProbe.probe(new ByteArrayInputStream(JPEG)));
+    }
+
+    public void testProbeJpegExifOrientation() throws Exception {
+        assertDimensions(123, 321,
+                ImageDimensionProbe.probe(new ByteArrayInputStream(JPEG_ROTATED)));
+    }
+
+    public void testProbeTruncated() throws Exception {
+        assertEquals(Dimensions.NONE,
+                ImageDimensionProbe.probe(ByteBuffer.wrap(JPEG, 0, JPEG.length - 4)));
+    }
+
+    public void testProbeUnknownFormat() throws Exception {
+        assertEquals(Dimensions.NONE,
+                ImageDimensionProbe.probe(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6})));
+    }
+
+    public void testProbeBufferPositionUnchanged() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(PNG);
+        ImageDimensionProbe.probe(buffer);
+        assertEquals(0, buffer.position());
+    }
+
+    private static void assertDimensions(int width, int height, long dimensions) {
+        assertEquals(width, Dimensions.width(dimensions));
+        assertEquals(height, Dimensions.height(dimensions));
+    }
+}
@@ -0,0 +1,103 @@
+package com.jameskelso.android.widget.core;
+
+import junit.framework.TestCase;
+
+public class PrecomputedMeasureTest extends TestCase {
+    private static final long RATIO_16_9 = AspectRatios.calculateAspectRatio(16, 9);
+
+    private static final int EXACT_WIDTH = MeasureSpecs.makeMeasureSpec(320, MeasureSpecs.EXACTLY);
+    private static final int UNSPECIFIED = MeasureSpecs.makeMeasureSpec(0,
+            MeasureSpecs.UNSPECIFIED);
+
+    public void testCreate() {
+        PrecomputedMeasure measure = PrecomputedMeasure.create(RATIO_16_9, EXACT_WIDTH,
+                UNSPECIFIED);
+
+        assertEquals(320, measure.getWidth());
+        assertEquals(180, measure.getHeight());
+        assertEquals(RATIO_16_9, measure.getAspectRatio());
+    }
+
+    public void testMatchesSameCalculation() {
+        PrecomputedMeasure measure = PrecomputedMeasure.create(RATIO_16_9, EXACT_WIDTH,
+                UNSPECIFIED);
+
+        assertTrue(measure.matches(EXACT_WIDTH, UNSPECIFIED, 16, 9));
+        assertEquals(AspectRatioMeasurer.calculateSizeFromSpecs(EXACT_WIDTH, UNSPECIFIED, 16, 9),
+                measure.getSize());
+    }
+
+    public void testDoesNotMatchOtherSpecsOrRatio() {
+        PrecomputedMeasure measure = PrecomputedMeasure.create(RATIO_16_9, EXACT_WIDTH,
+                UNSPECIFIED);
+        int otherWidth = MeasureSpecs.makeMeasureSpec(640, MeasureSpecs.EXACTLY);
+
+        assertFalse(measure.matches(otherWidth, UNSPECIFIED, 16, 9));
+        assertFalse(measure.matches(EXACT_WIDTH, UNSPECIFIED, 4, 3));
+        assertFalse(measure.matchesSpecs(otherWidth, UNSPECIFIED));
+    }
+
+    public void testCreateReducesRatio() {
+        PrecomputedMeasure measure = PrecomputedMeasure.create(Dimensions.pack(32, 18),
+                EXACT_WIDTH, UNSPECIFIED);
+
+        assertEquals(RATIO_16_9, measure.getAspectRatio());
+        assertTrue(measure.matches(EXACT_WIDTH, UNSPECIFIED, 16, 9));
+    }
+
+    public void testCanNotPrecomputeWithoutRatio() {
+        int exactHeight = MeasureSpecs.makeMeasureSpec(180, MeasureSpecs.EXACTLY);
+
+        assertFalse(PrecomputedMeasure.canPrecompute(AspectRatios.NONE, EXACT_WIDTH,
+                UNSPECIFIED));
+        assertFalse(PrecomputedMeasure.canPrecompute(Dimensions.NONE, EXACT_WIDTH, exactHeight));
+        assertFalse(PrecomputedMeasure.canPrecompute(RATIO_16_9, UNSPECIFIED, UNSPECIFIED));
+
+        try {
+            PrecomputedMeasure.create(AspectRatios.NONE, EXACT_WIDTH, UNSPECIFIED);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        try {
+            PrecomputedMeasure.create(Dimensions.NONE, EXACT_WIDTH, exactHeight);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testMeasurerRecordsPrecomputedSize() {
+        PrecomputedMeasure measure = PrecomputedMeasure.create(RATIO_16_9, EXACT_WIDTH,
+                UNSPECIFIED);
+        AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+
+        assertEquals(measure.getSize(), measurer.measure(EXACT_WIDTH, UNSPECIFIED, 16, 9,
+                Dimensions.NONE, measure));
+        assertTrue(measurer.isLastMeasureFromSpecs());
+
+        // 640:359 resolves to the same 180px height, which is only known from the recorded pass
+        assertEquals(AspectRatioMeasurer.SIZE_UNCHANGED,
+                measurer.onAspectRatioChanged(RATIO_16_9, Dimensions.pack(640, 359)));
+    }
+
+    public void testMeasurerRecordsRestoredSize() {
+        long restoredSize = Dimensions.pack(320, 180);
+        AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+
+        assertEquals(restoredSize, measurer.measure(EXACT_WIDTH, UNSPECIFIED, 16, 9,
+                restoredSize, null));
+        assertTrue(measurer.isLastMeasureFromSpecs());
+        assertEquals(AspectRatioMeasurer.SIZE_UNCHANGED,
+                measurer.onAspectRatioChanged(RATIO_16_9, Dimensions.pack(640, 359)));
+    }
+
+    public void testMeasurerNeedsImageViewWithoutRatio() {
+        AspectRatioMeasurer measurer = new AspectRatioMeasurer();
+
+        assertEquals(Dimensions.NONE, measurer.measure(EXACT_WIDTH, UNSPECIFIED, 0, 0,
+                Dimensions.NONE, null));
+        assertFalse(measurer.isLastMeasureFromSpecs());
+    }
+}
@@ -0,0 +1,122 @@
+package com.jameskelso.android.widget.core;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+
+public class ProgressiveJpegScannerTest extends TestCase {
+    private static final int SOF0 = 0xC0;
+    private static final int SOF2 = 0xC2;
+
+    // Scan data with a stuffed zero, a restart marker and a fill byte before the next marker
+    private static final int[] SCAN_DATA = {0x12, 0xFF, 0x00, 0x34, 0xFF, 0xD3, 0x56};
+
+    private ProgressiveJpegScanner mScanner;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mScanner = new ProgressiveJpegScanner();
+    }
+
+    public void testProgressiveScansComplete() {
+        byte[] jpeg = createJpeg(SOF2, 3);
+        assertTrue(mScanner.scan(jpeg, jpeg.length));
+
+        assertTrue(mScanner.isProgressive());
+        assertTrue(mScanner.isComplete());
+        assertEquals(3, mScanner.getCompleteScanCount());
+        assertEquals(jpeg.length - 2, mScanner.getCompleteScansEnd());
+    }
+
+    public void testScanCompletesAtNextMarker() {
+        byte[] jpeg = createJpeg(SOF2, 2);
+        int secondScanStart = indexOfSecondScan(jpeg);
+
+        assertFalse(mScanner.scan(jpeg, secondScanStart));
+        assertEquals(0, mScanner.getCompleteScanCount());
+
+        // The marker byte after the prefix ends the first scan
+        assertTrue(mScanner.scan(jpeg, secondScanStart + 2));
+        assertEquals(1, mScanner.getCompleteScanCount());
+        assertEquals(secondScanStart, mScanner.getCompleteScansEnd());
+        assertFalse(mScanner.isComplete());
+    }
+
+    public void testByteByByteMatchesWholeBuffer() {
+        byte[] jpeg = createJpeg(SOF2, 4);
+        int scans = 0;
+        for (int length = 1; length <= jpeg.length; length++) {
+            if (mScanner.scan(jpeg, length)) {
+                scans++;
+            }
+        }
+
+        assertEquals(4, scans);
+        assertEquals(4, mScanner.getCompleteScanCount());
+        assertTrue(mScanner.isComplete());
+    }
+
+    public void testBaselineCompletesOnlyAtEnd() {
+        byte[] jpeg = createJpeg(SOF0, 1);
+        assertFalse(mScanner.scan(jpeg, jpeg.length - 1));
+        assertFalse(mScanner.isProgressive());
+
+        assertTrue(mScanner.scan(jpeg, jpeg.length));
+        assertEquals(1, mScanner.getCompleteScanCount());
+    }
+
+    public void testInvalidData() {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G'};
+        assertFalse(mScanner.scan(png, png.length));
+        assertFalse(mScanner.isValid());
+    }
+
+    public void testReset() {
+        byte[] jpeg = createJpeg(SOF2, 2);
+        mScanner.scan(jpeg, jpeg.length);
+        mScanner.reset();
+
+        assertFalse(mScanner.isProgressive());
+        assertEquals(0, mScanner.getCompleteScanCount());
+        assertTrue(mScanner.scan(jpeg, jpeg.length));
+        assertEquals(2, mScanner.getCompleteScanCount());
+    }
+
+    private static int indexOfSecondScan(byte[] jpeg) {
+        int found = 0;
+        for (int i = 0; i < jpeg.length - 1; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == 0xDA && ++found == 2) {
+                // The Huffman table segment written before each scan after the first
+                return i - 6;
+            }
+        }
+        throw new AssertionError("No second scan");
+    }
+
+    private static byte[] createJpeg(int frameMarker, int scanCount) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 0xFF, 0xD8);
+        // APP0 with a few bytes of payload
+        write(out, 0xFF, 0xE0, 0x00, 0x06, 'J', 'F', 'I', 'F');
+        // Frame header
+        write(out, 0xFF, frameMarker, 0x00, 0x05, 0x08, 0x00, 0x10);
+        for (int scan = 0; scan < scanCount; scan++) {
+            if (scan > 0) {
+                // A Huffman table between scans, as progressive encoders write
+                write(out, 0xFF, 0xC4, 0x00, 0x04, 0x00, 0x00);
+            }
+            write(out, 0xFF, 0xDA, 0x00, 0x04, 0x01, 0x00);
+            write(out, SCAN_DATA);
+            write(out, 0xFF);
+        }
+        write(out, 0xFF, 0xD9);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, int... values) {
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.jameskelso.android.widget.core;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class RowHeightCalculatorTest extends TestCase {
+    private static final int WIDTH = 1080;
+    private static final int UNSPECIFIED =
+            MeasureSpecs.makeMeasureSpec(0, MeasureSpecs.UNSPECIFIED);
+
+    public void testCalculatePackedRatios() {
+        int[] ratios = {16, 9, 4, 3, 1, 1, 0, 0};
+        int[] heights = new int[4];
+        int[] offsets = new int[5];
+
+        RowHeightCalculator.calculate(WIDTH, UNSPECIFIED, ratios, heights, offsets);
+
+        assertEquals(608, heights[0]);
+        assertEquals(810, heights[1]);
+        assertEquals(1080, heights[2]);
+        assertEquals(0, heights[3]);
+
+        assertEquals(0, offsets[0]);
+        assertEquals(608, offsets[1]);
+        assertEquals(1418, offsets[2]);
+        assertEquals(2498, offsets[3]);
+        assertEquals(2498, offsets[4]);
+    }
+
+    public void testCalculateFloatRatios() {
+        float[] ratios = {16f / 9f, 4f / 3f, 1f};
+        int[] heights = new int[3];
+        int[] offsets = new int[4];
+
+        RowHeightCalculator.calculate(WIDTH, UNSPECIFIED, ratios, heights, offsets);
+
+        assertEquals(608, heights[0]);
+        assertEquals(810, heights[1]);
+        assertEquals(1080, heights[2]);
+        assertEquals(2498, offsets[3]);
+    }
+
+    public void testFloatRatiosRoundLikePackedRatios() {
+        // 2 / (4 / 7) is exactly 3.5, which float division puts just below the half
+        float[] floatRatios = {4f / 7f};
+        int[] packedRatios = {4, 7};
+        int[] floatHeights = new int[1];
+        int[] packedHeights = new int[1];
+
+        RowHeightCalculator.calculate(2, UNSPECIFIED, floatRatios, floatHeights, new int[2]);
+        RowHeightCalculator.calculate(2, UNSPECIFIED, packedRatios, packedHeights, new int[2]);
+
+        assertEquals(4, packedHeights[0]);
+        assertEquals(packedHeights[0], floatHeights[0]);
+    }
+
+    public void testCalculateRespectsMeasureSpec() {
+        int atMost = MeasureSpecs.makeMeasureSpec(700, MeasureSpecs.AT_MOST);
+        int[] ratios = {16, 9, 1, 1};
+        int[] heights = new int[2];
+        int[] offsets = new int[3];
+
+        RowHeightCalculator.calculate(WIDTH, atMost, ratios, heights, offsets);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(AspectRatioMeasurer.calculateDesiredHeightForWidth(WIDTH, atMost,
+                    ratios[2 * i], ratios[2 * i + 1]), heights[i]);
+        }
+        assertEquals(608, heights[0]);
+        assertEquals(700, heights[1]);
+    }
+
+    public void testParallelMatchesSequential() {
+        int count = RowHeightCalculator.PARALLEL_BLOCK_SIZE * 5 + 17;
+        int[] ratios = randomRatios(count);
+
+        int[] heights = new int[count];
+        int[] offsets = new int[count + 1];
+        RowHeightCalculator.calculate(WIDTH, UNSPECIFIED, ratios, heights, offsets);
+
+        int[] parallelHeights = new int[count];
+        int[] parallelOffsets = new int[count + 1];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            RowHeightCalculator.calculate(WIDTH, UNSPECIFIED, ratios, parallelHeights,
+                    parallelOffsets, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(heights[i], parallelHeights[i]);
+        }
+        for (int i = 0; i <= count; i++) {
+            assertEquals(offsets[i], parallelOffsets[i]);
+        }
+    }
+
+    public void testAppendMatchesBatch() {
+        int[] ratios = randomRatios(100);
+        int[] heights = new int[100];
+        int[] offsets = new int[101];
+        RowHeightCalculator.calculate(WIDTH, UNSPECIFIED, ratios, heights, offsets);
+
+        RowHeightCalculator calculator = new RowHeightCalculator(WIDTH, UNSPECIFIED);
+        int[] first = new int[60];
+        int[] second = new int[140];
+        System.arraycopy(ratios, 0, first, 0, 60);
+        System.arraycopy(ratios, 60, second, 0, 140);
+        calculator.append(first);
+        calculator.append(second);
+
+        assertEquals(100, calculator.getCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(heights[i], calculator.getHeight(i));
+            assertEquals(offsets[i], calculator.getOffset(i));
+        }
+        assertEquals(offsets[100], calculator.getTotalHeight());
+    }
+
+    public void testFindPosition() {
+        RowHeightCalculator calculator = new RowHeightCalculator(WIDTH, UNSPECIFIED);
+        assertEquals(-1, calculator.findPosition(0));
+
+        calculator.append(new int[] {16, 9, 4, 3, 1, 1});
+
+        assertEquals(0, calculator.findPosition(-10));
+        assertEquals(0, calculator.findPosition(0));
+        assertEquals(0, calculator.findPosition(607));
+        assertEquals(1, calculator.findPosition(608));
+        assertEquals(2, calculator.findPosition(1418));
+        assertEquals(2, calculator.findPosition(100000));
+    }
+
+    public void testPackedRatiosMustComeInPairs() {
+        try {
+            new RowHeightCalculator(WIDTH, UNSPECIFIED).append(new int[] {16, 9, 4});
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static int[] randomRatios(int count) {
+        Random random = new Random(count);
+        int[] ratios = new int[count * 2];
+        for (int i = 0; i < ratios.length; i++) {
+            ratios[i] = 1 + random.nextInt(4000);
+        }
+        return ratios;
+    }
+}